@@ -1,19 +1,35 @@
 package org.springframework.integration.checkpoint;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.integration.Message;
 import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.core.PollableChannel;
 import org.springframework.integration.context.NamedComponent;
 import org.springframework.integration.channel.interceptor.WireTap;
 import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
 import org.springframework.integration.core.MessageSelector;
 import org.springframework.integration.history.MessageHistory;
 import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
 import org.springframework.util.PatternMatchUtils;
 import org.springframework.util.StringUtils;
 
@@ -21,16 +37,102 @@ import org.springframework.util.StringUtils;
  /**
   * A subclass of {@link WireTap} for generating checkpoint messages
   * to a message channel for transaction monitoring. 
+  * <p>
+  * By default each checkpoint is sent on the caller's thread. If async is set, the intercepting thread only 
+  * enqueues the intercepted message in a bounded {@link CheckpointRingBuffer}, and a background thread builds the 
+  * checkpoints and sends them to the checkpoint channel in batches. The {@link OverflowPolicy} determines what 
+  * happens when the buffer is full. In this mode {@link #addCheckpointProperties(Message)} is called on the 
+  * background thread. Buffered checkpoints are sent when the wire tap is stopped, which by default happens 
+  * before other lifecycle components, e.g. the {@link CheckpointWindowAggregator}, are stopped. 
+  * <p>
+  * Setting transactionSampleRate below 1 checkpoints only a fraction of transactions. The decision is a hash of the 
+  * transaction id, so a sampled transaction is checkpointed on every hop, by every wire tap with the same rate, in 
+  * any process, provided the id header is carried with the same type. With tailSampling set, the checkpoints of 
+  * transactions not sampled are held in a bounded {@link TailSamplingBuffer}, and released if the transaction 
+  * proves to be slow (a checkpoint arrives slowTransactionThreshold millis after its first in this process) or 
+  * fails (a send fails, or an error message carries it). The sampling properties may be changed at runtime over JMX.
+  * <p>
+  * On pollable channels, e.g. a QueueChannel, the time each message is enqueued is recorded in preSend, by message 
+  * id, and its dwell time is measured when it is received. Enqueue times of messages not received within 
+  * trackedMessageTimeout, e.g. purged or never polled, are discarded. Dwell times are recorded in a 
+  * {@link SlidingWindowHistogram} per channel, exposed over JMX, and added to POST_RECEIVE checkpoints as the 
+  * {@link Checkpoint#DWELL_TIME_PROPERTY} property. PRE_RECEIVE has no message, so generates no checkpoint.
   * 
   * @author David Turanski
   *
   */
 
-public abstract class AbstractCheckpointWireTap extends WireTap implements InitializingBean {
-    
+@ManagedResource(description = "Checkpoint wire tap")
+public abstract class AbstractCheckpointWireTap extends WireTap implements InitializingBean, SmartLifecycle, 
+		DisposableBean {
+	
+	/**
+	 * What to do with a checkpoint when the async buffer is full 
+	 */
+	public static enum OverflowPolicy {
+		/** discard the checkpoint */
+		DROP, 
+		/** keep one in sampleRate of the overflowing checkpoints, waiting for space, and discard the rest */
+		SAMPLE, 
+		/** wait for space in the buffer */
+		BLOCK
+	}
+	
+	// how long a blocked producer first waits for space, doubling up to MAX_WAIT_NANOS while the buffer stays full
+	private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	
+	private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	
 	private final MessageChannel checkpointChannel; 
 	private long timeout;
 	
+	private boolean async;
+	
+	private int bufferSize = 8192;
+	
+	private int batchSize = 256;
+	
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+	
+	private int sampleRate = 10;
+	
+	private int phase = Integer.MAX_VALUE;
+	
+	private CheckpointRingBuffer<PendingCheckpoint> buffer;
+	
+	private volatile Thread emitter;
+	
+	private volatile boolean emitting;
+	
+	// set while the emitter is parked on an empty buffer, so that producers unpark it
+	private volatile boolean emitterParked;
+	
+	// serializes consumers of the buffer, uncontended while the emitter is running
+	private final Object flushMonitor = new Object();
+	
+	private final AtomicLong overflowCount = new AtomicLong();
+	
+	private final AtomicLong droppedCount = new AtomicLong();
+	
+	// transactions whose id hashes below this, out of SAMPLE_RANGE, are sampled 
+	private static final long SAMPLE_RANGE = 1L << 24;
+	
+	private volatile long sampleThreshold = SAMPLE_RANGE;
+	
+	private volatile double transactionSampleRate = 1.0;
+	
+	private boolean tailSampling;
+	
+	private long slowTransactionThreshold = 5000;
+	
+	private long pendingTransactionTimeout = 60000;
+	
+	private int maxPendingTransactions = 10000;
+	
+	private int maxCheckpointsPerTransaction = 64;
+	
+	private volatile TailSamplingBuffer<PendingCheckpoint> tailSamplingBuffer;
+	
 	private String transactionIdHeader;
 	
 	private boolean includeMessage;
@@ -39,6 +141,36 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 	
 	private List<MessageEvent> enabledMessageEvents;
 	
+	// bit n is set if MessageEvent with ordinal n is enabled
+	private volatile int enabledEventMask = ~0;
+	
+	// intercepted channel -> whether its name matches the pattern, and its dwell times. Channels do not override 
+	// equals, so this is keyed by identity
+	private final ConcurrentMap<MessageChannel, ChannelState> channelStates = 
+		new ConcurrentHashMap<MessageChannel, ChannelState>();
+	
+	private static final long NO_DWELL_TIME = -1;
+	
+	private boolean trackDwellTime = true;
+	
+	private long dwellTimeWindowMillis = 60000;
+	
+	private int maxTrackedMessages = 100000;
+	
+	private long trackedMessageTimeout = 600000;
+	
+	// message id -> System.nanoTime() when sent to a pollable channel
+	private final ConcurrentMap<UUID, Long> enqueueTimes = new ConcurrentHashMap<UUID, Long>();
+	
+	private final AtomicInteger trackedMessageCount = new AtomicInteger();
+	
+	private final AtomicLong untrackedMessageCount = new AtomicLong();
+	
+	private final AtomicLong expiredMessageCount = new AtomicLong();
+	
+	// System.nanoTime() after which the next sender sweeps expired enqueue times
+	private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+	
 	protected Logger logger = Logger.getLogger(getClass()); 
 	
 	public AbstractCheckpointWireTap(MessageChannel channel) {
@@ -58,8 +190,29 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 
 	@Override
 	public final Message<?> preSend(Message<?> message, MessageChannel messageChannel) {
-		logger.debug("PRE_SEND:"+ this.getChannelName(messageChannel));
-		Message<?> enrichedMessage = handleCheckpoint(message, messageChannel, MessageEvent.PRE_SEND); 
+		if (logger.isDebugEnabled()){
+			logger.debug("PRE_SEND:"+ this.getChannelName(messageChannel));
+		}
+		ChannelState state = channelState(messageChannel);
+		Message<?> enrichedMessage = handleCheckpoint(message, messageChannel, state, MessageEvent.PRE_SEND, false, 
+				NO_DWELL_TIME); 
+		if (null != state.dwellTimes){
+			long now = System.nanoTime();
+			long sweep = nextSweep.get();
+			if (now - sweep >= 0 && nextSweep.compareAndSet(sweep, now + TimeUnit.MILLISECONDS.toNanos(
+					trackedMessageTimeout) / 2)){
+				expireEnqueueTimes(now);
+			}
+			// before the send, so the message cannot be received first
+			if (trackedMessageCount.incrementAndGet() <= maxTrackedMessages){
+				if (null != enqueueTimes.put(enrichedMessage.getHeaders().getId(), now)){
+					trackedMessageCount.decrementAndGet();
+				}
+			} else {
+				trackedMessageCount.decrementAndGet();
+				untrackedMessageCount.incrementAndGet();
+			}
+		}
 		return enrichedMessage;
 	}
 
@@ -69,20 +222,69 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 	 */
 	@Override
 	public final void postSend(Message<?> message, MessageChannel messageChannel, boolean sent) {
-		handleCheckpoint(message, messageChannel, MessageEvent.POST_SEND);
+		ChannelState state = channelState(messageChannel);
+		if (!sent && null != state.dwellTimes){
+			dequeued(message);
+		}
+		handleCheckpoint(message, messageChannel, state, MessageEvent.POST_SEND, !sent, NO_DWELL_TIME);
 	}	
 
-	//TODO: Implement PRE_RECEIVE checkpointing on pollable channels
+	/**
+	 * There is no message before a receive, so no checkpoint is generated
+	 */
 	@Override
 	public final boolean preReceive(MessageChannel channel) {
-		logger.debug("PRE_RECEIVE:");
+		if (logger.isDebugEnabled()){
+			logger.debug("PRE_RECEIVE:" + getChannelName(channel));
+		}
 		return true;
 	}
-	//TODO: Implement postReceive checkpointing on pollable channels
+
+	/**
+	 * Records the message's dwell time on the channel, and generates a POST_RECEIVE checkpoint
+	 */
 	@Override
 	public final Message<?> postReceive(Message<?> message, MessageChannel channel) {	 
-		logger.debug("postReceive:"  + message.getHeaders());
-		return message;
+		if (null == message){
+			return null;
+		}
+		if (logger.isDebugEnabled()){
+			logger.debug("postReceive:"  + message.getHeaders());
+		}
+		ChannelState state = channelState(channel);
+		long dwellTime = NO_DWELL_TIME;
+		if (null != state.dwellTimes){
+			Long enqueued = dequeued(message);
+			if (null != enqueued){
+				dwellTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - enqueued);
+				state.dwellTimes.record(dwellTime, System.currentTimeMillis());
+			}
+		}
+		return handleCheckpoint(message, channel, state, MessageEvent.POST_RECEIVE, false, dwellTime);
+	}
+	
+	private Long dequeued(Message<?> message){
+		Long enqueued = enqueueTimes.remove(message.getHeaders().getId());
+		if (null != enqueued){
+			trackedMessageCount.decrementAndGet();
+		}
+		return enqueued;
+	}
+	
+	/*
+	 * Discards the enqueue times of messages not received within trackedMessageTimeout, so that they do not use up
+	 * maxTrackedMessages. Called by one sender every half timeout
+	 */
+	private void expireEnqueueTimes(long now){
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(trackedMessageTimeout);
+		for (Map.Entry<UUID, Long> entry: enqueueTimes.entrySet()){
+			Long enqueued = entry.getValue();
+			// a receiver may remove it first
+			if (now - enqueued > timeoutNanos && enqueueTimes.remove(entry.getKey(), enqueued)){
+				trackedMessageCount.decrementAndGet();
+				expiredMessageCount.incrementAndGet();
+			}
+		}
 	}
 	
 	/**
@@ -114,35 +316,145 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 	 */
 	public void setEnabledMessageEvents(List<MessageEvent> enabledMessageEvents) {
 		this.enabledMessageEvents = enabledMessageEvents;
+		int mask = ~0;
+		if (null != enabledMessageEvents){
+			mask = 0;
+			for (MessageEvent me: enabledMessageEvents){
+				mask |= 1 << me.ordinal();
+			}
+		}
+		this.enabledEventMask = mask;
 	}
 
-	private Message<?> handleCheckpoint(Message<?> message, MessageChannel messageChannel, MessageEvent me){
-		Message<Checkpoint> checkpointMessage;
+	private Message<?> handleCheckpoint(Message<?> message, MessageChannel messageChannel, ChannelState state, 
+			MessageEvent me, boolean failed, long dwellTime){
 		Message<?> enrichedMessage = message;
-	    String channelName = getChannelName(messageChannel);
-		if (checkpointEnabled(channelName) && messageEventEnabled(me) ){
-
-			logger.debug("creating checkpoint on " + channelName);
+		if (messageEventEnabled(me) && state.enabled){
 
 			enrichedMessage = initializeTransactionIfNecessary(message);
+			Object transactionId = enrichedMessage.getHeaders().get(transactionIdHeader);
 
-			checkpointMessage = buildCheckpointMessage(messageChannel, enrichedMessage, me);
-
-			if (timeout > 0){
-				checkpointChannel.send(checkpointMessage,timeout);
+			if (isSampled(transactionId)){
+				if (logger.isDebugEnabled()){
+					logger.debug("creating checkpoint on " + getChannelName(messageChannel));
+				}
+				emit(new PendingCheckpoint(messageChannel, enrichedMessage, me, dwellTime));
 			} else {
-				checkpointChannel.send(checkpointMessage);
+				TailSamplingBuffer<PendingCheckpoint> tailBuffer = tailSamplingBuffer;
+				if (null != tailBuffer){
+					failed = failed || enrichedMessage.getPayload() instanceof Throwable;
+					List<PendingCheckpoint> released = tailBuffer.add(transactionId, 
+							new PendingCheckpoint(messageChannel, enrichedMessage, me, dwellTime), failed, 
+							System.currentTimeMillis());
+					for (PendingCheckpoint pending: released){
+						emit(pending);
+					}
+				}
 			}
 		}		
 		return enrichedMessage;
 	}
+	
+	private void emit(PendingCheckpoint pending){
+		if (emitting){
+			enqueue(pending);
+		} else {
+			sendCheckpoint(pending);
+		}
+	}
+	
+	private boolean isSampled(Object transactionId){
+		long threshold = sampleThreshold;
+		if (threshold >= SAMPLE_RANGE){
+			return true;
+		}
+		long h;
+		if (transactionId instanceof UUID){
+			UUID uuid = (UUID) transactionId;
+			h = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+		} else {
+			h = transactionId.toString().hashCode();
+		}
+		// spread the bits so that similar ids sample independently
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h >>> 40) < threshold;
+	}
+	
+	private void sendCheckpoint(PendingCheckpoint pending){
+		Message<Checkpoint> checkpointMessage = buildCheckpointMessage(pending);
 
-    private boolean messageEventEnabled(MessageEvent me) {
-    	boolean enabled = true;
-		if ( null != enabledMessageEvents){
-			enabled = enabledMessageEvents.contains(me);
+		if (timeout > 0){
+			checkpointChannel.send(checkpointMessage,timeout);
+		} else {
+			checkpointChannel.send(checkpointMessage);
 		}
-		return enabled;
+	}
+	
+	private void enqueue(PendingCheckpoint pending){
+		if (!buffer.offer(pending)){
+			if (overflowPolicy == OverflowPolicy.DROP ||
+				(overflowPolicy == OverflowPolicy.SAMPLE && overflowCount.incrementAndGet() % sampleRate != 0)){
+				droppedCount.incrementAndGet();
+				return;
+			}
+			long wait = WAIT_NANOS;
+			while (!buffer.offer(pending)){
+				if (!emitting){
+					sendCheckpoint(pending);
+					return;
+				}
+				wakeEmitter();
+				LockSupport.parkNanos(wait);
+				wait = Math.min(wait * 2, MAX_WAIT_NANOS);
+			}
+		}
+		wakeEmitter();
+		// the emitter may have stopped before this was enqueued
+		if (!emitting){
+			flush();
+		}
+	}
+	
+	private void wakeEmitter(){
+		if (emitterParked){
+			Thread parked = emitter;
+			if (null != parked){
+				LockSupport.unpark(parked);
+			}
+		}
+	}
+	
+	/**
+	 * Send the buffered checkpoints, one batch at a time
+	 * @return the number of checkpoints sent
+	 */
+	private int flush(){
+		int total = 0;
+		PendingCheckpoint[] batch = new PendingCheckpoint[batchSize];
+		int count;
+		do {
+			synchronized (flushMonitor) {
+				count = buffer.drainTo(batch);
+				for (int i = 0; i < count; i++){
+					try {
+						sendCheckpoint(batch[i]);
+					} catch (RuntimeException e) {
+						logger.error("failed to send checkpoint for message " + batch[i].message.getHeaders().getId(), e);
+					}
+					batch[i] = null;
+				}
+			}
+			total += count;
+		} while (count == batchSize);
+		return total;
+	}
+
+    private boolean messageEventEnabled(MessageEvent me) {
+		return (enabledEventMask & (1 << me.ordinal())) != 0;
 	}
 
 	@Override
@@ -173,16 +485,30 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
      */
 	public void setPattern(String pattern) {
 		this.pattern = pattern;
+		channelStates.clear();
 	}
 
 	private Message<?> initializeTransactionIfNecessary(Message<?> message) {
-		return MessageBuilder.fromMessage(message).setHeaderIfAbsent(transactionIdHeader, UUID.randomUUID()).build();
+		if (message.getHeaders().containsKey(transactionIdHeader)){
+			return message;
+		}
+		Object transactionId = null;
+		// an error message belongs to the failed message's transaction
+		if (message.getPayload() instanceof MessagingException){
+			Message<?> failedMessage = ((MessagingException) message.getPayload()).getFailedMessage();
+			if (null != failedMessage){
+				transactionId = failedMessage.getHeaders().get(transactionIdHeader);
+			}
+		}
+		return MessageBuilder.fromMessage(message).setHeader(transactionIdHeader, 
+				(null == transactionId) ? UUID.randomUUID() : transactionId).build();
 	}
 	
-	private Message<Checkpoint> buildCheckpointMessage(MessageChannel channel, Message<?> message, MessageEvent me) {
+	private Message<Checkpoint> buildCheckpointMessage(PendingCheckpoint pending) {
 		 
-		 return MessageBuilder.withPayload(buildCheckpoint(channel, message,me))
-		 .setHeaderIfAbsent(transactionIdHeader,message.getHeaders().get(transactionIdHeader))
+		 return MessageBuilder.withPayload(buildCheckpoint(pending.channel, pending.message, pending.event, 
+				 pending.dwellTime))
+		 .setHeaderIfAbsent(transactionIdHeader,pending.message.getHeaders().get(transactionIdHeader))
 		 .build();
 	}
     
@@ -193,7 +519,7 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 	 */
 	protected abstract Properties addCheckpointProperties(Message<?> message);
 	
-	private Checkpoint buildCheckpoint(MessageChannel channel,  Message<?> message, MessageEvent me){
+	private Checkpoint buildCheckpoint(MessageChannel channel,  Message<?> message, MessageEvent me, long dwellTime){
 		Checkpoint checkpoint = new Checkpoint();
 		
 		checkpoint.setChannelName(getChannelName(channel));		 
@@ -227,9 +553,33 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 				checkpoint.getProperties().putAll(checkpointProperties);
 			}
 		}
+		if (dwellTime != NO_DWELL_TIME){
+			if (null == checkpoint.getProperties()){
+				checkpoint.setProperties(new Properties());
+			}
+			checkpoint.getProperties().put(Checkpoint.DWELL_TIME_PROPERTY, dwellTime);
+		}
 		return checkpoint;
 	}
 	
+	private ChannelState channelState(MessageChannel channel){
+		ChannelState state = channelStates.get(channel);
+		if (null == state){
+			String channelName = getChannelName(channel);
+			boolean enabled = checkpointEnabled(channelName);
+			SlidingWindowHistogram dwellTimes = null;
+			if (enabled && trackDwellTime && channel instanceof PollableChannel){
+				dwellTimes = new SlidingWindowHistogram(dwellTimeWindowMillis, 6);
+			}
+			state = new ChannelState(channelName, enabled, dwellTimes);
+			ChannelState existing = channelStates.putIfAbsent(channel, state);
+			if (null != existing){
+				state = existing;
+			}
+		}
+		return state;
+	}
+	
 	private boolean checkpointEnabled(String componentName){
 		if (!StringUtils.hasText(pattern)){
 			return true;
@@ -243,10 +593,380 @@ public abstract class AbstractCheckpointWireTap extends WireTap implements Initi
 		if (!StringUtils.hasText(transactionIdHeader)){
 			throw new IllegalStateException("transactionIdHeader is a required property");
 		}
+		if (async){
+			buffer = new CheckpointRingBuffer<PendingCheckpoint>(bufferSize);
+		}
+		if (tailSampling){
+			createTailSamplingBuffer();
+		}
+	}
+	
+	private void createTailSamplingBuffer(){
+		tailSamplingBuffer = new TailSamplingBuffer<PendingCheckpoint>(slowTransactionThreshold, 
+				Math.max(pendingTransactionTimeout, slowTransactionThreshold), maxPendingTransactions, 
+				maxCheckpointsPerTransaction);
+	}
+	
+	/**
+	 * 
+	 * @return the fraction of transactions checkpointed
+	 */
+	@ManagedAttribute(description = "Fraction of transactions checkpointed, 0 to 1")
+	public double getTransactionSampleRate() {
+		return transactionSampleRate;
+	}
+	
+	/**
+	 * 
+	 * @param transactionSampleRate the fraction of transactions checkpointed, between 0 and 1. Default is 1
+	 */
+	@ManagedAttribute
+	public void setTransactionSampleRate(double transactionSampleRate) {
+		Assert.isTrue(transactionSampleRate >= 0 && transactionSampleRate <= 1, 
+				"transactionSampleRate must be between 0 and 1");
+		this.transactionSampleRate = transactionSampleRate;
+		this.sampleThreshold = (long) Math.ceil(transactionSampleRate * SAMPLE_RANGE);
+	}
+	
+	/**
+	 * 
+	 * @param tailSampling true to keep slow or failed transactions which are not sampled
+	 */
+	public void setTailSampling(boolean tailSampling) {
+		this.tailSampling = tailSampling;
+	}
+	
+	@ManagedAttribute(description = "Millis after which a transaction which was not sampled is kept as slow")
+	public long getSlowTransactionThreshold() {
+		return slowTransactionThreshold;
+	}
+	
+	/**
+	 * 
+	 * @param slowTransactionThreshold millis after its first checkpoint after which a transaction is slow. 
+	 * Default is 5000. If changed at runtime, pending transactions are discarded
+	 */
+	@ManagedAttribute
+	public void setSlowTransactionThreshold(long slowTransactionThreshold) {
+		Assert.isTrue(slowTransactionThreshold > 0, "slowTransactionThreshold must be greater than 0");
+		this.slowTransactionThreshold = slowTransactionThreshold;
+		if (null != tailSamplingBuffer){
+			createTailSamplingBuffer();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param pendingTransactionTimeout millis for which the checkpoints of a transaction are held. Default is 60000
+	 */
+	public void setPendingTransactionTimeout(long pendingTransactionTimeout) {
+		this.pendingTransactionTimeout = pendingTransactionTimeout;
+	}
+	
+	/**
+	 * 
+	 * @param maxPendingTransactions the maximum number of transactions held. Default is 10000
+	 */
+	public void setMaxPendingTransactions(int maxPendingTransactions) {
+		this.maxPendingTransactions = maxPendingTransactions;
+	}
+	
+	/**
+	 * 
+	 * @param maxCheckpointsPerTransaction the maximum checkpoints held per transaction. Default is 64
+	 */
+	public void setMaxCheckpointsPerTransaction(int maxCheckpointsPerTransaction) {
+		this.maxCheckpointsPerTransaction = maxCheckpointsPerTransaction;
+	}
+	
+	@ManagedAttribute(description = "Transactions which were not sampled, held in case they are slow or fail")
+	public int getPendingTransactionCount() {
+		TailSamplingBuffer<PendingCheckpoint> tailBuffer = tailSamplingBuffer;
+		return (null == tailBuffer) ? 0 : tailBuffer.size();
+	}
+	
+	@ManagedAttribute(description = "Transactions which were not sampled, kept as slow or failed")
+	public long getTailSampledCount() {
+		TailSamplingBuffer<PendingCheckpoint> tailBuffer = tailSamplingBuffer;
+		return (null == tailBuffer) ? 0 : tailBuffer.getReleasedCount();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.channel.interceptor.WireTap#start()
+	 */
+	@Override
+	public void start() {
+		super.start();
+		synchronized (flushMonitor) {
+			if (async && null == emitter){
+				emitting = true;
+				emitter = new Thread(new Emitter(), "checkpoint-emitter");
+				emitter.setDaemon(true);
+				emitter.start();
+			}
+		}
+	}
+	
+	/**
+	 * Stop the background thread, if any, and send any buffered checkpoints. Checkpoints are then sent on the 
+	 * caller's thread until restarted.
+	 */
+	@Override
+	public void stop() {
+		Thread stopping;
+		synchronized (flushMonitor) {
+			stopping = emitter;
+			emitter = null;
+			emitting = false;
+		}
+		if (null != stopping){
+			LockSupport.unpark(stopping);
+			try {
+				stopping.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			int flushed = flush();
+			if (logger.isInfoEnabled()){
+				logger.info("stopped checkpoint emitter, sent " + flushed + " buffered checkpoints, dropped " 
+						+ droppedCount.get());
+			}
+		}
+		super.stop();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.SmartLifecycle#stop(java.lang.Runnable)
+	 */
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public void destroy() {
+		stop();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.SmartLifecycle#isAutoStartup()
+	 */
+	public boolean isAutoStartup() {
+		return true;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.Phased#getPhase()
+	 */
+	public int getPhase() {
+		return phase;
+	}
+	
+	/**
+	 * 
+	 * @param phase the start/stop order. The default, Integer.MAX_VALUE, stops the wire tap first
+	 */
+	public void setPhase(int phase) {
+		this.phase = phase;
+	}
+	
+	/**
+	 * 
+	 * @param async true to send checkpoints from a background thread
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+	
+	public boolean isAsync() {
+		return async;
+	}
+	
+	/**
+	 * 
+	 * @param bufferSize the capacity of the async buffer, rounded up to a power of 2. Default is 8192
+	 */
+	public void setBufferSize(int bufferSize) {
+		Assert.isTrue(bufferSize > 0, "bufferSize must be greater than 0");
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * 
+	 * @param batchSize the maximum number of checkpoints sent per batch. Default is 256
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * 
+	 * @param overflowPolicy what to do when the async buffer is full. Default is DROP
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "overflowPolicy cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * 
+	 * @param sampleRate for the SAMPLE overflow policy, one in sampleRate overflowing checkpoints is kept. Default is 10
+	 */
+	public void setSampleRate(int sampleRate) {
+		Assert.isTrue(sampleRate > 0, "sampleRate must be greater than 0");
+		this.sampleRate = sampleRate;
+	}
+	
+	/**
+	 * 
+	 * @return the number of checkpoints discarded because the async buffer was full
+	 */
+	@ManagedAttribute(description = "Checkpoints discarded because the async buffer was full")
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	/**
+	 * 
+	 * @param trackDwellTime true to measure the dwell time of messages on pollable channels. Default is true
+	 */
+	public void setTrackDwellTime(boolean trackDwellTime) {
+		this.trackDwellTime = trackDwellTime;
+	}
+	
+	/**
+	 * 
+	 * @param dwellTimeWindowMillis the window over which dwell times are reported. Default is 60000
+	 */
+	public void setDwellTimeWindowMillis(long dwellTimeWindowMillis) {
+		this.dwellTimeWindowMillis = dwellTimeWindowMillis;
+	}
+	
+	/**
+	 * 
+	 * @param maxTrackedMessages the maximum number of queued messages whose enqueue time is held. Default is 100000
+	 */
+	public void setMaxTrackedMessages(int maxTrackedMessages) {
+		this.maxTrackedMessages = maxTrackedMessages;
+	}
+	
+	/**
+	 * 
+	 * @param trackedMessageTimeout how long, in millis, the enqueue time of a message not yet received is held. 
+	 * Default is 600000
+	 */
+	public void setTrackedMessageTimeout(long trackedMessageTimeout) {
+		Assert.isTrue(trackedMessageTimeout > 0, "trackedMessageTimeout must be greater than 0");
+		this.trackedMessageTimeout = trackedMessageTimeout;
+	}
+	
+	/**
+	 * 
+	 * @return channel name -> dwell times (microseconds), for each pollable channel intercepted
+	 */
+	public Map<String, SlidingWindowHistogram> getDwellTimes() {
+		Map<String, SlidingWindowHistogram> dwellTimes = new TreeMap<String, SlidingWindowHistogram>();
+		for (ChannelState state: channelStates.values()){
+			if (null != state.dwellTimes){
+				dwellTimes.put(state.name, state.dwellTimes);
+			}
+		}
+		return dwellTimes;
+	}
+	
+	@ManagedAttribute(description = "Queue dwell times (microseconds) per pollable channel over the window")
+	public String[] getDwellTimeStatistics() {
+		long now = System.currentTimeMillis();
+		List<String> statistics = new ArrayList<String>();
+		for (Map.Entry<String, SlidingWindowHistogram> entry: getDwellTimes().entrySet()){
+			SlidingWindowHistogram dwellTimes = entry.getValue();
+			long[] percentiles = dwellTimes.getPercentiles(new double[] {50, 90, 99}, now);
+			statistics.add(entry.getKey() + " count [" + dwellTimes.getCount(now) + "] p50 [" + percentiles[0] 
+					+ "] p90 [" + percentiles[1] + "] p99 [" + percentiles[2] + "] max [" + dwellTimes.getMax(now) + "]");
+		}
+		return statistics.toArray(new String[statistics.size()]);
+	}
+	
+	@ManagedAttribute(description = "Queued messages whose dwell time was not measured because maxTrackedMessages was reached")
+	public long getUntrackedMessageCount() {
+		return untrackedMessageCount.get();
+	}
+	
+	@ManagedAttribute(description = "Queued messages not received within trackedMessageTimeout, whose enqueue time was discarded")
+	public long getExpiredMessageCount() {
+		return expiredMessageCount.get();
+	}
+	
+	/**
+	 * 
+	 * @return the number of checkpoints waiting in the async buffer
+	 */
+	@ManagedAttribute(description = "Checkpoints waiting in the async buffer")
+	public int getBufferedCount() {
+		return (null == buffer) ? 0 : buffer.size();
 	}
 	
 	protected String getChannelName(MessageChannel channel){
 		return ((NamedComponent)channel).getComponentName();
 	}
 	
+	/*
+	 * An intercepted message waiting for its checkpoint to be built and sent
+	 */
+	private static final class PendingCheckpoint {
+		private final MessageChannel channel;
+		private final Message<?> message;
+		private final MessageEvent event;
+		private final long dwellTime;
+		
+		PendingCheckpoint(MessageChannel channel, Message<?> message, MessageEvent event, long dwellTime){
+			this.channel = channel;
+			this.message = message;
+			this.event = event;
+			this.dwellTime = dwellTime;
+		}
+	}
+	
+	/*
+	 * What is known about an intercepted channel
+	 */
+	private static final class ChannelState {
+		private final String name;
+		private final boolean enabled;
+		// null unless a checkpointed pollable channel
+		private final SlidingWindowHistogram dwellTimes;
+		
+		ChannelState(String name, boolean enabled, SlidingWindowHistogram dwellTimes){
+			this.name = name;
+			this.enabled = enabled;
+			this.dwellTimes = dwellTimes;
+		}
+	}
+	
+	/*
+	 * Sends buffered checkpoints until stopped. Parks while the buffer is empty, until a producer enqueues
+	 */
+	private class Emitter implements Runnable {
+		public void run() {
+			while (emitting){
+				if (flush() == 0){
+					emitterParked = true;
+					// check again after announcing, so a checkpoint enqueued in between is not left waiting
+					if (emitting && buffer.size() == 0){
+						LockSupport.park(this);
+					}
+					emitterParked = false;
+				}
+			}
+		}
+	}
+	
 }
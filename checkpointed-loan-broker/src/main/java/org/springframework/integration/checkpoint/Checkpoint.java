@@ -23,22 +23,29 @@ public class Checkpoint implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	public static enum MessageEvent{PRE_SEND, POST_SEND, PRE_RECEIVE, POST_RECEIVE}
+	/**
+	 * The property holding the time, in microseconds, a message waited on a pollable channel. Set on POST_RECEIVE 
+	 * checkpoints
+	 */
+	public static final String DWELL_TIME_PROPERTY = "dwellTimeMicros";
     private String globalTransactionId;
     private String channelName;
     private MessageHistory messageHistory;
     private long timestamp;
     private MessageEvent messageEvent; 
     private Properties properties;
-    private static String hostname;
-    private static String hostIP;
+    private static String localHostname;
+    private static String localHostIP;
+    private String hostname = localHostname;
+    private String hostIP = localHostIP;
     private String messageID;
     private String payloadType;
     private Message<?> message;
    
     static {
     	try { InetAddress addr = InetAddress.getLocalHost(); 
- 	     hostIP = addr.getHostAddress();
- 	     hostname = addr.getHostName(); 
+ 	     localHostIP = addr.getHostAddress();
+ 	     localHostname = addr.getHostName(); 
  	  } catch (UnknownHostException e) { 
  		  
  	  } 
@@ -109,19 +116,35 @@ public class Checkpoint implements Serializable {
 
 	/**
 	 * 
-	 * @return
+	 * @return the name of the host which created the checkpoint
 	 */
 	public String getHostname() {
 		return hostname;
 	}
 	
+	/**
+	 * 
+	 * @param hostname the name of the host which created the checkpoint. Defaults to the local host
+	 */
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+	
     /**
      * 
-     * @return
+     * @return the address of the host which created the checkpoint
      */
 	public String getHostIP() {
 		return hostIP;
 	}
+	
+	/**
+	 * 
+	 * @param hostIP the address of the host which created the checkpoint. Defaults to the local host
+	 */
+	public void setHostIP(String hostIP) {
+		this.hostIP = hostIP;
+	}
 
 	/**
 	 * 
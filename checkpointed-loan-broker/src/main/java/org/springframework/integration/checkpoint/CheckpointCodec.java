@@ -0,0 +1,706 @@
+package org.springframework.integration.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.context.NamedComponent;
+import org.springframework.integration.history.MessageHistory;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Encodes {@link Checkpoint}s in a compact binary format, several times smaller than Java serialization, for
+ * shipping to an external monitor. One or more checkpoints are encoded as a batch:
+ * <ul>
+ * <li>longs, ints and lengths are variable length, so e.g. a timestamp takes 6 bytes and a message history
+ * timestamp, written relative to the checkpoint's, typically 1 or 2</li>
+ * <li>channel names, payload types, message history components and property keys are interned: each distinct string
+ * is written once per batch, then referred to by index. Strings set with {@link #setSymbols(List)} are never
+ * written, but must then be the same for the encoder and decoder</li>
+ * <li>the host is identified by its IPv4 address, written as 4 bytes. The hostname is not written; the decoder
+ * sets it from {@link #setHostnames(Map)} if configured</li>
+ * <li>UUID transaction and message ids are written as 16 bytes</li>
+ * <li>property values of primitive wrapper types keep their type; other values are written as strings</li>
+ * <li>the original message, if included, is written with Java serialization</li>
+ * </ul>
+ * An instance is thread safe once configured.
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointCodec {
+	static final int VERSION = 1;
+
+	// set in the header byte if the batch was encoded from a single checkpoint
+	private static final int SINGLE = 0x80;
+
+	// checkpoint flags, written in 7 bit groups so the common flags take one byte. The low 2 bits are the
+	// MessageEvent ordinal, unless NULL_EVENT is set
+	private static final int EVENT_MASK = 0x03;
+
+	private static final int IPV4_HOST = 0x04;
+
+	private static final int UUID_TRANSACTION_ID = 0x08;
+
+	private static final int UUID_MESSAGE_ID = 0x10;
+
+	private static final int HAS_HISTORY = 0x20;
+
+	private static final int HAS_PROPERTIES = 0x40;
+
+	private static final int HAS_MESSAGE = 0x80;
+
+	private static final int NULL_EVENT = 0x100;
+
+	// the fewest bytes an encoded checkpoint can take, used to reject corrupt counts before allocating
+	private static final int MIN_CHECKPOINT_SIZE = 7;
+
+	// symbol references. Other values are the symbol's index + FIRST_INDEX
+	private static final int NULL_SYMBOL = 0;
+
+	private static final int NEW_SYMBOL = 1;
+
+	private static final int FIRST_INDEX = 2;
+
+	// property value types
+	private static final int NULL_VALUE = 0;
+
+	private static final int STRING_VALUE = 1;
+
+	private static final int INTEGER_VALUE = 2;
+
+	private static final int LONG_VALUE = 3;
+
+	private static final int DOUBLE_VALUE = 4;
+
+	private static final int FLOAT_VALUE = 5;
+
+	private static final int BOOLEAN_VALUE = 6;
+
+	private static final MessageEvent[] MESSAGE_EVENTS = MessageEvent.values();
+
+	private List<String> symbols = Collections.emptyList();
+
+	private Map<String, Integer> symbolIndexes = Collections.emptyMap();
+
+	private Map<String, String> hostnames = Collections.emptyMap();
+
+	/**
+	 *
+	 * @param symbols strings, e.g. channel names, known to both the encoder and decoder, which are never written
+	 */
+	public void setSymbols(List<String> symbols) {
+		Assert.notNull(symbols, "symbols cannot be null");
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		for (String symbol : symbols) {
+			Assert.notNull(symbol, "symbols cannot contain null");
+			if (!indexes.containsKey(symbol)) {
+				indexes.put(symbol, indexes.size());
+			}
+		}
+		List<String> distinct = new ArrayList<String>(Collections.<String> nCopies(indexes.size(), null));
+		for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+			distinct.set(entry.getValue(), entry.getKey());
+		}
+		this.symbols = distinct;
+		this.symbolIndexes = indexes;
+	}
+
+	/**
+	 *
+	 * @param hostnames host IP address -> hostname, used to set the hostname of decoded checkpoints
+	 */
+	public void setHostnames(Map<String, String> hostnames) {
+		Assert.notNull(hostnames, "hostnames cannot be null");
+		this.hostnames = hostnames;
+	}
+
+	/**
+	 *
+	 * @param checkpoint
+	 * @return the encoded checkpoint
+	 */
+	public byte[] encode(Checkpoint checkpoint) {
+		Assert.notNull(checkpoint, "checkpoint cannot be null");
+		return encode(Collections.singletonList(checkpoint), true);
+	}
+
+	/**
+	 *
+	 * @param checkpoints
+	 * @return the encoded batch of checkpoints
+	 */
+	public byte[] encode(List<Checkpoint> checkpoints) {
+		Assert.notNull(checkpoints, "checkpoints cannot be null");
+		return encode(checkpoints, false);
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @return the decoded checkpoints
+	 */
+	public List<Checkpoint> decode(byte[] bytes) {
+		Assert.notNull(bytes, "bytes cannot be null");
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Decodes the bytes from the buffer's position to its limit, without copying them, e.g. from a memory mapped
+	 * file. The buffer's position is advanced past the batch
+	 *
+	 * @param buffer
+	 * @return the decoded checkpoints
+	 */
+	public List<Checkpoint> decode(ByteBuffer buffer) {
+		Assert.notNull(buffer, "buffer cannot be null");
+		Reader reader = new Reader(buffer);
+		try {
+			int header = reader.readByte();
+			int version = header & ~SINGLE;
+			if (version != VERSION) {
+				throw new IllegalArgumentException("unsupported checkpoint format version " + version);
+			}
+			int count = reader.readInt();
+			if (count < 0 || count > buffer.remaining() / MIN_CHECKPOINT_SIZE) {
+				throw new IllegalArgumentException("invalid checkpoint count " + count);
+			}
+			List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(count);
+			for (int i = 0; i < count; i++) {
+				checkpoints.add(readCheckpoint(reader));
+			}
+			return checkpoints;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated checkpoint data", e);
+		}
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @return true if the bytes were encoded from a single checkpoint rather than a list
+	 */
+	public boolean isSingle(byte[] bytes) {
+		return bytes.length > 0 && (bytes[0] & SINGLE) != 0;
+	}
+
+	private byte[] encode(List<Checkpoint> checkpoints, boolean single) {
+		Writer writer = new Writer();
+		writer.writeByte(VERSION | (single ? SINGLE : 0));
+		writer.writeInt(checkpoints.size());
+		for (Checkpoint checkpoint : checkpoints) {
+			writeCheckpoint(writer, checkpoint);
+		}
+		return writer.toByteArray();
+	}
+
+	private void writeCheckpoint(Writer writer, Checkpoint checkpoint) {
+		UUID transactionId = toUUID(checkpoint.getGlobalTransactionId());
+		UUID messageId = toUUID(checkpoint.getMessageID());
+		byte[] hostAddress = toIPv4(checkpoint.getHostIP());
+		MessageHistory history = checkpoint.getMessageHistory();
+		Properties properties = checkpoint.getProperties();
+
+		int flags = (null == checkpoint.getMessageEvent()) ? NULL_EVENT : checkpoint.getMessageEvent().ordinal();
+		flags |= (null == history) ? 0 : HAS_HISTORY;
+		flags |= (null == properties) ? 0 : HAS_PROPERTIES;
+		flags |= (null == checkpoint.getMessage()) ? 0 : HAS_MESSAGE;
+		flags |= (null == transactionId) ? 0 : UUID_TRANSACTION_ID;
+		flags |= (null == messageId) ? 0 : UUID_MESSAGE_ID;
+		flags |= (null == hostAddress) ? 0 : IPV4_HOST;
+		writer.writeFlags(flags);
+
+		writer.writeLong(checkpoint.getTimestamp());
+		if (null == transactionId) {
+			writer.writeString(checkpoint.getGlobalTransactionId());
+		} else {
+			writer.writeUUID(transactionId);
+		}
+		if (null == messageId) {
+			writer.writeString(checkpoint.getMessageID());
+		} else {
+			writer.writeUUID(messageId);
+		}
+		writer.writeSymbol(checkpoint.getChannelName());
+		writer.writeSymbol(checkpoint.getPayloadType());
+		if (null == hostAddress) {
+			writer.writeSymbol(checkpoint.getHostIP());
+		} else {
+			writer.writeBytes(hostAddress);
+		}
+
+		if (null != history) {
+			writer.writeInt(history.size());
+			for (Properties component : history) {
+				writer.writeSymbol(component.getProperty(MessageHistory.NAME_PROPERTY));
+				writer.writeSymbol(component.getProperty(MessageHistory.TYPE_PROPERTY));
+				String timestamp = component.getProperty(MessageHistory.TIMESTAMP_PROPERTY);
+				writer.writeLong((null == timestamp) ? 0 : checkpoint.getTimestamp() - Long.parseLong(timestamp));
+			}
+		}
+
+		if (null != properties) {
+			writer.writeInt(properties.size());
+			for (Map.Entry<Object, Object> property : properties.entrySet()) {
+				writer.writeSymbol(String.valueOf(property.getKey()));
+				writer.writeValue(property.getValue());
+			}
+		}
+
+		if (null != checkpoint.getMessage()) {
+			writer.writeSerialized(checkpoint.getMessage());
+		}
+	}
+
+	private Checkpoint readCheckpoint(Reader reader) {
+		Checkpoint checkpoint = new Checkpoint();
+		int flags = reader.readFlags();
+		if ((flags & NULL_EVENT) == 0) {
+			checkpoint.setMessageEvent(MESSAGE_EVENTS[flags & EVENT_MASK]);
+		}
+		long timestamp = reader.readLong();
+		checkpoint.setTimestamp(timestamp);
+		checkpoint.setGlobalTransactionId((flags & UUID_TRANSACTION_ID) != 0 ? reader.readUUID().toString() : reader
+				.readString());
+		checkpoint.setMessageID((flags & UUID_MESSAGE_ID) != 0 ? reader.readUUID().toString() : reader.readString());
+		checkpoint.setChannelName(reader.readSymbol());
+		checkpoint.setPayloadType(reader.readSymbol());
+		String hostIP = ((flags & IPV4_HOST) != 0) ? reader.readIPv4() : reader.readSymbol();
+		checkpoint.setHostIP(hostIP);
+		checkpoint.setHostname(hostnames.get(hostIP));
+
+		if ((flags & HAS_HISTORY) != 0) {
+			int size = reader.readInt();
+			// each component takes at least 3 bytes
+			if (size < 0 || size > reader.buffer.remaining() / 3) {
+				throw new IllegalArgumentException("invalid message history size " + size);
+			}
+			String[] names = new String[size];
+			String[] types = new String[size];
+			long[] timestamps = new long[size];
+			for (int i = 0; i < size; i++) {
+				names[i] = reader.readSymbol();
+				types[i] = reader.readSymbol();
+				timestamps[i] = timestamp - reader.readLong();
+			}
+			checkpoint.setMessageHistory(toMessageHistory(names, types, timestamps));
+		}
+
+		if ((flags & HAS_PROPERTIES) != 0) {
+			int size = reader.readInt();
+			Properties properties = new Properties();
+			for (int i = 0; i < size; i++) {
+				String key = reader.readSymbol();
+				Object value = reader.readValue();
+				if (null != value) {
+					properties.put(key, value);
+				}
+			}
+			checkpoint.setProperties(properties);
+		}
+
+		if ((flags & HAS_MESSAGE) != 0) {
+			checkpoint.setMessage((Message<?>) reader.readSerialized());
+		}
+		return checkpoint;
+	}
+
+	/*
+	 * MessageHistory can only be created by writing components to a message, so replay them and restore the
+	 * original timestamps
+	 */
+	private static MessageHistory toMessageHistory(String[] names, String[] types, long[] timestamps) {
+		Message<?> message = MessageBuilder.withPayload(Boolean.TRUE).build();
+		for (int i = 0; i < names.length; i++) {
+			message = MessageHistory.write(message, new HistoryComponent(names[i], types[i]));
+		}
+		MessageHistory history = MessageHistory.read(message);
+		if (null != history) {
+			for (int i = 0; i < history.size(); i++) {
+				history.get(i).setProperty(MessageHistory.TIMESTAMP_PROPERTY, Long.toString(timestamps[i]));
+			}
+		}
+		return history;
+	}
+
+	private static UUID toUUID(String id) {
+		if (null == id || id.length() != 36) {
+			return null;
+		}
+		try {
+			UUID uuid = UUID.fromString(id);
+			// only if it converts back to the same string
+			return uuid.toString().equals(id) ? uuid : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static byte[] toIPv4(String address) {
+		if (null == address) {
+			return null;
+		}
+		String[] octets = address.split("\\.", -1);
+		if (octets.length != 4) {
+			return null;
+		}
+		byte[] bytes = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			if (octets[i].length() == 0 || octets[i].length() > 3) {
+				return null;
+			}
+			int octet = 0;
+			for (int j = 0; j < octets[i].length(); j++) {
+				char c = octets[i].charAt(j);
+				if (c < '0' || c > '9') {
+					return null;
+				}
+				octet = octet * 10 + (c - '0');
+			}
+			if (octet > 255 || !Integer.toString(octet).equals(octets[i])) {
+				return null;
+			}
+			bytes[i] = (byte) octet;
+		}
+		return bytes;
+	}
+
+	/*
+	 * A NamedComponent for recreating message history
+	 */
+	private static class HistoryComponent implements NamedComponent {
+		private final String name;
+
+		private final String type;
+
+		HistoryComponent(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		public String getComponentName() {
+			return name;
+		}
+
+		public String getComponentType() {
+			return type;
+		}
+	}
+
+	/*
+	 * Writes one batch. Interns symbols as they are written
+	 */
+	private class Writer {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+		private final Map<String, Integer> batchSymbols = new HashMap<String, Integer>();
+
+		void writeByte(int b) {
+			out.write(b);
+		}
+
+		/*
+		 * 7 bits per byte, without zig-zag encoding
+		 */
+		void writeFlags(int flags) {
+			while ((flags & ~0x7f) != 0) {
+				out.write((flags & 0x7f) | 0x80);
+				flags >>>= 7;
+			}
+			out.write(flags);
+		}
+
+		void writeBytes(byte[] bytes) {
+			out.write(bytes, 0, bytes.length);
+		}
+
+		void writeInt(int value) {
+			writeLong(value & 0xffffffffL);
+		}
+
+		/*
+		 * zig-zag encoded, so that small negative values are also short, then 7 bits per byte
+		 */
+		void writeLong(long value) {
+			long v = (value << 1) ^ (value >> 63);
+			while ((v & ~0x7fL) != 0) {
+				out.write((int) ((v & 0x7f) | 0x80));
+				v >>>= 7;
+			}
+			out.write((int) v);
+		}
+
+		void writeUUID(UUID uuid) {
+			writeFixedLong(uuid.getMostSignificantBits());
+			writeFixedLong(uuid.getLeastSignificantBits());
+		}
+
+		void writeFixedLong(long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (value >>> shift));
+			}
+		}
+
+		/*
+		 * -1 for null, else the UTF-8 length and bytes
+		 */
+		void writeString(String value) {
+			if (null == value) {
+				writeLong(-1);
+				return;
+			}
+			byte[] bytes = utf8(value);
+			writeLong(bytes.length);
+			writeBytes(bytes);
+		}
+
+		void writeSymbol(String symbol) {
+			if (null == symbol) {
+				writeInt(NULL_SYMBOL);
+				return;
+			}
+			Integer index = symbolIndexes.get(symbol);
+			if (null == index) {
+				index = batchSymbols.get(symbol);
+			}
+			if (null == index) {
+				batchSymbols.put(symbol, symbols.size() + batchSymbols.size());
+				writeInt(NEW_SYMBOL);
+				writeString(symbol);
+			} else {
+				writeInt(index + FIRST_INDEX);
+			}
+		}
+
+		void writeValue(Object value) {
+			if (null == value) {
+				writeByte(NULL_VALUE);
+			} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				writeByte(INTEGER_VALUE);
+				writeLong(((Number) value).intValue());
+			} else if (value instanceof Long) {
+				writeByte(LONG_VALUE);
+				writeLong((Long) value);
+			} else if (value instanceof Double) {
+				writeByte(DOUBLE_VALUE);
+				writeFixedLong(Double.doubleToLongBits((Double) value));
+			} else if (value instanceof Float) {
+				writeByte(FLOAT_VALUE);
+				writeInt(Float.floatToIntBits((Float) value));
+			} else if (value instanceof Boolean) {
+				writeByte(BOOLEAN_VALUE);
+				writeByte(((Boolean) value) ? 1 : 0);
+			} else {
+				writeByte(STRING_VALUE);
+				writeString(value.toString());
+			}
+		}
+
+		void writeSerialized(Object object) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream oos = new ObjectOutputStream(bytes);
+				oos.writeObject(object);
+				oos.close();
+				writeLong(bytes.size());
+				bytes.writeTo(out);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("failed to serialize " + object, e);
+			}
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+
+	/*
+	 * Reads one batch. Collects symbols as they are read
+	 */
+	private class Reader {
+		private final ByteBuffer buffer;
+
+		private final List<String> batchSymbols = new ArrayList<String>();
+
+		Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		int readByte() {
+			return buffer.get() & 0xff;
+		}
+
+		int readInt() {
+			return (int) readLong();
+		}
+
+		int readFlags() {
+			int flags = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (shift > 14) {
+					throw new IllegalArgumentException("malformed checkpoint flags at " + buffer.position());
+				}
+				b = readByte();
+				flags |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return flags;
+		}
+
+		long readLong() {
+			long v = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (shift > 63) {
+					throw new IllegalArgumentException("malformed variable length value at " + buffer.position());
+				}
+				b = readByte();
+				v |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		long readFixedLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | readByte();
+			}
+			return value;
+		}
+
+		UUID readUUID() {
+			long mostSignificantBits = readFixedLong();
+			return new UUID(mostSignificantBits, readFixedLong());
+		}
+
+		String readIPv4() {
+			return readByte() + "." + readByte() + "." + readByte() + "." + readByte();
+		}
+
+		String readString() {
+			int length = (int) readLong();
+			if (length < 0) {
+				return null;
+			}
+			if (length > buffer.remaining()) {
+				throw new IllegalArgumentException("truncated checkpoint data");
+			}
+			if (buffer.hasArray()) {
+				String value = fromUtf8(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				buffer.position(buffer.position() + length);
+				return value;
+			}
+			return fromUtf8(readBytes(length), 0, length);
+		}
+
+		String readSymbol() {
+			int reference = readInt();
+			if (reference == NULL_SYMBOL) {
+				return null;
+			}
+			if (reference == NEW_SYMBOL) {
+				String symbol = readString();
+				batchSymbols.add(symbol);
+				return symbol;
+			}
+			int index = reference - FIRST_INDEX;
+			if (index < symbols.size()) {
+				return symbols.get(index);
+			}
+			index -= symbols.size();
+			if (index >= batchSymbols.size()) {
+				throw new IllegalArgumentException("unknown symbol " + reference
+						+ ", the encoder may have been configured with different symbols");
+			}
+			return batchSymbols.get(index);
+		}
+
+		Object readValue() {
+			int type = readByte();
+			switch (type) {
+			case NULL_VALUE:
+				return null;
+			case STRING_VALUE:
+				return readString();
+			case INTEGER_VALUE:
+				return readInt();
+			case LONG_VALUE:
+				return readLong();
+			case DOUBLE_VALUE:
+				return Double.longBitsToDouble(readFixedLong());
+			case FLOAT_VALUE:
+				return Float.intBitsToFloat(readInt());
+			case BOOLEAN_VALUE:
+				return readByte() != 0;
+			default:
+				throw new IllegalArgumentException("unknown property value type " + type);
+			}
+		}
+
+		Object readSerialized() {
+			int length = (int) readLong();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IllegalArgumentException("truncated checkpoint data");
+			}
+			ByteArrayInputStream in;
+			if (buffer.hasArray()) {
+				in = new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				buffer.position(buffer.position() + length);
+			} else {
+				in = new ByteArrayInputStream(readBytes(length));
+			}
+			try {
+				ObjectInputStream ois = new ObjectInputStream(in);
+				return ois.readObject();
+			} catch (IOException e) {
+				throw new IllegalArgumentException("failed to deserialize checkpoint message", e);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("failed to deserialize checkpoint message", e);
+			}
+		}
+
+		/*
+		 * For direct and mapped buffers, which have no array to decode from
+		 */
+		byte[] readBytes(int length) {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return bytes;
+		}
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String fromUtf8(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
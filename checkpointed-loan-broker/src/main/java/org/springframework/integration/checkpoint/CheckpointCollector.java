@@ -9,8 +9,11 @@ import org.springframework.integration.Message;
  * An aggregator class to generate a single message with a payload containing a collection of {@link Checkpoint}  
  *  
  * @author David Turanski
+ * @deprecated replaced by the {@link CheckpointWindowAggregator}, which sends the same List of checkpoints without 
+ * a generic aggregator and message store
  *
  */
+@Deprecated
 public class CheckpointCollector {
 	private static Logger logger = Logger.getLogger(CheckpointCollector.class);
 	
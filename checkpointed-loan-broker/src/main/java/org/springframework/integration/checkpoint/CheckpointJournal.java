@@ -0,0 +1,489 @@
+package org.springframework.integration.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps every {@link Checkpoint} locally, e.g. as a service activator on the checkpoint channel, by appending it,
+ * encoded with a {@link CheckpointCodec}, to memory mapped segment files in a directory. When a segment is full the
+ * journal rolls to a new one. Each record is:
+ * <pre>
+ * int length, long timestamp, long transaction key, length bytes of the encoded checkpoint
+ * </pre>
+ * The length is written last, and a zero length marks the end of a segment, so a segment cut short by a crash is read
+ * up to its last complete record. The transaction key is a 64 bit hash of the global transaction id, indexed in memory
+ * per segment with the record's offset, so {@link #getTransaction(String)} reads only the transaction's records.
+ * {@link #replay(long, long, MessageChannel)} streams the checkpoints in a time range back into a channel, skipping
+ * segments outside the range and records by their header. Records are decoded directly from the mapped segments,
+ * without copying them.
+ * <p>
+ * At most maxSegments segments are kept: when the journal rolls, or opens, with more, the oldest segment files are
+ * deleted along with their index, so disk and heap use are bounded. A full segment is written to disk after the
+ * journal has moved on to the next one, outside the lock appenders wait on.
+ * <p>
+ * On start, the retained segments are scanned to rebuild the index, and appends go to a new segment. A journal opened
+ * read only, e.g. by {@link CheckpointJournalTool}, sees all the segments as they were when opened, and deletes
+ * none.
+ *
+ * @author David Turanski
+ *
+ */
+@ManagedResource(description = "Checkpoint journal")
+public class CheckpointJournal implements InitializingBean, DisposableBean {
+	private static final Logger logger = Logger.getLogger(CheckpointJournal.class);
+
+	static final String SEGMENT_PREFIX = "checkpoints-";
+
+	static final String SEGMENT_SUFFIX = ".journal";
+
+	// length, timestamp, transaction key
+	static final int HEADER_SIZE = 4 + 8 + 8;
+
+	private File directory;
+
+	private int segmentSize = 64 * 1024 * 1024;
+
+	private CheckpointCodec codec = new CheckpointCodec();
+
+	private boolean readOnly;
+
+	private int maxSegments = 16;
+
+	// oldest first. Segment indexes are guarded by this
+	private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+
+	// guarded by this
+	private Segment activeSegment;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	public void afterPropertiesSet() throws Exception {
+		Assert.notNull(directory, "directory cannot be null");
+		Assert.isTrue(segmentSize > HEADER_SIZE, "segmentSize is too small");
+		if (!readOnly && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create journal directory " + directory);
+		}
+		File[] files = directory.listFiles();
+		if (null == files) {
+			throw new IOException("cannot read journal directory " + directory);
+		}
+		Arrays.sort(files);
+		List<File> segmentFiles = new ArrayList<File>();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				segmentFiles.add(file);
+			}
+		}
+		long nextSequence = segmentFiles.isEmpty() ? 0 : sequence(segmentFiles.get(segmentFiles.size() - 1)) + 1;
+		if (!readOnly) {
+			// leave room for the new active segment
+			while (segmentFiles.size() >= maxSegments) {
+				delete(segmentFiles.remove(0));
+			}
+		}
+		for (File file : segmentFiles) {
+			recover(map(file, sequence(file), false));
+		}
+		if (!readOnly) {
+			roll(nextSequence);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("opened journal " + directory + " with " + segments.size() + " segments, "
+					+ getCheckpointCount() + " checkpoints");
+		}
+	}
+
+	/**
+	 * Appends the checkpoint, rolling to a new segment if the active one is full
+	 *
+	 * @param checkpoint
+	 */
+	public void append(Checkpoint checkpoint) {
+		Assert.state(!readOnly, "the journal is read only");
+		byte[] record = codec.encode(checkpoint);
+		if (HEADER_SIZE + record.length + 4 > segmentSize) {
+			if (droppedCount.getAndIncrement() == 0) {
+				logger.warn("checkpoint of " + record.length + " bytes is larger than the segment size " + segmentSize);
+			}
+			return;
+		}
+		long transactionKey = transactionKey(checkpoint.getGlobalTransactionId());
+		Segment full = null;
+		List<Segment> expired = Collections.emptyList();
+		synchronized (this) {
+			Assert.state(null != activeSegment, "the journal is closed");
+			ByteBuffer buffer = activeSegment.buffer;
+			// leave room for the zero length which ends the segment
+			if (buffer.remaining() < HEADER_SIZE + record.length + 4) {
+				full = activeSegment;
+				roll(activeSegment.sequence + 1);
+				expired = expire();
+				buffer = activeSegment.buffer;
+			}
+			int offset = buffer.position();
+			buffer.position(offset + 4);
+			buffer.putLong(checkpoint.getTimestamp());
+			buffer.putLong(transactionKey);
+			buffer.put(record);
+			buffer.putInt(offset, record.length);
+			activeSegment.recorded(checkpoint.getTimestamp());
+			activeSegment.index.add(transactionKey, offset);
+		}
+		// outside the lock, so other appenders are not held up by the disk
+		if (null != full) {
+			full.buffer.force();
+		}
+		for (Segment segment : expired) {
+			delete(segment.file);
+		}
+	}
+
+	/**
+	 *
+	 * @param transactionId the global transaction id
+	 * @return the transaction's checkpoints in timestamp order, i.e. its path
+	 */
+	public List<Checkpoint> getTransaction(String transactionId) {
+		Assert.notNull(transactionId, "transactionId cannot be null");
+		long transactionKey = transactionKey(transactionId);
+		List<Segment> found = new ArrayList<Segment>();
+		List<long[]> offsets = new ArrayList<long[]>();
+		synchronized (this) {
+			for (Segment segment : segments) {
+				long[] segmentOffsets = segment.index.get(transactionKey);
+				if (segmentOffsets.length > 0) {
+					found.add(segment);
+					offsets.add(segmentOffsets);
+				}
+			}
+		}
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		// a segment deleted meanwhile remains mapped, so can still be read
+		for (int i = 0; i < found.size(); i++) {
+			for (long offset : offsets.get(i)) {
+				ByteBuffer buffer = found.get(i).buffer.duplicate();
+				buffer.position((int) offset);
+				for (Checkpoint checkpoint : read(buffer)) {
+					// the key is a hash, so may be shared
+					if (transactionId.equals(checkpoint.getGlobalTransactionId())) {
+						checkpoints.add(checkpoint);
+					}
+				}
+			}
+		}
+		Collections.sort(checkpoints, new Comparator<Checkpoint>() {
+			public int compare(Checkpoint c1, Checkpoint c2) {
+				return c1.getTimestamp() < c2.getTimestamp() ? -1 : (c1.getTimestamp() == c2.getTimestamp() ? 0 : 1);
+			}
+		});
+		return checkpoints;
+	}
+
+	/**
+	 * Sends the checkpoints with a timestamp in the range to the channel, in the order they were appended
+	 *
+	 * @param from the earliest timestamp, inclusive
+	 * @param to the latest timestamp, exclusive
+	 * @param channel
+	 * @return the number of checkpoints sent
+	 */
+	public int replay(long from, long to, MessageChannel channel) {
+		Assert.notNull(channel, "channel cannot be null");
+		int count = 0;
+		for (Segment segment : segments) {
+			if (segment.maxTimestamp < from || segment.minTimestamp >= to) {
+				continue;
+			}
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(0);
+			buffer.limit(written(segment));
+			int length;
+			while (buffer.remaining() >= HEADER_SIZE && (length = buffer.getInt(buffer.position())) > 0) {
+				int offset = buffer.position();
+				long timestamp = buffer.getLong(offset + 4);
+				if (timestamp >= from && timestamp < to) {
+					for (Checkpoint checkpoint : read(buffer)) {
+						if (!channel.send(MessageBuilder.withPayload(checkpoint).build())) {
+							throw new MessagingException("failed to replay checkpoint to " + channel);
+						}
+						count++;
+					}
+				}
+				buffer.position(offset + HEADER_SIZE + length);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the active segment to disk
+	 */
+	public synchronized void force() {
+		if (null != activeSegment) {
+			activeSegment.buffer.force();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public synchronized void destroy() {
+		force();
+		activeSegment = null;
+	}
+
+	/**
+	 *
+	 * @param directory the directory holding the segment files
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 *
+	 * @param segmentSize the size of each segment file. Default is 64MB
+	 */
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 *
+	 * @param codec the codec checkpoints are encoded with, e.g. configured with symbols
+	 */
+	public void setCodec(CheckpointCodec codec) {
+		Assert.notNull(codec, "codec cannot be null");
+		this.codec = codec;
+	}
+
+	/**
+	 *
+	 * @param maxSegments the number of segments kept, including the one being appended to. The oldest are deleted.
+	 * Default is 16
+	 */
+	public void setMaxSegments(int maxSegments) {
+		Assert.isTrue(maxSegments > 0, "maxSegments must be greater than 0");
+		this.maxSegments = maxSegments;
+	}
+
+	/**
+	 *
+	 * @param readOnly true to only read the existing segments. Default is false
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	@ManagedAttribute(description = "Number of segment files")
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	@ManagedAttribute(description = "Number of checkpoints in the journal")
+	public synchronized int getCheckpointCount() {
+		int count = 0;
+		for (Segment segment : segments) {
+			count += segment.index.getRecordCount();
+		}
+		return count;
+	}
+
+	@ManagedAttribute(description = "Number of transactions in the journal")
+	public int getTransactionCount() {
+		long[] keys;
+		synchronized (this) {
+			int count = 0;
+			for (Segment segment : segments) {
+				count += segment.index.getKeyCount();
+			}
+			keys = new long[count];
+			count = 0;
+			for (Segment segment : segments) {
+				long[] segmentKeys = segment.index.getKeys();
+				System.arraycopy(segmentKeys, 0, keys, count, segmentKeys.length);
+				count += segmentKeys.length;
+			}
+		}
+		// a transaction may span segments
+		Arrays.sort(keys);
+		int distinct = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (i == 0 || keys[i] != keys[i - 1]) {
+				distinct++;
+			}
+		}
+		return distinct;
+	}
+
+	@ManagedAttribute(description = "Checkpoints not journaled because they are larger than a segment")
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/*
+	 * The end of the segment's records visible to this thread
+	 */
+	private synchronized int written(Segment segment) {
+		return (segment == activeSegment) ? segment.buffer.position() : segment.buffer.capacity();
+	}
+
+	/*
+	 * Decodes the record at the buffer's position, and moves past it
+	 */
+	private List<Checkpoint> read(ByteBuffer buffer) {
+		int offset = buffer.position();
+		int length = buffer.getInt(offset);
+		buffer.position(offset + HEADER_SIZE);
+		ByteBuffer record = buffer.slice();
+		record.limit(length);
+		buffer.position(offset + HEADER_SIZE + length);
+		return codec.decode(record);
+	}
+
+	/*
+	 * Indexes the complete records of an existing segment
+	 */
+	private void recover(Segment segment) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(0);
+		int length;
+		while (buffer.remaining() >= HEADER_SIZE && (length = buffer.getInt(buffer.position())) > 0
+				&& length <= buffer.remaining() - HEADER_SIZE) {
+			int offset = buffer.position();
+			long timestamp = buffer.getLong(offset + 4);
+			segment.index.add(buffer.getLong(offset + 12), offset);
+			segment.recorded(timestamp);
+			buffer.position(offset + HEADER_SIZE + length);
+		}
+	}
+
+	/*
+	 * The caller forces the previous active segment, if any, once it has released the lock
+	 */
+	private void roll(long sequence) {
+		File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+		try {
+			activeSegment = map(file, sequence, true);
+		} catch (IOException e) {
+			throw new MessagingException("failed to create journal segment " + file, e);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("rolled to " + file);
+		}
+	}
+
+	/*
+	 * Removes the oldest segments beyond maxSegments. The caller deletes their files once it has released the lock
+	 */
+	private List<Segment> expire() {
+		List<Segment> expired = new ArrayList<Segment>();
+		while (segments.size() > maxSegments) {
+			expired.add(segments.remove(0));
+		}
+		return expired;
+	}
+
+	private void delete(File file) {
+		if (file.delete()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("deleted " + file);
+			}
+		} else {
+			logger.warn("failed to delete journal segment " + file);
+		}
+	}
+
+	private static long sequence(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private Segment map(File file, long sequence, boolean create) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, (readOnly && !create) ? "r" : "rw");
+		try {
+			if (create) {
+				raf.setLength(segmentSize);
+			}
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(create ? MapMode.READ_WRITE : MapMode.READ_ONLY, 0, channel.size());
+			Segment segment = new Segment(file, sequence, buffer);
+			segments.add(segment);
+			return segment;
+		} finally {
+			// the mapping remains valid
+			raf.close();
+		}
+	}
+
+	/*
+	 * FNV-1a
+	 */
+	static long transactionKey(String transactionId) {
+		if (null == transactionId) {
+			return 0;
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < transactionId.length(); i++) {
+			hash ^= transactionId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static final class Segment {
+		private final File file;
+
+		private final long sequence;
+
+		private final MappedByteBuffer buffer;
+
+		private volatile long minTimestamp = Long.MAX_VALUE;
+
+		private volatile long maxTimestamp = Long.MIN_VALUE;
+
+		// record offsets by transaction key. Guarded by the journal
+		private final TransactionIndex index = new TransactionIndex();
+
+		Segment(File file, long sequence, MappedByteBuffer buffer) {
+			this.file = file;
+			this.sequence = sequence;
+			this.buffer = buffer;
+		}
+
+		void recorded(long timestamp) {
+			if (timestamp < minTimestamp) {
+				minTimestamp = timestamp;
+			}
+			if (timestamp > maxTimestamp) {
+				maxTimestamp = timestamp;
+			}
+		}
+	}
+}
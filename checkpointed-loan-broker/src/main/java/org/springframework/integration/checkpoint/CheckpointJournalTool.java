@@ -0,0 +1,56 @@
+package org.springframework.integration.checkpoint;
+
+import java.io.File;
+import java.util.List;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.core.MessageHandler;
+
+/**
+ * Queries a {@link CheckpointJournal} directory from the command line, read only, so it may be run against the
+ * journal of a running process:
+ * <pre>
+ * CheckpointJournalTool &lt;directory&gt; transaction &lt;global transaction id&gt;
+ * CheckpointJournalTool &lt;directory&gt; range &lt;from millis&gt; &lt;to millis&gt;
+ * </pre>
+ * transaction prints the transaction's path, each checkpoint with the millis since the first. range replays the
+ * checkpoints in the time range through a channel to standard out.
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointJournalTool {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || !("transaction".equals(args[1]) || ("range".equals(args[1]) && args.length > 3))) {
+			System.err.println("usage: CheckpointJournalTool <directory> transaction <global transaction id>");
+			System.err.println("       CheckpointJournalTool <directory> range <from millis> <to millis>");
+			System.exit(1);
+		}
+		CheckpointJournal journal = new CheckpointJournal();
+		journal.setDirectory(new File(args[0]));
+		journal.setReadOnly(true);
+		journal.afterPropertiesSet();
+
+		if ("transaction".equals(args[1])) {
+			List<Checkpoint> path = journal.getTransaction(args[2]);
+			for (Checkpoint checkpoint : path) {
+				System.out.println("+" + (checkpoint.getTimestamp() - path.get(0).getTimestamp()) + "ms "
+						+ checkpoint.getMessageEvent() + " " + checkpoint.getChannelName() + " "
+						+ checkpoint.getHostname() + "/" + checkpoint.getHostIP());
+			}
+			System.out.println(path.size() + " checkpoints");
+		} else {
+			DirectChannel channel = new DirectChannel();
+			channel.subscribe(new MessageHandler() {
+				public void handleMessage(Message<?> message) throws MessagingException {
+					System.out.println(message.getPayload());
+				}
+			});
+			int count = journal.replay(Long.parseLong(args[2]), Long.parseLong(args[3]), channel);
+			System.out.println(count + " checkpoints");
+		}
+	}
+}
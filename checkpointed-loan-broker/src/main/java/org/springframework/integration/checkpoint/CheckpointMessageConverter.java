@@ -0,0 +1,82 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.List;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.converter.MessageConversionException;
+import org.springframework.integration.support.converter.MessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageConverter} between messages with a {@link Checkpoint} or a List of Checkpoints as payload, e.g.
+ * aggregated by the {@link CheckpointWindowAggregator}, and their encoding by a {@link CheckpointCodec}. May also be used as a
+ * transformer before an outbound adapter to the monitor:
+ *
+ * <pre>
+ * &lt;int:transformer input-channel="monitorChannel" output-channel="monitorBytesChannel"
+ *     ref="checkpointMessageConverter" method="fromMessage"/&gt;
+ * </pre>
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointMessageConverter implements MessageConverter {
+	private final CheckpointCodec codec;
+
+	public CheckpointMessageConverter() {
+		this(new CheckpointCodec());
+	}
+
+	/**
+	 *
+	 * @param codec
+	 */
+	public CheckpointMessageConverter(CheckpointCodec codec) {
+		Assert.notNull(codec, "codec cannot be null");
+		this.codec = codec;
+	}
+
+	/**
+	 * @param object the encoded checkpoints
+	 * @return a message with the Checkpoint, or the List of Checkpoints, as payload
+	 */
+	@SuppressWarnings("unchecked")
+	public <P> Message<P> toMessage(Object object) {
+		if (!(object instanceof byte[])) {
+			throw new MessageConversionException("expected byte[] but received " +
+					(null == object ? null : object.getClass().getName()), null);
+		}
+		byte[] bytes = (byte[]) object;
+		try {
+			List<Checkpoint> checkpoints = codec.decode(bytes);
+			Object payload = (codec.isSingle(bytes)) ? checkpoints.get(0) : checkpoints;
+			return (Message<P>) MessageBuilder.withPayload(payload).build();
+		} catch (IllegalArgumentException e) {
+			throw new MessageConversionException("failed to decode checkpoints", e);
+		}
+	}
+
+	/**
+	 * @param message with a Checkpoint or a List of Checkpoints as payload
+	 * @return the encoded checkpoints
+	 */
+	@SuppressWarnings("unchecked")
+	public <P> Object fromMessage(Message<P> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof Checkpoint) {
+			return codec.encode((Checkpoint) payload);
+		}
+		if (payload instanceof List) {
+			for (Object element : (List<?>) payload) {
+				if (!(element instanceof Checkpoint)) {
+					throw new MessageConversionException(message, "expected a List of Checkpoint but it contains "
+							+ (null == element ? null : element.getClass().getName()), null);
+				}
+			}
+			return codec.encode((List<Checkpoint>) payload);
+		}
+		throw new MessageConversionException(message, "expected a Checkpoint or List of Checkpoint payload but received "
+				+ payload.getClass().getName(), null);
+	}
+}
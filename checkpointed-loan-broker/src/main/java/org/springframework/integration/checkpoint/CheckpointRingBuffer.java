@@ -0,0 +1,125 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * A bounded, lock free buffer for many producers and a single consumer. A producer claims a slot with a single
+ * compare and set, and each slot carries a sequence number which tells the producer whether the slot is free and the
+ * consumer whether it has been published, so neither ever blocks. Elements are consumed in the order their slots were
+ * claimed.
+ * <p>
+ * Only one thread at a time may call {@link #poll()} or {@link #drainTo(Object[])}.
+ *
+ * @author David Turanski
+ *
+ * @param <E> the element type
+ */
+public class CheckpointRingBuffer<E> {
+	private final int capacity;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<E> slots;
+
+	// the next claim for each slot is available when its sequence equals the claim
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	// written by the consumer only
+	private volatile long head;
+
+	/**
+	 *
+	 * @param capacity - rounded up to a power of 2
+	 */
+	public CheckpointRingBuffer(int capacity) {
+		Assert.isTrue(capacity > 0, "capacity must be greater than 0");
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 *
+	 * @param element
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		Assert.notNull(element, "element cannot be null");
+		long claim;
+		int index;
+		for (;;) {
+			claim = tail.get();
+			index = (int) (claim & mask);
+			long available = sequences.get(index) - claim;
+			if (available == 0) {
+				if (tail.compareAndSet(claim, claim + 1)) {
+					break;
+				}
+			} else if (available < 0) {
+				// the consumer has not freed the slot since the last time round
+				return false;
+			}
+		}
+		slots.lazySet(index, element);
+		sequences.set(index, claim + 1);
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the next element, or null if there is none
+	 */
+	public E poll() {
+		long next = head;
+		int index = (int) (next & mask);
+		if (sequences.get(index) != next + 1) {
+			return null;
+		}
+		E element = slots.get(index);
+		slots.lazySet(index, null);
+		sequences.lazySet(index, next + capacity);
+		head = next + 1;
+		return element;
+	}
+
+	/**
+	 * Remove available elements, up to the length of the batch
+	 * @param batch
+	 * @return the number of elements removed
+	 */
+	public int drainTo(E[] batch) {
+		int count = 0;
+		E element;
+		while (count < batch.length && null != (element = poll())) {
+			batch[count++] = element;
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the approximate number of elements in the buffer
+	 */
+	public int size() {
+		long size = tail.get() - head;
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
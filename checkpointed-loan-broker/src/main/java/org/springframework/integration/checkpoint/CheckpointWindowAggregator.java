@@ -0,0 +1,415 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * Collects {@link Checkpoint}s by global transaction id and sends them to the output channel in batches, in place of
+ * a generic aggregator with a message store, correlation strategy and reaper. Only the checkpoints are held, not the
+ * messages carrying them, in buckets kept in the order their transactions were first seen, so each {@link #flush()}
+ * takes the transactions whose window (windowMillis from their first checkpoint) has passed from the head, along with
+ * those completed by a checkpoint on one of the completion channels, and sends them all as one message: a
+ * List&lt;Checkpoint&gt; with the checkpoints of each transaction together, as the CheckpointCollector did.
+ * <p>
+ * Checkpoints arriving for a completed transaction before it is flushed, e.g. POST_SEND on the upstream
+ * DirectChannels as the sending threads return, join it. A completed transaction's id is remembered for windowMillis
+ * after it completes, and checkpoints for it arriving after it was sent are dropped and counted as late rather than
+ * sent as a fragment.
+ * <p>
+ * Memory is bounded. Transactions are spread over lock stripes, each holding at most its share of maxCheckpoints; a
+ * stripe which is full sends its oldest transactions early rather than drop them. An open transaction sent early may
+ * be followed by a second batch with its later checkpoints. A transaction holds at most
+ * maxCheckpointsPerTransaction checkpoints, further checkpoints are dropped and counted. Checkpoints without a
+ * transaction id are counted and ignored.
+ * <p>
+ * flush() is called periodically, e.g. by a scheduled task. On stop, e.g. when the context closes, every transaction
+ * is flushed. Batches, including those sent early, are taken and sent one at a time, so they are sent in the order
+ * they were taken.
+ *
+ * @author David Turanski
+ *
+ */
+@ManagedResource(description = "Checkpoint window aggregator")
+public class CheckpointWindowAggregator implements SmartLifecycle {
+	private static final Logger logger = Logger.getLogger(CheckpointWindowAggregator.class);
+
+	private static final int STRIPES = 16;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	private MessageChannel outputChannel;
+
+	private long windowMillis = 500;
+
+	private int maxCheckpointsPerTransaction = 256;
+
+	private Set<String> completionChannelNames = new HashSet<String>();
+
+	private volatile boolean running;
+
+	private int phase = 0;
+
+	private final Object flushMonitor = new Object();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong uncorrelatedCount = new AtomicLong();
+
+	private final AtomicLong earlyFlushCount = new AtomicLong();
+
+	private final AtomicLong lateCount = new AtomicLong();
+
+	private final AtomicLong batchCount = new AtomicLong();
+
+	public CheckpointWindowAggregator(){
+		createStripes(100000);
+	}
+
+	/**
+	 *
+	 * @param checkpoint
+	 */
+	public void add(Checkpoint checkpoint){
+		Object transactionId = checkpoint.getGlobalTransactionId();
+		if (null == transactionId){
+			uncorrelatedCount.incrementAndGet();
+			return;
+		}
+		boolean complete = completionChannelNames.contains(checkpoint.getChannelName());
+		Stripe stripe = stripes[(transactionId.hashCode() & 0x7fffffff) % STRIPES];
+		if (stripe.add(transactionId, checkpoint, complete, System.currentTimeMillis())){
+			// full, so send its oldest transactions early, in turn with any flush
+			synchronized (flushMonitor) {
+				List<Checkpoint> evicted = stripe.evict();
+				if (!evicted.isEmpty()){
+					earlyFlushCount.incrementAndGet();
+					send(evicted);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the completed transactions, and those whose window has passed, as one batch
+	 */
+	public void flush(){
+		flush(System.currentTimeMillis() - windowMillis);
+	}
+
+	/**
+	 * Sends every transaction held, as one batch
+	 */
+	public void flushAll(){
+		flush(Long.MAX_VALUE);
+	}
+
+	private void flush(long threshold){
+		// one batch at a time, so batches are sent in order
+		synchronized (flushMonitor) {
+			List<Checkpoint> batch = new ArrayList<Checkpoint>();
+			for (Stripe stripe: stripes){
+				stripe.drain(threshold, batch);
+			}
+			if (!batch.isEmpty()){
+				send(batch);
+			}
+		}
+	}
+
+	private void send(List<Checkpoint> batch){
+		if (logger.isDebugEnabled()){
+			logger.debug("sending " + batch.size() + " checkpoints...");
+		}
+		batchCount.incrementAndGet();
+		outputChannel.send(MessageBuilder.withPayload(batch).build());
+	}
+
+	/**
+	 *
+	 * @param outputChannel the channel batches are sent to
+	 */
+	public void setOutputChannel(MessageChannel outputChannel) {
+		this.outputChannel = outputChannel;
+	}
+
+	/**
+	 *
+	 * @param windowMillis how long a transaction is held after its first checkpoint unless completed. Default is 500
+	 */
+	public void setWindowMillis(long windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Must be set before the aggregator is started, as the stripes holding the checkpoints are replaced
+	 * @param maxCheckpoints the maximum number of checkpoints held. Default is 100000
+	 */
+	public void setMaxCheckpoints(int maxCheckpoints) {
+		Assert.isTrue(maxCheckpoints >= STRIPES, "maxCheckpoints must be at least " + STRIPES);
+		Assert.state(!running && getCheckpointCount() == 0,
+				"maxCheckpoints must be set before the aggregator is started");
+		createStripes(maxCheckpoints);
+	}
+
+	private void createStripes(int maxCheckpoints){
+		for (int i = 0; i < STRIPES; i++){
+			stripes[i] = new Stripe(maxCheckpoints / STRIPES);
+		}
+	}
+
+	/**
+	 *
+	 * @param maxCheckpointsPerTransaction the maximum number of checkpoints held for a transaction. Default is 256
+	 */
+	public void setMaxCheckpointsPerTransaction(int maxCheckpointsPerTransaction) {
+		Assert.isTrue(maxCheckpointsPerTransaction > 0, "maxCheckpointsPerTransaction must be greater than 0");
+		this.maxCheckpointsPerTransaction = maxCheckpointsPerTransaction;
+	}
+
+	/**
+	 *
+	 * @param completionChannelNames a checkpoint on one of these channels completes its transaction, e.g. the
+	 * reply channel
+	 */
+	public void setCompletionChannelNames(Collection<String> completionChannelNames) {
+		this.completionChannelNames = new HashSet<String>(completionChannelNames);
+	}
+
+	@ManagedAttribute(description = "Number of transactions held")
+	public int getTransactionCount() {
+		int count = 0;
+		for (Stripe stripe: stripes){
+			count += stripe.getTransactionCount();
+		}
+		return count;
+	}
+
+	@ManagedAttribute(description = "Number of checkpoints held")
+	public int getCheckpointCount() {
+		int count = 0;
+		for (Stripe stripe: stripes){
+			count += stripe.getCheckpointCount();
+		}
+		return count;
+	}
+
+	@ManagedAttribute(description = "Checkpoints dropped because maxCheckpointsPerTransaction was reached")
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	@ManagedAttribute(description = "Checkpoints ignored because they have no transaction id")
+	public long getUncorrelatedCount() {
+		return uncorrelatedCount.get();
+	}
+
+	@ManagedAttribute(description = "Transactions sent early because maxCheckpoints was reached")
+	public long getEarlyFlushCount() {
+		return earlyFlushCount.get();
+	}
+
+	@ManagedAttribute(description = "Checkpoints dropped because their transaction had completed and been sent")
+	public long getLateCount() {
+		return lateCount.get();
+	}
+
+	@ManagedAttribute(description = "Number of batches sent")
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.Lifecycle#start()
+	 */
+	public void start() {
+		Assert.notNull(outputChannel, "outputChannel cannot be null");
+		running = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.Lifecycle#stop()
+	 */
+	public void stop() {
+		try {
+			flushAll();
+			if (logger.isInfoEnabled()){
+				logger.info("stopped " + this);
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.Lifecycle#isRunning()
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.Phased#getPhase()
+	 */
+	public int getPhase() {
+		return phase;
+	}
+
+	/**
+	 *
+	 * @param phase the start/stop order. Default is 0, stopping after the wire taps and before the output channel's
+	 * consumers
+	 */
+	public void setPhase(int phase) {
+		this.phase = phase;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.SmartLifecycle#isAutoStartup()
+	 */
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.context.SmartLifecycle#stop(java.lang.Runnable)
+	 */
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	/*
+	 * A share of the transactions, guarded by itself
+	 */
+	private final class Stripe {
+		private final int maxCheckpoints;
+
+		// transactionId -> transaction, in the order first seen
+		private final LinkedHashMap<Object, Transaction> open = new LinkedHashMap<Object, Transaction>();
+
+		// transactionId -> transaction, in the order completed
+		private final LinkedHashMap<Object, Transaction> completed = new LinkedHashMap<Object, Transaction>();
+
+		// transactionId -> time completed, for a window after, so that later checkpoints are recognized as late
+		private final LinkedHashMap<Object, Long> completedIds = new LinkedHashMap<Object, Long>();
+
+		private int checkpointCount;
+
+		Stripe(int maxCheckpoints){
+			this.maxCheckpoints = maxCheckpoints;
+		}
+
+		/*
+		 * Returns true if the stripe is full
+		 */
+		synchronized boolean add(Object transactionId, Checkpoint checkpoint, boolean complete, long now){
+			Transaction transaction = completed.get(transactionId);
+			if (null == transaction){
+				transaction = open.get(transactionId);
+				if (null == transaction){
+					if (completedIds.containsKey(transactionId)){
+						lateCount.incrementAndGet();
+						return false;
+					}
+					transaction = new Transaction(now);
+					open.put(transactionId, transaction);
+				}
+				if (complete){
+					open.remove(transactionId);
+					completed.put(transactionId, transaction);
+					completedIds.put(transactionId, now);
+					if (completedIds.size() > maxCheckpoints){
+						// as many ids as checkpoints at most
+						Iterator<Object> oldest = completedIds.keySet().iterator();
+						oldest.next();
+						oldest.remove();
+					}
+				}
+			}
+			if (transaction.checkpoints.size() < maxCheckpointsPerTransaction){
+				transaction.checkpoints.add(checkpoint);
+				checkpointCount++;
+			} else {
+				droppedCount.incrementAndGet();
+			}
+			return checkpointCount > maxCheckpoints;
+		}
+
+		/*
+		 * Takes the completed transactions, then the oldest open ones, until the stripe is no longer full
+		 */
+		synchronized List<Checkpoint> evict(){
+			List<Checkpoint> evicted = new ArrayList<Checkpoint>();
+			if (checkpointCount <= maxCheckpoints){
+				return evicted;
+			}
+			for (Transaction done: completed.values()){
+				take(done, evicted);
+			}
+			completed.clear();
+			Iterator<Transaction> iterator = open.values().iterator();
+			while (checkpointCount > maxCheckpoints && iterator.hasNext()){
+				take(iterator.next(), evicted);
+				iterator.remove();
+			}
+			return evicted;
+		}
+
+		synchronized void drain(long threshold, List<Checkpoint> batch){
+			for (Transaction done: completed.values()){
+				take(done, batch);
+			}
+			completed.clear();
+			Iterator<Transaction> iterator = open.values().iterator();
+			while (iterator.hasNext()){
+				Transaction transaction = iterator.next();
+				if (transaction.firstSeen > threshold){
+					break;
+				}
+				take(transaction, batch);
+				iterator.remove();
+			}
+			Iterator<Long> completedTimes = completedIds.values().iterator();
+			while (completedTimes.hasNext() && completedTimes.next() <= threshold){
+				completedTimes.remove();
+			}
+		}
+
+		synchronized int getTransactionCount(){
+			return open.size() + completed.size();
+		}
+
+		synchronized int getCheckpointCount(){
+			return checkpointCount;
+		}
+
+		private void take(Transaction transaction, List<Checkpoint> batch){
+			batch.addAll(transaction.checkpoints);
+			checkpointCount -= transaction.checkpoints.size();
+		}
+	}
+
+	private static final class Transaction {
+		private final long firstSeen;
+
+		private final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(8);
+
+		Transaction(long firstSeen){
+			this.firstSeen = firstSeen;
+		}
+	}
+}
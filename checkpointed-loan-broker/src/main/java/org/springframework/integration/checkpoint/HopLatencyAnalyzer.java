@@ -0,0 +1,271 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.history.MessageHistory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * Computes channel to channel hop latencies from {@link Checkpoint}s as they arrive, e.g. as a service activator on
+ * the checkpoint channel, without keeping the checkpoints. A checkpoint's message history ends with the checkpointed
+ * channel, so the hop is from the previous channel in the history to this one, and its latency is the difference of
+ * their history timestamps. Each route, from one channel to another, has a {@link SlidingWindowHistogram}, so memory
+ * is fixed per route, and the number of routes is limited by maxRoutes.
+ * <p>
+ * Only checkpoints for one {@link MessageEvent}, by default PRE_SEND, are analyzed, so each hop is counted once.
+ * Message history must be enabled.
+ * <p>
+ * The statistics for the window are available over JMX, or as {@link RouteStatistics} from {@link #getStatistics()},
+ * e.g. for an inbound channel adapter to publish them periodically.
+ *
+ * @author David Turanski
+ *
+ */
+@ManagedResource(description = "Checkpoint hop latencies")
+public class HopLatencyAnalyzer {
+	private static final Logger logger = Logger.getLogger(HopLatencyAnalyzer.class);
+
+	// e.g. channel, publish-subscribe-channel
+	private static final String CHANNEL_TYPE_SUFFIX = "channel";
+
+	private static final double[] PERCENTILES = {50, 90, 99};
+
+	private long windowMillis = 60000;
+
+	private int slotCount = 6;
+
+	private int maxRoutes = 256;
+
+	private MessageEvent messageEvent = MessageEvent.PRE_SEND;
+
+	// from channel -> to channel -> latencies
+	private final ConcurrentMap<String, ConcurrentMap<String, SlidingWindowHistogram>> routes =
+			new ConcurrentHashMap<String, ConcurrentMap<String, SlidingWindowHistogram>>();
+
+	private final AtomicLong routeCount = new AtomicLong();
+
+	private final AtomicLong unroutedCount = new AtomicLong();
+
+	/**
+	 *
+	 * @param checkpoint
+	 */
+	public void analyze(Checkpoint checkpoint) {
+		if (checkpoint.getMessageEvent() != messageEvent) {
+			return;
+		}
+		MessageHistory history = checkpoint.getMessageHistory();
+		if (null == history || history.size() < 2) {
+			return;
+		}
+		Properties to = history.get(history.size() - 1);
+		Properties from = null;
+		for (int i = history.size() - 2; i >= 0; i--) {
+			String type = history.get(i).getProperty(MessageHistory.TYPE_PROPERTY);
+			if (null != type && type.endsWith(CHANNEL_TYPE_SUFFIX)) {
+				from = history.get(i);
+				break;
+			}
+		}
+		if (null == from) {
+			return;
+		}
+		String fromName = from.getProperty(MessageHistory.NAME_PROPERTY);
+		String toName = to.getProperty(MessageHistory.NAME_PROPERTY);
+		long fromTime = timestamp(from);
+		long toTime = timestamp(to);
+		if (null == fromName || null == toName || fromTime < 0 || toTime < 0) {
+			return;
+		}
+		SlidingWindowHistogram latencies = getLatencies(fromName, toName);
+		if (null != latencies) {
+			latencies.record(toTime - fromTime, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 *
+	 * @return statistics for each route over the window, for routes with latencies in the window
+	 */
+	public List<RouteStatistics> getStatistics() {
+		long now = System.currentTimeMillis();
+		List<RouteStatistics> statistics = new ArrayList<RouteStatistics>();
+		for (Map.Entry<String, ConcurrentMap<String, SlidingWindowHistogram>> from : routes.entrySet()) {
+			for (Map.Entry<String, SlidingWindowHistogram> to : from.getValue().entrySet()) {
+				SlidingWindowHistogram latencies = to.getValue();
+				long count = latencies.getCount(now);
+				if (count > 0) {
+					long[] percentiles = latencies.getPercentiles(PERCENTILES, now);
+					statistics.add(new RouteStatistics(from.getKey(), to.getKey(), count, percentiles[0],
+							percentiles[1], percentiles[2], latencies.getMax(now)));
+				}
+			}
+		}
+		return statistics;
+	}
+
+	@ManagedAttribute(description = "Hop latencies (ms) per route over the window")
+	public String[] getRouteStatistics() {
+		List<RouteStatistics> statistics = getStatistics();
+		String[] results = new String[statistics.size()];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = statistics.get(i).toString();
+		}
+		return results;
+	}
+
+	@ManagedAttribute(description = "Number of routes tracked")
+	public long getRouteCount() {
+		return routeCount.get();
+	}
+
+	@ManagedAttribute(description = "Hops not recorded because maxRoutes was reached")
+	public long getUnroutedCount() {
+		return unroutedCount.get();
+	}
+
+	/**
+	 *
+	 * @param windowMillis the window over which statistics are computed. Default is 60000
+	 */
+	public void setWindowMillis(long windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 *
+	 * @param slotCount the number of slots the window is divided into. Default is 6
+	 */
+	public void setSlotCount(int slotCount) {
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 *
+	 * @param maxRoutes the maximum number of routes tracked. Default is 256
+	 */
+	public void setMaxRoutes(int maxRoutes) {
+		Assert.isTrue(maxRoutes > 0, "maxRoutes must be greater than 0");
+		this.maxRoutes = maxRoutes;
+	}
+
+	/**
+	 *
+	 * @param messageEvent the checkpoint event analyzed. Default is PRE_SEND
+	 */
+	public void setMessageEvent(MessageEvent messageEvent) {
+		Assert.notNull(messageEvent, "messageEvent cannot be null");
+		this.messageEvent = messageEvent;
+	}
+
+	private SlidingWindowHistogram getLatencies(String fromName, String toName) {
+		ConcurrentMap<String, SlidingWindowHistogram> toRoutes = routes.get(fromName);
+		if (null == toRoutes) {
+			routes.putIfAbsent(fromName, new ConcurrentHashMap<String, SlidingWindowHistogram>());
+			toRoutes = routes.get(fromName);
+		}
+		SlidingWindowHistogram latencies = toRoutes.get(toName);
+		if (null == latencies) {
+			if (routeCount.incrementAndGet() > maxRoutes) {
+				routeCount.decrementAndGet();
+				if (unroutedCount.getAndIncrement() == 0) {
+					logger.warn("maxRoutes " + maxRoutes + " reached, not recording " + fromName + "->" + toName);
+				}
+				return null;
+			}
+			SlidingWindowHistogram existing = toRoutes.putIfAbsent(toName,
+					new SlidingWindowHistogram(windowMillis, slotCount));
+			if (null != existing) {
+				routeCount.decrementAndGet();
+				latencies = existing;
+			} else {
+				latencies = toRoutes.get(toName);
+			}
+		}
+		return latencies;
+	}
+
+	private static long timestamp(Properties component) {
+		String timestamp = component.getProperty(MessageHistory.TIMESTAMP_PROPERTY);
+		if (null == timestamp) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(timestamp);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Latency statistics (ms) for one route over the window
+	 */
+	public static class RouteStatistics {
+		private final String from;
+
+		private final String to;
+
+		private final long count;
+
+		private final long p50;
+
+		private final long p90;
+
+		private final long p99;
+
+		private final long max;
+
+		RouteStatistics(String from, String to, long count, long p50, long p90, long p99, long max) {
+			this.from = from;
+			this.to = to;
+			this.count = count;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public String getFrom() {
+			return from;
+		}
+
+		public String getTo() {
+			return to;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public String toString() {
+			return from + "->" + to + " count [" + count + "] p50 [" + p50 + "] p90 [" + p90 + "] p99 [" + p99
+					+ "] max [" + max + "]";
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * A fixed size, lock free histogram of non-negative long values recorded over a sliding time window. The window is
+ * divided into slots, each a histogram of the values recorded in its period, and the oldest slot is cleared and
+ * reused as time moves on. Values are counted in log-linear buckets: each power of two range is divided into 8
+ * buckets, so a percentile is accurate to within 12.5% whatever the range of values.
+ * <p>
+ * Values recorded while a slot is being reused may be lost or counted in the new period, so results are approximate
+ * at slot boundaries.
+ *
+ * @author David Turanski
+ *
+ */
+public class SlidingWindowHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final long slotMillis;
+
+	private final int slotCount;
+
+	// slot * BUCKETS + bucket
+	private final AtomicLongArray counts;
+
+	// the period each slot holds, period = time / slotMillis
+	private final AtomicLongArray periods;
+
+	private final AtomicLongArray maxima;
+
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 *
+	 * @param windowMillis the length of the window
+	 * @param slotCount the number of slots the window is divided into. More slots slide more smoothly
+	 */
+	public SlidingWindowHistogram(long windowMillis, int slotCount) {
+		Assert.isTrue(slotCount > 0, "slotCount must be greater than 0");
+		Assert.isTrue(windowMillis >= slotCount, "windowMillis must be at least slotCount");
+		this.slotMillis = windowMillis / slotCount;
+		this.slotCount = slotCount;
+		this.counts = new AtomicLongArray(slotCount * BUCKETS);
+		this.periods = new AtomicLongArray(slotCount);
+		this.maxima = new AtomicLongArray(slotCount);
+		for (int slot = 0; slot < slotCount; slot++) {
+			periods.set(slot, -1);
+		}
+	}
+
+	/**
+	 *
+	 * @param value - negative values are counted as 0
+	 * @param now - the current time in millis
+	 */
+	public void record(long value, long now) {
+		if (value < 0) {
+			value = 0;
+		}
+		long period = now / slotMillis;
+		int slot = (int) (period % slotCount);
+		long slotPeriod = periods.get(slot);
+		if (slotPeriod < period && periods.compareAndSet(slot, slotPeriod, period)) {
+			for (int i = slot * BUCKETS; i < (slot + 1) * BUCKETS; i++) {
+				counts.set(i, 0);
+			}
+			maxima.set(slot, 0);
+		} else if (slotPeriod > period) {
+			// recorded late, after the slot has moved on
+			return;
+		}
+		counts.incrementAndGet(slot * BUCKETS + bucketFor(value));
+		total.incrementAndGet();
+		long currentMax;
+		while (value > (currentMax = maxima.get(slot)) && !maxima.compareAndSet(slot, currentMax, value)) {
+		}
+	}
+
+	/**
+	 *
+	 * @param now
+	 * @return the number of values recorded in the window
+	 */
+	public long getCount(long now) {
+		long n = 0;
+		for (long count : snapshot(now)) {
+			n += count;
+		}
+		return n;
+	}
+
+	/**
+	 *
+	 * @return the number of values recorded since creation
+	 */
+	public long getTotalCount() {
+		return total.get();
+	}
+
+	/**
+	 *
+	 * @param now
+	 * @return the maximum value recorded in the window
+	 */
+	public long getMax(long now) {
+		long max = 0;
+		for (int slot = 0; slot < slotCount; slot++) {
+			if (inWindow(slot, now)) {
+				max = Math.max(max, maxima.get(slot));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 *
+	 * @param percentiles - each between 0 and 100
+	 * @param now
+	 * @return for each percentile, the upper bound of the bucket containing it, 0 if nothing was recorded in the window
+	 */
+	public long[] getPercentiles(double[] percentiles, long now) {
+		long[] snapshot = snapshot(now);
+		long max = getMax(now);
+		long n = 0;
+		for (long count : snapshot) {
+			n += count;
+		}
+		long[] results = new long[percentiles.length];
+		if (n == 0) {
+			return results;
+		}
+		for (int p = 0; p < percentiles.length; p++) {
+			long rank = Math.max(1, (long) Math.ceil(n * percentiles[p] / 100.0));
+			long cumulative = 0;
+			results[p] = max;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += snapshot[i];
+				if (cumulative >= rank) {
+					results[p] = Math.min(upperBound(i), max);
+					break;
+				}
+			}
+		}
+		return results;
+	}
+
+	private long[] snapshot(long now) {
+		long[] snapshot = new long[BUCKETS];
+		for (int slot = 0; slot < slotCount; slot++) {
+			if (inWindow(slot, now)) {
+				for (int i = 0; i < BUCKETS; i++) {
+					snapshot[i] += counts.get(slot * BUCKETS + i);
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	private boolean inWindow(int slot, long now) {
+		long period = now / slotMillis;
+		long slotPeriod = periods.get(slot);
+		return slotPeriod > period - slotCount && slotPeriod <= period;
+	}
+
+	static int bucketFor(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
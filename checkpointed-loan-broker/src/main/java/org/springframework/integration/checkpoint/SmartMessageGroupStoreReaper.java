@@ -8,6 +8,10 @@ import org.springframework.integration.store.MessageGroupStoreReaper;
 
 /**
  * An implementation of {@link MessageGroupStoreReaper} that implements {@link SmartLifecycle}
+ * <p>
+ * Each run visits every group in the store. The transaction monitor no longer uses a reaper: its
+ * {@link CheckpointWindowAggregator} keeps transactions in the order first seen and stops each flush at the first
+ * one not yet expired, so only expired transactions are visited.
  * 
  * @author David Turanski
  *
@@ -38,7 +42,7 @@ public class SmartMessageGroupStoreReaper extends MessageGroupStoreReaper implem
 		try {
 			destroy();
 			if (logger.isInfoEnabled()){
-				  logger.info("started " + this);
+				  logger.info("stopped " + this);
 			};
 		} catch (Exception e) {
 			logger.error("failed to stop bean",e);
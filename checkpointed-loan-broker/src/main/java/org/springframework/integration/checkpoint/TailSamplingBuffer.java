@@ -0,0 +1,164 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * Holds the checkpoints of transactions which were not head sampled, until the transaction proves to be slow or to
+ * have failed, when they are released along with all its later checkpoints. Memory is bounded: at most
+ * maxTransactions transactions are held, each for at most pendingTimeout millis and with at most
+ * maxCheckpointsPerTransaction checkpoints. Held checkpoints of transactions which are neither slow nor failed are
+ * discarded.
+ * <p>
+ * Transactions are spread over lock stripes by id, as in the {@link CheckpointWindowAggregator}, so that senders of
+ * different transactions rarely contend. Each stripe holds at most its share of maxTransactions and evicts its own
+ * oldest.
+ *
+ * @author David Turanski
+ *
+ * @param <E> the checkpoint type
+ */
+class TailSamplingBuffer<E> {
+	private static final int STRIPES = 16;
+
+	private final long slowThreshold;
+
+	private final long pendingTimeout;
+
+	private final int maxCheckpointsPerTransaction;
+
+	private final List<Stripe> stripes;
+
+	private final AtomicLong releasedCount = new AtomicLong();
+
+	/**
+	 *
+	 * @param slowThreshold a transaction is slow if a checkpoint arrives this many millis after its first
+	 * @param pendingTimeout how long a transaction is tracked, in millis
+	 * @param maxTransactions
+	 * @param maxCheckpointsPerTransaction
+	 */
+	TailSamplingBuffer(long slowThreshold, long pendingTimeout, int maxTransactions,
+			int maxCheckpointsPerTransaction) {
+		Assert.isTrue(slowThreshold > 0, "slowThreshold must be greater than 0");
+		Assert.isTrue(pendingTimeout >= slowThreshold, "pendingTimeout must be at least the slowThreshold");
+		Assert.isTrue(maxTransactions > 0, "maxTransactions must be greater than 0");
+		Assert.isTrue(maxCheckpointsPerTransaction > 0, "maxCheckpointsPerTransaction must be greater than 0");
+		this.slowThreshold = slowThreshold;
+		this.pendingTimeout = pendingTimeout;
+		this.maxCheckpointsPerTransaction = maxCheckpointsPerTransaction;
+		// fewer stripes than STRIPES if maxTransactions is small, so every stripe has a share
+		int stripeCount = Math.min(STRIPES, maxTransactions);
+		this.stripes = new ArrayList<Stripe>(stripeCount);
+		for (int i = 0; i < stripeCount; i++) {
+			stripes.add(new Stripe(maxTransactions / stripeCount + (i < maxTransactions % stripeCount ? 1 : 0)));
+		}
+	}
+
+	/**
+	 *
+	 * @param transactionId
+	 * @param checkpoint
+	 * @param failed true if the checkpoint records a failure
+	 * @param now the current time in millis
+	 * @return the checkpoints to emit now: none if the transaction is held, else any held checkpoints followed by
+	 * this one
+	 */
+	List<E> add(Object transactionId, E checkpoint, boolean failed, long now) {
+		return stripes.get((transactionId.hashCode() & 0x7fffffff) % stripes.size()).add(transactionId, checkpoint, failed,
+				now);
+	}
+
+	/**
+	 *
+	 * @return the number of transactions being tracked
+	 */
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the number of transactions released as slow or failed
+	 */
+	long getReleasedCount() {
+		return releasedCount.get();
+	}
+
+	/*
+	 * A share of the transactions, guarded by itself
+	 */
+	private final class Stripe {
+		// transactionId -> state, in the order first seen
+		private final LinkedHashMap<Object, Transaction<E>> transactions;
+
+		Stripe(final int maxTransactions) {
+			this.transactions = new LinkedHashMap<Object, Transaction<E>>(16, 0.75f, false) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Object, Transaction<E>> eldest) {
+					return size() > maxTransactions;
+				}
+			};
+		}
+
+		synchronized List<E> add(Object transactionId, E checkpoint, boolean failed, long now) {
+			expire(now);
+			Transaction<E> transaction = transactions.get(transactionId);
+			if (null == transaction) {
+				transaction = new Transaction<E>(now);
+				transactions.put(transactionId, transaction);
+			}
+			if (transaction.released) {
+				return Collections.singletonList(checkpoint);
+			}
+			if (failed || now - transaction.firstSeen >= slowThreshold) {
+				List<E> released = transaction.held;
+				released.add(checkpoint);
+				transaction.held = null;
+				transaction.released = true;
+				releasedCount.incrementAndGet();
+				return released;
+			}
+			if (transaction.held.size() < maxCheckpointsPerTransaction) {
+				transaction.held.add(checkpoint);
+			}
+			return Collections.emptyList();
+		}
+
+		synchronized int size() {
+			return transactions.size();
+		}
+
+		private void expire(long now) {
+			Iterator<Transaction<E>> iterator = transactions.values().iterator();
+			while (iterator.hasNext() && now - iterator.next().firstSeen > pendingTimeout) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Transaction<E> {
+		private final long firstSeen;
+
+		private List<E> held = new ArrayList<E>(4);
+
+		private boolean released;
+
+		Transaction(long firstSeen) {
+			this.firstSeen = firstSeen;
+		}
+	}
+}
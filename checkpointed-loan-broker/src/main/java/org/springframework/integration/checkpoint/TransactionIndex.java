@@ -0,0 +1,120 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.Arrays;
+
+/**
+ * Maps 64 bit transaction keys to the locations of their records, without boxing: an open addressing table of keys,
+ * each the head of a chain, newest first, through parallel arrays of record locations. About 24 bytes per record
+ * and 24 per transaction. The {@link CheckpointJournal} keeps one per segment, so an index is discarded along with
+ * its segment. Not thread safe.
+ *
+ * @author David Turanski
+ *
+ */
+class TransactionIndex {
+	private static final int NONE = -1;
+
+	private long[] keys = new long[1024];
+
+	// slot -> newest record of the key, NONE if the slot is empty
+	private int[] heads = new int[1024];
+
+	private long[] locations = new long[1024];
+
+	// record -> the previous record of the same key, or NONE
+	private int[] previous = new int[1024];
+
+	private int keyCount;
+
+	private int recordCount;
+
+	TransactionIndex() {
+		Arrays.fill(heads, NONE);
+	}
+
+	void add(long key, long location) {
+		if (recordCount == locations.length) {
+			locations = Arrays.copyOf(locations, recordCount * 2);
+			previous = Arrays.copyOf(previous, recordCount * 2);
+		}
+		if (keyCount * 2 >= keys.length) {
+			resize();
+		}
+		int slot = slot(keys, heads, key);
+		if (heads[slot] == NONE) {
+			keys[slot] = key;
+			keyCount++;
+		}
+		locations[recordCount] = location;
+		previous[recordCount] = heads[slot];
+		heads[slot] = recordCount++;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the locations of the key's records, oldest first
+	 */
+	long[] get(long key) {
+		int record = heads[slot(keys, heads, key)];
+		int count = 0;
+		for (int i = record; i != NONE; i = previous[i]) {
+			count++;
+		}
+		long[] results = new long[count];
+		for (int i = record; i != NONE; i = previous[i]) {
+			results[--count] = locations[i];
+		}
+		return results;
+	}
+
+	int getKeyCount() {
+		return keyCount;
+	}
+
+	int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 *
+	 * @return the distinct keys, in no particular order
+	 */
+	long[] getKeys() {
+		long[] results = new long[keyCount];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (heads[i] != NONE) {
+				results[count++] = keys[i];
+			}
+		}
+		return results;
+	}
+
+	private void resize() {
+		long[] newKeys = new long[keys.length * 2];
+		int[] newHeads = new int[heads.length * 2];
+		Arrays.fill(newHeads, NONE);
+		for (int i = 0; i < keys.length; i++) {
+			if (heads[i] != NONE) {
+				int slot = slot(newKeys, newHeads, keys[i]);
+				newKeys[slot] = keys[i];
+				newHeads[slot] = heads[i];
+			}
+		}
+		keys = newKeys;
+		heads = newHeads;
+	}
+
+	/*
+	 * The key's slot, or the empty slot where it belongs
+	 */
+	private static int slot(long[] keys, int[] heads, long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+		while (heads[slot] != NONE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2002-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.samples.loanbroker;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.channel.interceptor.ChannelInterceptorAdapter;
+import org.springframework.integration.context.NamedComponent;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * Stamps each request sent to a bank channel with the bank, the time it was sent and its deadline. The bank's reply
+ * carries the headers back, so the {@link StreamingLoanQuoteAggregator} can drop replies which missed their
+ * deadline, release the quotes at the deadline, and record each bank's latency.
+ * <p>
+ * A deadline already stamped is kept. Intercepting the channel before the router as well stamps one deadline per
+ * request, shared by all of its banks however late each is sent, e.g. by the caller when the bank executor is full,
+ * so that the first quote's deadline is every bank's.
+ *
+ * @author David Turanski
+ */
+public class BankDeadlineInterceptor extends ChannelInterceptorAdapter {
+	public static final String BANK_CHANNEL = "BANK_CHANNEL";
+
+	public static final String BANK_REQUEST_TIME = "BANK_REQUEST_TIME";
+
+	public static final String BANK_DEADLINE = "BANK_DEADLINE";
+
+	private long deadline = 2000;
+
+	/**
+	 *
+	 * @param deadline millis after the request is first intercepted by which the banks must reply. Default is 2000
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.channel.interceptor.ChannelInterceptorAdapter#preSend(org.springframework.integration.Message, org.springframework.integration.MessageChannel)
+	 */
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		long now = System.currentTimeMillis();
+		return MessageBuilder.fromMessage(message)
+				.setHeader(BANK_CHANNEL, ((NamedComponent) channel).getComponentName())
+				.setHeader(BANK_REQUEST_TIME, now)
+				.setHeaderIfAbsent(BANK_DEADLINE, now + deadline)
+				.build();
+	}
+}
@@ -30,6 +30,9 @@ import org.springframework.integration.samples.loanbroker.domain.LoanQuote;
  * {@link LoanBrokerGateway#getBestLoanQuote(org.springframework.integration.samples.loanbroker.domain.LoanRequest)}
  * method is invoked by the client.
  * 
+ * <p>
+ * See {@link StreamingLoanQuoteAggregator} to select the best quotes as they arrive, without waiting for every bank.
+ * 
  * @author Oleg Zhurakousky
  */
 public class LoanQuoteAggregator {
@@ -41,13 +44,23 @@ public class LoanQuoteAggregator {
 	 * @return the best {@link LoanQuote} if the 'RESPONSE_TYPE' header value is 'BEST' else all quotes
 	 */
 	public Object aggregateQuotes(List<Message<LoanQuote>> messages) {
+		String responseType = messages.get(0).getHeaders().get("RESPONSE_TYPE", String.class);
+		if ("BEST".equals(responseType)) {
+			// no need to copy and sort them all for one
+			LoanQuote best = messages.get(0).getPayload();
+			for (Message<LoanQuote> message : messages) {
+				if (message.getPayload().compareTo(best) < 0) {
+					best = message.getPayload();
+				}
+			}
+			return best;
+		}
 		ArrayList<LoanQuote> payloads = new ArrayList<LoanQuote>(messages.size());
 		for (Message<LoanQuote> message : messages) {
 			payloads.add(message.getPayload());
 		}
 		Collections.sort(payloads);
-		String responseType = messages.get(0).getHeaders().get("RESPONSE_TYPE", String.class);
-		return ("BEST".equals(responseType)) ? payloads.get(0) : payloads;
+		return payloads;
 	}
 
 }
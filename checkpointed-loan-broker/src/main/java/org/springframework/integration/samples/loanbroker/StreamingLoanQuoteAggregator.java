@@ -0,0 +1,405 @@
+/*
+ * Copyright 2002-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.samples.loanbroker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessageHeaders;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.checkpoint.SlidingWindowHistogram;
+import org.springframework.integration.samples.loanbroker.domain.LoanQuote;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.Assert;
+
+/**
+ * A streaming alternative to the {@link LoanQuoteAggregator}, invoked by a service activator for each bank's
+ * {@link LoanQuote} rather than by an aggregator once all have arrived. Only the best quotes are kept as they arrive:
+ * one for a 'BEST' request, else at most maxQuotes. The reply is sent to the output channel as soon as every bank has
+ * replied, a quorum of banks has replied, or the deadline after the first quote has passed, so the reply is not held
+ * up by the slowest bank. Quotes arriving after the reply are discarded, for as long as the releasedRetention.
+ * <p>
+ * Quotes are correlated by the correlation id and sequence size set by the router's apply-sequence. The reply
+ * carries the headers of the first quote, including the gateway's reply channel.
+ * <p>
+ * For scatter-gather, where the banks are called in parallel, a {@link BankDeadlineInterceptor} on the bank
+ * channels, and on the channel before the router, gives each request a deadline shared by its banks. A quote which
+ * misses it is dropped, though its bank counts as having
+ * replied, and the reply is sent at the deadline rather than deadline millis after the first quote. Each bank's
+ * latency over the last minute, and its late replies, are recorded and exposed over JMX. If no bank replied in time,
+ * the reply is a {@link MessagingException}, which the gateway throws.
+ *
+ * @author David Turanski
+ */
+@ManagedResource(description = "Streaming loan quote aggregator")
+public class StreamingLoanQuoteAggregator implements InitializingBean {
+	private static final Logger logger = Logger.getLogger(StreamingLoanQuoteAggregator.class);
+
+	private MessageChannel outputChannel;
+
+	private TaskScheduler taskScheduler;
+
+	private int quorum;
+
+	private long deadline = 5000;
+
+	private int maxQuotes = Integer.MAX_VALUE;
+
+	private long releasedRetention = 15000;
+
+	private final ConcurrentMap<Object, QuoteGroup> groups = new ConcurrentHashMap<Object, QuoteGroup>();
+
+	// correlation id -> when it may be forgotten, to discard the late quotes of replies already sent
+	private final ConcurrentMap<Object, Long> released = new ConcurrentHashMap<Object, Long>();
+
+	// the same, oldest first, so expired ids are removed without scanning the map
+	private final ConcurrentLinkedQueue<ReleasedId> releasedOrder = new ConcurrentLinkedQueue<ReleasedId>();
+
+	private final AtomicLong earlyReleaseCount = new AtomicLong();
+
+	private final AtomicLong lateQuoteCount = new AtomicLong();
+
+	// bank channel -> latencies
+	private final ConcurrentMap<String, BankStatistics> bankStatistics = new ConcurrentHashMap<String, BankStatistics>();
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	public void afterPropertiesSet() throws Exception {
+		Assert.notNull(outputChannel, "outputChannel cannot be null");
+		Assert.isTrue(deadline == 0 || null != taskScheduler, "a taskScheduler is required for the deadline");
+		Assert.isTrue(releasedRetention >= deadline, "releasedRetention must be at least the deadline");
+	}
+
+	/**
+	 * Adds a bank's quote, sending the reply if the quotes are complete
+	 *
+	 * @param message
+	 */
+	public void addQuote(Message<LoanQuote> message) {
+		long now = System.currentTimeMillis();
+		Long bankDeadline = message.getHeaders().get(BankDeadlineInterceptor.BANK_DEADLINE, Long.class);
+		boolean late = recordBankLatency(message.getHeaders(), bankDeadline, now);
+		Object correlationId = message.getHeaders().getCorrelationId();
+		if (null == correlationId) {
+			// not from the router, so the only quote
+			correlationId = message.getHeaders().getId();
+		}
+		QuoteGroup group = groups.get(correlationId);
+		if (null == group) {
+			if (released.containsKey(correlationId)) {
+				if (!late) {
+					lateQuoteCount.incrementAndGet();
+				}
+				return;
+			}
+			group = new QuoteGroup(correlationId, message.getHeaders());
+			QuoteGroup existing = groups.putIfAbsent(correlationId, group);
+			if (null != existing) {
+				group = existing;
+			} else if (null != bankDeadline) {
+				scheduleDeadline(group, bankDeadline);
+			} else if (deadline > 0) {
+				scheduleDeadline(group, now + deadline);
+			}
+		}
+		Message<?> reply = group.add(late ? null : message.getPayload());
+		if (null != reply) {
+			release(group, reply);
+		}
+	}
+
+	/**
+	 *
+	 * @param outputChannel the channel replies are sent to
+	 */
+	public void setOutputChannel(MessageChannel outputChannel) {
+		this.outputChannel = outputChannel;
+	}
+
+	/**
+	 *
+	 * @param taskScheduler schedules the deadlines, e.g. the 'taskScheduler' bean
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 *
+	 * @param quorum the number of quotes after which the reply is sent. Default is 0, waiting for every bank
+	 */
+	public void setQuorum(int quorum) {
+		this.quorum = quorum;
+	}
+
+	/**
+	 *
+	 * @param deadline millis after the first quote after which the reply is sent with the quotes received. 0 for no
+	 * deadline. Default is 5000
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 *
+	 * @param releasedRetention millis for which a sent reply's correlation id is remembered, so its late quotes are
+	 * discarded rather than starting a new group. It should be at least the deadline plus the gateway's reply timeout,
+	 * after which no bank is still quoting for the request. Default is 15000
+	 */
+	public void setReleasedRetention(long releasedRetention) {
+		Assert.isTrue(releasedRetention > 0, "releasedRetention must be greater than 0");
+		this.releasedRetention = releasedRetention;
+	}
+
+	/**
+	 *
+	 * @param maxQuotes the maximum number of quotes in the reply if not a 'BEST' request
+	 */
+	public void setMaxQuotes(int maxQuotes) {
+		Assert.isTrue(maxQuotes > 0, "maxQuotes must be greater than 0");
+		this.maxQuotes = maxQuotes;
+	}
+
+	/**
+	 *
+	 * @return the number of replies sent before every bank replied
+	 */
+	@ManagedAttribute(description = "Replies sent before every bank replied")
+	public long getEarlyReleaseCount() {
+		return earlyReleaseCount.get();
+	}
+
+	/**
+	 *
+	 * @return the number of quotes discarded because they missed their deadline, or the reply had been sent
+	 */
+	@ManagedAttribute(description = "Quotes discarded because they missed their deadline, or the reply had been sent")
+	public long getLateQuoteCount() {
+		return lateQuoteCount.get();
+	}
+
+	@ManagedAttribute(description = "Quote latencies (ms) per bank over the last minute")
+	public String[] getBankStatistics() {
+		long now = System.currentTimeMillis();
+		List<String> statistics = new ArrayList<String>();
+		for (Map.Entry<String, BankStatistics> entry : bankStatistics.entrySet()) {
+			SlidingWindowHistogram latencies = entry.getValue().latencies;
+			long[] percentiles = latencies.getPercentiles(new double[] {50, 90, 99}, now);
+			statistics.add(entry.getKey() + " count [" + latencies.getCount(now) + "] p50 [" + percentiles[0]
+					+ "] p90 [" + percentiles[1] + "] p99 [" + percentiles[2] + "] max [" + latencies.getMax(now)
+					+ "] late [" + entry.getValue().lateCount.get() + "]");
+		}
+		Collections.sort(statistics);
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	/**
+	 *
+	 * @param bankChannel
+	 * @return the bank's latencies over the last minute, or null if it has not replied
+	 */
+	public SlidingWindowHistogram getBankLatencies(String bankChannel) {
+		BankStatistics statistics = bankStatistics.get(bankChannel);
+		return (null == statistics) ? null : statistics.latencies;
+	}
+
+	/*
+	 * Returns true if the quote missed its deadline
+	 */
+	private boolean recordBankLatency(MessageHeaders headers, Long bankDeadline, long now) {
+		String bankChannel = headers.get(BankDeadlineInterceptor.BANK_CHANNEL, String.class);
+		Long requestTime = headers.get(BankDeadlineInterceptor.BANK_REQUEST_TIME, Long.class);
+		boolean late = null != bankDeadline && now > bankDeadline;
+		if (null != bankChannel && null != requestTime) {
+			BankStatistics statistics = bankStatistics.get(bankChannel);
+			if (null == statistics) {
+				bankStatistics.putIfAbsent(bankChannel, new BankStatistics());
+				statistics = bankStatistics.get(bankChannel);
+			}
+			statistics.latencies.record(now - requestTime, now);
+			if (late) {
+				statistics.lateCount.incrementAndGet();
+			}
+		}
+		if (late) {
+			lateQuoteCount.incrementAndGet();
+		}
+		return late;
+	}
+
+	private void scheduleDeadline(final QuoteGroup group, long time) {
+		group.deadlineFuture = taskScheduler.schedule(new Runnable() {
+			public void run() {
+				Message<?> reply = group.expire();
+				if (null != reply) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("deadline reached for " + group.correlationId);
+					}
+					release(group, reply);
+				}
+			}
+		}, new Date(time));
+	}
+
+	private void release(QuoteGroup group, Message<?> reply) {
+		long now = System.currentTimeMillis();
+		expireReleased(now);
+		// before the group is removed, so a quote arriving in between is recognized as late
+		Long expiry = now + releasedRetention;
+		released.put(group.correlationId, expiry);
+		releasedOrder.offer(new ReleasedId(group.correlationId, expiry));
+		groups.remove(group.correlationId, group);
+		ScheduledFuture<?> deadlineFuture = group.deadlineFuture;
+		if (null != deadlineFuture) {
+			deadlineFuture.cancel(false);
+		}
+		if (group.early) {
+			earlyReleaseCount.incrementAndGet();
+		}
+		outputChannel.send(reply);
+	}
+
+	private void expireReleased(long now) {
+		ReleasedId head;
+		while (null != (head = releasedOrder.peek()) && head.expiry <= now) {
+			if (releasedOrder.remove(head)) {
+				// unless the id was released again since
+				released.remove(head.correlationId, head.expiry);
+			}
+		}
+	}
+
+	private static class ReleasedId {
+		private final Object correlationId;
+
+		private final Long expiry;
+
+		ReleasedId(Object correlationId, Long expiry) {
+			this.correlationId = correlationId;
+			this.expiry = expiry;
+		}
+	}
+
+	private static class BankStatistics {
+		private final SlidingWindowHistogram latencies = new SlidingWindowHistogram(60000, 6);
+
+		private final AtomicLong lateCount = new AtomicLong();
+	}
+
+	/*
+	 * The best quotes received for a request, guarded by itself
+	 */
+	private class QuoteGroup {
+		private final Object correlationId;
+
+		private final MessageHeaders headers;
+
+		private final boolean best;
+
+		private final int expected;
+
+		private final int capacity;
+
+		// the worst of the best quotes at the head
+		private final PriorityQueue<LoanQuote> quotes;
+
+		private int received;
+
+		private boolean done;
+
+		private boolean early;
+
+		private volatile ScheduledFuture<?> deadlineFuture;
+
+		QuoteGroup(Object correlationId, MessageHeaders headers) {
+			this.correlationId = correlationId;
+			this.headers = headers;
+			this.best = "BEST".equals(headers.get("RESPONSE_TYPE", String.class));
+			Integer sequenceSize = headers.getSequenceSize();
+			this.expected = (null == sequenceSize || sequenceSize == 0) ? 1 : sequenceSize;
+			this.capacity = best ? 1 : maxQuotes;
+			this.quotes = new PriorityQueue<LoanQuote>(Math.min(capacity, expected) + 1,
+					Collections.<LoanQuote> reverseOrder());
+		}
+
+		/*
+		 * Returns the reply if complete. A null quote is a bank's late reply
+		 */
+		synchronized Message<?> add(LoanQuote quote) {
+			if (done) {
+				if (null != quote) {
+					lateQuoteCount.incrementAndGet();
+				}
+				return null;
+			}
+			received++;
+			if (null != quote) {
+				quotes.offer(quote);
+				if (quotes.size() > capacity) {
+					quotes.poll();
+				}
+			}
+			if (received >= expected || (quorum > 0 && received >= quorum)) {
+				early = received < expected;
+				return reply();
+			}
+			return null;
+		}
+
+		/*
+		 * Returns the reply if not already sent
+		 */
+		synchronized Message<?> expire() {
+			if (done) {
+				return null;
+			}
+			early = true;
+			return reply();
+		}
+
+		private Message<?> reply() {
+			done = true;
+			List<LoanQuote> sorted = new ArrayList<LoanQuote>(quotes);
+			Collections.sort(sorted);
+			Object payload;
+			if (sorted.isEmpty()) {
+				payload = new MessagingException("no bank replied in time for " + correlationId);
+			} else {
+				payload = best ? sorted.get(0) : sorted;
+			}
+			return MessageBuilder.withPayload(payload).copyHeaders(headers).build();
+		}
+	}
+}
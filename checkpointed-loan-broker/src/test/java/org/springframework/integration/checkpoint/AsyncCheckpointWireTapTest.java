@@ -0,0 +1,204 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.checkpoint.AbstractCheckpointWireTap.OverflowPolicy;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * Tests the async emission mode of {@link AbstractCheckpointWireTap} and its {@link CheckpointRingBuffer}
+ *
+ * @author David Turanski
+ *
+ */
+public class AsyncCheckpointWireTapTest {
+	private static final String TX_HEADER = "txId";
+
+	@Test
+	public void testRingBuffer() {
+		CheckpointRingBuffer<Integer> buffer = new CheckpointRingBuffer<Integer>(3);
+		assertEquals(4, buffer.getCapacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+		assertEquals(Integer.valueOf(0), buffer.poll());
+		assertTrue(buffer.offer(4));
+		Integer[] batch = new Integer[3];
+		assertEquals(3, buffer.drainTo(batch));
+		assertEquals(Integer.valueOf(1), batch[0]);
+		assertEquals(Integer.valueOf(3), batch[2]);
+		assertEquals(Integer.valueOf(4), buffer.poll());
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testRingBufferConcurrentProducers() throws Exception {
+		final int producers = 4;
+		final int perProducer = 100000;
+		final CheckpointRingBuffer<Long> buffer = new CheckpointRingBuffer<Long>(1024);
+		final CyclicBarrier barrier = new CyclicBarrier(producers);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final long producer = p;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						barrier.await();
+					} catch (Exception e) {
+						return;
+					}
+					for (long i = 0; i < perProducer; i++) {
+						while (!buffer.offer(producer * perProducer + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		long[] last = new long[producers];
+		for (int p = 0; p < producers; p++) {
+			last[p] = -1;
+		}
+		int received = 0;
+		while (received < producers * perProducer) {
+			Long value = buffer.poll();
+			if (null == value) {
+				Thread.yield();
+				continue;
+			}
+			int producer = (int) (value / perProducer);
+			// each producer's elements arrive in order
+			assertEquals(last[producer] + 1, value % perProducer);
+			last[producer] = value % perProducer;
+			received++;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	public void testAsyncCheckpointsAreSent() throws Exception {
+		QueueChannel checkpointChannel = new QueueChannel();
+		AbstractCheckpointWireTap wireTap = createWireTap(checkpointChannel, 16, OverflowPolicy.BLOCK);
+		DirectChannel channel = createTappedChannel(wireTap);
+		wireTap.start();
+
+		for (int i = 0; i < 100; i++) {
+			channel.send(MessageBuilder.withPayload(i).build());
+		}
+		wireTap.stop();
+
+		assertEquals(0, wireTap.getDroppedCount());
+		for (int i = 0; i < 100; i++) {
+			Message<?> message = checkpointChannel.receive(0);
+			Checkpoint checkpoint = (Checkpoint) message.getPayload();
+			assertEquals("tapped", checkpoint.getChannelName());
+			assertEquals(message.getHeaders().get(TX_HEADER).toString(), checkpoint.getGlobalTransactionId());
+		}
+		assertNull(checkpointChannel.receive(0));
+
+		// stopped, so sent on the caller's thread
+		channel.send(MessageBuilder.withPayload(100).build());
+		assertEquals(1, checkpointChannel.getQueueSize());
+	}
+
+	@Test
+	public void testIdleEmitterIsWokenByNextCheckpoint() throws Exception {
+		QueueChannel checkpointChannel = new QueueChannel();
+		AbstractCheckpointWireTap wireTap = createWireTap(checkpointChannel, 16, OverflowPolicy.DROP);
+		DirectChannel channel = createTappedChannel(wireTap);
+		wireTap.start();
+		try {
+			for (int i = 0; i < 3; i++) {
+				// let the emitter find the buffer empty and park
+				Thread.sleep(50);
+				channel.send(MessageBuilder.withPayload(i).build());
+				assertNotNull(checkpointChannel.receive(5000));
+			}
+		} finally {
+			wireTap.stop();
+		}
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		DirectChannel checkpointChannel = new DirectChannel();
+		final List<Message<?>> checkpoints = new ArrayList<Message<?>>();
+		checkpointChannel.subscribe(new MessageHandler() {
+			public void handleMessage(Message<?> message) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				checkpoints.add(message);
+			}
+		});
+		AbstractCheckpointWireTap wireTap = createWireTap(checkpointChannel, 4, OverflowPolicy.DROP);
+		DirectChannel channel = createTappedChannel(wireTap);
+		wireTap.start();
+
+		channel.send(MessageBuilder.withPayload(0).build());
+		// the emitter is now stuck sending the first checkpoint
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < 10; i++) {
+			channel.send(MessageBuilder.withPayload(i).build());
+		}
+		assertEquals(4, wireTap.getBufferedCount());
+		assertEquals(5, wireTap.getDroppedCount());
+
+		release.countDown();
+		wireTap.stop();
+		assertEquals(5, checkpoints.size());
+	}
+
+	private AbstractCheckpointWireTap createWireTap(MessageChannel checkpointChannel, int bufferSize,
+			OverflowPolicy overflowPolicy) throws Exception {
+		DefaultCheckpointWireTap wireTap = new DefaultCheckpointWireTap(checkpointChannel);
+		wireTap.setTransactionIdHeader(TX_HEADER);
+		wireTap.setEnabledMessageEvents(Collections.singletonList(Checkpoint.MessageEvent.PRE_SEND));
+		wireTap.setAsync(true);
+		wireTap.setBufferSize(bufferSize);
+		wireTap.setOverflowPolicy(overflowPolicy);
+		wireTap.afterPropertiesSet();
+		return wireTap;
+	}
+
+	private DirectChannel createTappedChannel(AbstractCheckpointWireTap wireTap) {
+		DirectChannel channel = new DirectChannel();
+		channel.setBeanName("tapped");
+		channel.addInterceptor(wireTap);
+		channel.subscribe(new MessageHandler() {
+			public void handleMessage(Message<?> message) {
+			}
+		});
+		return channel;
+	}
+}
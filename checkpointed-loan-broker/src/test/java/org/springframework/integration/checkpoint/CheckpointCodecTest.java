@@ -0,0 +1,158 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.history.MessageHistory;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointCodecTest {
+	private final CheckpointCodec codec = new CheckpointCodec();
+
+	@Test
+	public void testRoundTrip() {
+		Checkpoint checkpoint = createCheckpoint("stubBankChannel");
+		checkpoint.setHostname("broker1");
+		checkpoint.setHostIP("10.0.0.1");
+		codec.setHostnames(Collections.singletonMap("10.0.0.1", "broker1"));
+
+		List<Checkpoint> decoded = codec.decode(codec.encode(checkpoint));
+		assertEquals(1, decoded.size());
+		assertCheckpointEquals(checkpoint, decoded.get(0));
+		assertEquals("broker1", decoded.get(0).getHostname());
+	}
+
+	@Test
+	public void testNonUUIDIdsAndNulls() {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setGlobalTransactionId("tx-1");
+		checkpoint.setMessageEvent(MessageEvent.POST_RECEIVE);
+		checkpoint.setTimestamp(-1);
+		checkpoint.setHostIP("fe80::1");
+		Checkpoint decoded = codec.decode(codec.encode(checkpoint)).get(0);
+		assertEquals("tx-1", decoded.getGlobalTransactionId());
+		assertNull(decoded.getMessageID());
+		assertNull(decoded.getChannelName());
+		assertNull(decoded.getMessageHistory());
+		assertNull(decoded.getProperties());
+		assertEquals(MessageEvent.POST_RECEIVE, decoded.getMessageEvent());
+		assertEquals(-1, decoded.getTimestamp());
+		assertEquals("fe80::1", decoded.getHostIP());
+	}
+
+	@Test
+	public void testBatchIsSmallerThanSerialized() throws Exception {
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		for (int i = 0; i < 10; i++) {
+			checkpoints.add(createCheckpoint(i % 2 == 0 ? "stubBankChannel" : "quotesAggregationChannel"));
+		}
+		byte[] encoded = codec.encode(checkpoints);
+
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(serialized);
+		oos.writeObject(checkpoints);
+		oos.close();
+		assertTrue(encoded.length + " bytes encoded, " + serialized.size() + " serialized",
+				encoded.length * 4 < serialized.size());
+
+		List<Checkpoint> decoded = codec.decode(encoded);
+		for (int i = 0; i < checkpoints.size(); i++) {
+			assertCheckpointEquals(checkpoints.get(i), decoded.get(i));
+		}
+	}
+
+	@Test
+	public void testSharedSymbols() {
+		Checkpoint checkpoint = createCheckpoint("stubBankChannel");
+		int unshared = codec.encode(checkpoint).length;
+		codec.setSymbols(Arrays.asList("stubBankChannel", "java.lang.String", "channel", "lender"));
+		byte[] encoded = codec.encode(checkpoint);
+		assertTrue(encoded.length < unshared);
+		assertCheckpointEquals(checkpoint, codec.decode(encoded).get(0));
+	}
+
+	@Test
+	public void testNullMessageEvent() {
+		Checkpoint checkpoint = createCheckpoint("stubBankChannel");
+		checkpoint.setMessageEvent(null);
+		assertNull(codec.decode(codec.encode(checkpoint)).get(0).getMessageEvent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCorruptCount() {
+		// header and a count of Integer.MAX_VALUE
+		codec.decode(new byte[] { CheckpointCodec.VERSION, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		byte[] encoded = codec.encode(createCheckpoint("stubBankChannel"));
+		codec.decode(Arrays.copyOf(encoded, encoded.length - 3));
+	}
+
+	@Test
+	public void testMessageConverter() {
+		CheckpointMessageConverter converter = new CheckpointMessageConverter(codec);
+		Checkpoint checkpoint = createCheckpoint("stubBankChannel");
+		byte[] bytes = (byte[]) converter.fromMessage(MessageBuilder.withPayload(checkpoint).build());
+		Message<Checkpoint> single = converter.toMessage(bytes);
+		assertCheckpointEquals(checkpoint, single.getPayload());
+
+		bytes = (byte[]) converter.fromMessage(MessageBuilder.withPayload(Arrays.asList(checkpoint, checkpoint)).build());
+		Message<List<Checkpoint>> batch = converter.toMessage(bytes);
+		assertEquals(2, batch.getPayload().size());
+	}
+
+	private Checkpoint createCheckpoint(String channelName) {
+		DirectChannel channel = new DirectChannel();
+		channel.setBeanName(channelName);
+		Message<?> message = MessageBuilder.withPayload("loan request").build();
+		message = MessageHistory.write(message, channel);
+
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setChannelName(channelName);
+		checkpoint.setGlobalTransactionId(UUID.randomUUID().toString());
+		checkpoint.setMessageID(message.getHeaders().getId().toString());
+		checkpoint.setMessageHistory(MessageHistory.read(message));
+		checkpoint.setPayloadType(String.class.getName());
+		checkpoint.setMessageEvent(MessageEvent.PRE_SEND);
+		checkpoint.setTimestamp(message.getHeaders().getTimestamp());
+		Properties properties = new Properties();
+		properties.put("lender", "StubBank-11");
+		properties.put("rate", 5.9092593f);
+		properties.put("loanAmount", 270279);
+		checkpoint.setProperties(properties);
+		return checkpoint;
+	}
+
+	private void assertCheckpointEquals(Checkpoint expected, Checkpoint actual) {
+		assertEquals(expected.getGlobalTransactionId(), actual.getGlobalTransactionId());
+		assertEquals(expected.getMessageID(), actual.getMessageID());
+		assertEquals(expected.getChannelName(), actual.getChannelName());
+		assertEquals(expected.getPayloadType(), actual.getPayloadType());
+		assertEquals(expected.getMessageEvent(), actual.getMessageEvent());
+		assertEquals(expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(expected.getHostIP(), actual.getHostIP());
+		assertEquals(expected.getProperties(), actual.getProperties());
+		assertEquals(expected.getMessageHistory().toString(), actual.getMessageHistory().toString());
+	}
+}
@@ -0,0 +1,138 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointJournalTest {
+	private static final long START = 1000000L;
+
+	private File directory;
+
+	private CheckpointJournal journal;
+
+	private String[] transactionIds;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("checkpoints", "");
+		directory.delete();
+		journal = journal(false);
+		transactionIds = new String[20];
+		for (int i = 0; i < transactionIds.length; i++) {
+			transactionIds[i] = UUID.randomUUID().toString();
+		}
+		// 10 checkpoints per transaction, interleaved, written out of timestamp order
+		for (int hop = 9; hop >= 0; hop--) {
+			for (int i = 0; i < transactionIds.length; i++) {
+				journal.append(checkpoint(transactionIds[i], "channel" + hop, START + i * 100 + hop));
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		journal.destroy();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testTransactionPath() {
+		assertTrue("segments " + journal.getSegmentCount(), journal.getSegmentCount() > 1);
+		assertEquals(200, journal.getCheckpointCount());
+		assertEquals(20, journal.getTransactionCount());
+		List<Checkpoint> path = journal.getTransaction(transactionIds[3]);
+		assertEquals(10, path.size());
+		for (int hop = 0; hop < 10; hop++) {
+			assertEquals("channel" + hop, path.get(hop).getChannelName());
+			assertEquals(transactionIds[3], path.get(hop).getGlobalTransactionId());
+		}
+		assertEquals(0, journal.getTransaction("unknown").size());
+	}
+
+	@Test
+	public void testReplayRange() {
+		QueueChannel channel = new QueueChannel();
+		// transactions 2 and 3
+		assertEquals(20, journal.replay(START + 200, START + 400, channel));
+		assertEquals(20, channel.getQueueSize());
+		Checkpoint checkpoint = (Checkpoint) channel.receive(0).getPayload();
+		assertTrue(checkpoint.getTimestamp() >= START + 200 && checkpoint.getTimestamp() < START + 400);
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		journal.destroy();
+		journal = journal(false);
+		journal.append(checkpoint(transactionIds[0], "channel10", START + 10));
+		assertEquals(11, journal.getTransaction(transactionIds[0]).size());
+
+		CheckpointJournal reader = journal(true);
+		assertEquals(201, reader.getCheckpointCount());
+		assertEquals("channel10", reader.getTransaction(transactionIds[0]).get(10).getChannelName());
+	}
+
+	@Test
+	public void testRetention() throws Exception {
+		int segmentCount = journal.getSegmentCount();
+		journal.destroy();
+		journal = journal(false, 2);
+		// the oldest segments were deleted on opening, leaving one and the new active segment
+		assertEquals(2, journal.getSegmentCount());
+		assertEquals(2, directory.listFiles().length);
+		int checkpointCount = journal.getCheckpointCount();
+		assertTrue(checkpointCount > 0 && checkpointCount < 200);
+
+		for (int i = 0; i < 200; i++) {
+			journal.append(checkpoint(transactionIds[0], "channel" + (10 + i), START + 10000 + i));
+		}
+		assertEquals(2, journal.getSegmentCount());
+		assertEquals(2, directory.listFiles().length);
+		assertEquals(1, journal.getTransactionCount());
+		List<Checkpoint> path = journal.getTransaction(transactionIds[0]);
+		assertEquals(journal.getCheckpointCount(), path.size());
+		assertEquals("channel209", path.get(path.size() - 1).getChannelName());
+		assertTrue(segmentCount > 2);
+	}
+
+	private CheckpointJournal journal(boolean readOnly) throws Exception {
+		return journal(readOnly, 16);
+	}
+
+	private CheckpointJournal journal(boolean readOnly, int maxSegments) throws Exception {
+		CheckpointJournal journal = new CheckpointJournal();
+		journal.setDirectory(directory);
+		journal.setSegmentSize(4096);
+		journal.setReadOnly(readOnly);
+		journal.setMaxSegments(maxSegments);
+		journal.afterPropertiesSet();
+		return journal;
+	}
+
+	private Checkpoint checkpoint(String transactionId, String channelName, long timestamp) {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setGlobalTransactionId(transactionId);
+		checkpoint.setMessageID(UUID.randomUUID().toString());
+		checkpoint.setChannelName(channelName);
+		checkpoint.setMessageEvent(MessageEvent.PRE_SEND);
+		checkpoint.setTimestamp(timestamp);
+		return checkpoint;
+	}
+}
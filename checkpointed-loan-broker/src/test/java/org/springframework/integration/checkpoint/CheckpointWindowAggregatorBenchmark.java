@@ -0,0 +1,85 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.channel.NullChannel;
+
+/**
+ * JMH benchmark of the checkpoint throughput of {@link CheckpointWindowAggregator}, from 4 threads, for
+ * transactions of 5 checkpoints completed by the last. Run with mvn test -Pbenchmark.
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CheckpointWindowAggregatorBenchmark {
+	private static final int CHECKPOINTS_PER_TRANSACTION = 5;
+
+	private CheckpointWindowAggregator aggregator;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private Checkpoint[] checkpoints;
+
+	private Checkpoint[] completions;
+
+	@Setup
+	public void setUp() {
+		aggregator = new CheckpointWindowAggregator();
+		aggregator.setOutputChannel(new NullChannel());
+		aggregator.setCompletionChannelNames(Arrays.asList("loanBrokerReplyChannel"));
+		aggregator.start();
+		checkpoints = new Checkpoint[1024];
+		completions = new Checkpoint[checkpoints.length];
+		for (int i = 0; i < checkpoints.length; i++) {
+			checkpoints[i] = checkpoint("tx" + i, "stubBankChannel");
+			completions[i] = checkpoint("tx" + i, "loanBrokerReplyChannel");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		aggregator.stop();
+	}
+
+	@Benchmark
+	public void add() {
+		long n = sequence.getAndIncrement();
+		int transaction = (int) ((n / CHECKPOINTS_PER_TRANSACTION) % checkpoints.length);
+		if (n % CHECKPOINTS_PER_TRANSACTION == CHECKPOINTS_PER_TRANSACTION - 1) {
+			aggregator.add(completions[transaction]);
+		} else {
+			aggregator.add(checkpoints[transaction]);
+		}
+		if (n % 10000 == 0) {
+			aggregator.flush();
+		}
+	}
+
+	private Checkpoint checkpoint(String transactionId, String channelName) {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setGlobalTransactionId(transactionId);
+		checkpoint.setChannelName(channelName);
+		return checkpoint;
+	}
+}
@@ -0,0 +1,159 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.core.MessageHandler;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointWindowAggregatorTest {
+	private QueueChannel monitorChannel;
+
+	private CheckpointWindowAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		monitorChannel = new QueueChannel();
+		aggregator = new CheckpointWindowAggregator();
+		aggregator.setOutputChannel(monitorChannel);
+		aggregator.setWindowMillis(50);
+		aggregator.setCompletionChannelNames(Arrays.asList("loanBrokerReplyChannel"));
+		aggregator.start();
+	}
+
+	@Test
+	public void testCompletedAndExpiredTransactionsFlushedInOneBatch() throws Exception {
+		aggregator.add(checkpoint("tx1", "stubBankChannel"));
+		aggregator.add(checkpoint("tx2", "stubBankChannel"));
+		aggregator.add(checkpoint("tx1", "loanBrokerReplyChannel"));
+		aggregator.flush();
+		List<Checkpoint> batch = receiveBatch();
+		assertEquals(2, batch.size());
+		assertEquals("tx1", batch.get(1).getGlobalTransactionId());
+		assertEquals(1, aggregator.getTransactionCount());
+
+		aggregator.flush();
+		assertNull(monitorChannel.receive(0));
+		Thread.sleep(60);
+		aggregator.add(checkpoint("tx3", "stubBankChannel"));
+		aggregator.flush();
+		batch = receiveBatch();
+		assertEquals(1, batch.size());
+		assertEquals("tx2", batch.get(0).getGlobalTransactionId());
+
+		aggregator.stop();
+		assertEquals("tx3", receiveBatch().get(0).getGlobalTransactionId());
+		assertEquals(0, aggregator.getCheckpointCount());
+	}
+
+	@Test
+	public void testCheckpointsAfterCompletionAreNotSentAsFragments() {
+		aggregator.add(checkpoint("tx1", "stubBankChannel"));
+		aggregator.add(checkpoint("tx1", "loanBrokerReplyChannel"));
+		// e.g. POST_SEND on an upstream DirectChannel, after the reply
+		aggregator.add(checkpoint("tx1", "loanBrokerPreProcessingChannel"));
+		aggregator.flush();
+		assertEquals(3, receiveBatch().size());
+
+		aggregator.add(checkpoint("tx1", "quotesAggregationChannel"));
+		assertEquals(1, aggregator.getLateCount());
+		assertEquals(0, aggregator.getCheckpointCount());
+		aggregator.flush();
+		assertNull(monitorChannel.receive(0));
+	}
+
+	@Test
+	public void testMemoryIsBounded() {
+		aggregator.setMaxCheckpointsPerTransaction(2);
+		for (int i = 0; i < 3; i++) {
+			aggregator.add(checkpoint("tx", "stubBankChannel"));
+		}
+		assertEquals(1, aggregator.getDroppedCount());
+		assertEquals(2, aggregator.getCheckpointCount());
+		aggregator.stop();
+		receiveBatch();
+
+		// each stripe holds 1 checkpoint, so the oldest transaction is sent early
+		aggregator = new CheckpointWindowAggregator();
+		aggregator.setOutputChannel(monitorChannel);
+		aggregator.setCompletionChannelNames(Arrays.asList("loanBrokerReplyChannel"));
+		aggregator.setMaxCheckpoints(16);
+		aggregator.start();
+		aggregator.add(checkpoint("tx", "stubBankChannel"));
+		assertEquals(0, aggregator.getEarlyFlushCount());
+		aggregator.add(checkpoint("tx", "loanBrokerReplyChannel"));
+		assertEquals(2, receiveBatch().size());
+		assertEquals(1, aggregator.getEarlyFlushCount());
+		assertEquals(0, aggregator.getCheckpointCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMaxCheckpointsCannotChangeOnceStarted() {
+		aggregator.setMaxCheckpoints(16);
+	}
+
+	@Test
+	public void testConcurrentThroughput() throws Exception {
+		DirectChannel outputChannel = new DirectChannel();
+		final AtomicInteger received = new AtomicInteger();
+		outputChannel.subscribe(new MessageHandler() {
+			@SuppressWarnings("unchecked")
+			public void handleMessage(Message<?> message) throws MessagingException {
+				received.addAndGet(((List<Checkpoint>) message.getPayload()).size());
+			}
+		});
+		aggregator.setOutputChannel(outputChannel);
+		final int threads = 4;
+		final int transactions = 10000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread() {
+				public void run() {
+					for (int i = 0; i < transactions; i++) {
+						String transactionId = thread + "-" + i;
+						for (int j = 0; j < 4; j++) {
+							aggregator.add(checkpoint(transactionId, "stubBankChannel"));
+						}
+						aggregator.add(checkpoint(transactionId, "loanBrokerReplyChannel"));
+						if (i % 1000 == 0) {
+							aggregator.flush();
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		aggregator.stop();
+		assertEquals(threads * transactions * 5, received.get());
+		assertEquals(0, aggregator.getTransactionCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Checkpoint> receiveBatch() {
+		return (List<Checkpoint>) monitorChannel.receive(0).getPayload();
+	}
+
+	private Checkpoint checkpoint(String transactionId, String channelName) {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setGlobalTransactionId(transactionId);
+		checkpoint.setChannelName(channelName);
+		return checkpoint;
+	}
+}
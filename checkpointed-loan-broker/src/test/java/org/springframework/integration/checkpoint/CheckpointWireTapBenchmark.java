@@ -0,0 +1,105 @@
+package org.springframework.integration.checkpoint;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.NullChannel;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * JMH benchmark of the cost of {@link AbstractCheckpointWireTap} to an intercepted send: preSend and postSend on a
+ * channel which is not checkpointed, which should be close to the cost of the untapped baseline, and on one which is,
+ * with or without the transaction id header already present, sending checkpoints synchronously or asynchronously.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckpointWireTapBenchmark {
+	private static final String TX_HEADER = "My.Global.Transaction.ID";
+
+	@Param({"true", "false"})
+	public boolean transactionHeader;
+
+	@Param({"false", "true"})
+	public boolean async;
+
+	private DefaultCheckpointWireTap wireTap;
+
+	private DirectChannel checkpointedChannel;
+
+	private DirectChannel otherChannel;
+
+	private Message<?> message;
+
+	@Setup
+	public void setUp() throws Exception {
+		NullChannel checkpointChannel = new NullChannel();
+		wireTap = new DefaultCheckpointWireTap(checkpointChannel);
+		wireTap.setTransactionIdHeader(TX_HEADER);
+		wireTap.setEnabledMessageEvents(Arrays.asList(MessageEvent.PRE_SEND));
+		wireTap.setPattern("*BankChannel");
+		wireTap.setAsync(async);
+		wireTap.afterPropertiesSet();
+		wireTap.start();
+
+		checkpointedChannel = new DirectChannel();
+		checkpointedChannel.setBeanName("stubBankChannel");
+		otherChannel = new DirectChannel();
+		otherChannel.setBeanName("loanBrokerPreProcessingChannel");
+
+		MessageBuilder<String> builder = MessageBuilder.withPayload("loan request");
+		if (transactionHeader) {
+			builder.setHeader(TX_HEADER, "transaction");
+		}
+		message = builder.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		wireTap.stop();
+	}
+
+	@Benchmark
+	public void untapped(Blackhole blackhole) {
+		blackhole.consume(message);
+	}
+
+	@Benchmark
+	public void notCheckpointed(Blackhole blackhole) {
+		blackhole.consume(intercept(otherChannel));
+	}
+
+	@Benchmark
+	public void checkpointed(Blackhole blackhole) {
+		blackhole.consume(intercept(checkpointedChannel));
+	}
+
+	private Message<?> intercept(DirectChannel channel) {
+		Message<?> sent = wireTap.preSend(message, channel);
+		wireTap.postSend(sent, channel, true);
+		return sent;
+	}
+}
@@ -0,0 +1,193 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.message.ErrorMessage;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class CheckpointWireTapTest {
+	private static final String TX_HEADER = "txId";
+
+	private QueueChannel checkpointChannel;
+
+	private DefaultCheckpointWireTap wireTap;
+
+	private DirectChannel bankChannel;
+
+	private DirectChannel otherChannel;
+
+	@Before
+	public void setUp() throws Exception {
+		checkpointChannel = new QueueChannel();
+		wireTap = new DefaultCheckpointWireTap(checkpointChannel);
+		wireTap.setTransactionIdHeader(TX_HEADER);
+		wireTap.setPattern("*BankChannel");
+		wireTap.afterPropertiesSet();
+		bankChannel = new DirectChannel();
+		bankChannel.setBeanName("stubBankChannel");
+		otherChannel = new DirectChannel();
+		otherChannel.setBeanName("otherChannel");
+	}
+
+	@Test
+	public void testMessageCopiedOnlyIfTransactionIdMissing() {
+		Message<?> message = MessageBuilder.withPayload("request").build();
+		Message<?> enriched = wireTap.preSend(message, bankChannel);
+		assertNotSame(message, enriched);
+		assertNotNull(enriched.getHeaders().get(TX_HEADER));
+
+		assertSame(enriched, wireTap.preSend(enriched, bankChannel));
+		assertEquals(2, checkpointChannel.getQueueSize());
+	}
+
+	@Test
+	public void testChannelNotCheckpointed() {
+		Message<?> message = MessageBuilder.withPayload("request").build();
+		assertSame(message, wireTap.preSend(message, otherChannel));
+		wireTap.postSend(message, otherChannel, true);
+		assertNull(checkpointChannel.receive(0));
+	}
+
+	@Test
+	public void testEnabledMessageEvents() {
+		wireTap.setEnabledMessageEvents(Arrays.asList(MessageEvent.POST_SEND));
+		Message<?> message = MessageBuilder.withPayload("request").setHeader(TX_HEADER, "tx").build();
+		wireTap.preSend(message, bankChannel);
+		assertNull(checkpointChannel.receive(0));
+		wireTap.postSend(message, bankChannel, true);
+		Checkpoint checkpoint = (Checkpoint) checkpointChannel.receive(0).getPayload();
+		assertEquals(MessageEvent.POST_SEND, checkpoint.getMessageEvent());
+		assertEquals("tx", checkpoint.getGlobalTransactionId());
+
+		// the pattern is re-evaluated when changed
+		wireTap.setPattern("other*");
+		wireTap.postSend(message, bankChannel, true);
+		assertNull(checkpointChannel.receive(0));
+		wireTap.postSend(message, otherChannel, true);
+		assertEquals("otherChannel", ((Checkpoint) checkpointChannel.receive(0).getPayload()).getChannelName());
+	}
+
+	@Test
+	public void testHeadSamplingIsDeterministic() {
+		wireTap.setTransactionSampleRate(0.25);
+		int sampled = 0;
+		for (int i = 0; i < 4000; i++) {
+			Message<?> message = MessageBuilder.withPayload("request").setHeader(TX_HEADER, UUID.randomUUID()).build();
+			wireTap.preSend(message, bankChannel);
+			int checkpoints = checkpointChannel.getQueueSize();
+			wireTap.postSend(message, bankChannel, true);
+			// a sampled transaction is checkpointed on every hop, others on none
+			assertEquals(2 * checkpoints, checkpointChannel.getQueueSize());
+			sampled += checkpoints;
+			checkpointChannel.clear();
+		}
+		assertTrue("sampled " + sampled, sampled > 800 && sampled < 1200);
+
+		wireTap.setTransactionSampleRate(0);
+		wireTap.preSend(MessageBuilder.withPayload("request").build(), bankChannel);
+		assertNull(checkpointChannel.receive(0));
+	}
+
+	@Test
+	public void testTailSamplingKeepsFailedAndSlowTransactions() throws Exception {
+		wireTap.setTransactionSampleRate(0);
+		wireTap.setTailSampling(true);
+		wireTap.setSlowTransactionThreshold(50);
+		wireTap.afterPropertiesSet();
+
+		Message<?> fast = wireTap.preSend(MessageBuilder.withPayload("fast").build(), bankChannel);
+		wireTap.postSend(fast, bankChannel, true);
+		assertNull(checkpointChannel.receive(0));
+
+		Message<?> failed = wireTap.preSend(MessageBuilder.withPayload("failed").build(), bankChannel);
+		wireTap.preSend(new ErrorMessage(new MessagingException(failed, "bank unavailable")), bankChannel);
+		assertEquals(2, checkpointChannel.getQueueSize());
+		checkpointChannel.clear();
+
+		Message<?> slow = wireTap.preSend(MessageBuilder.withPayload("slow").build(), bankChannel);
+		Thread.sleep(60);
+		wireTap.postSend(slow, bankChannel, true);
+		assertEquals(2, checkpointChannel.getQueueSize());
+		checkpointChannel.clear();
+		// and its later checkpoints
+		wireTap.preSend(slow, bankChannel);
+		assertEquals(1, checkpointChannel.getQueueSize());
+		assertEquals(2, wireTap.getTailSampledCount());
+		assertEquals(3, wireTap.getPendingTransactionCount());
+	}
+
+	@Test
+	public void testQueueDwellTime() throws Exception {
+		QueueChannel queueBankChannel = new QueueChannel();
+		queueBankChannel.setBeanName("queueBankChannel");
+		queueBankChannel.addInterceptor(wireTap);
+		wireTap.setEnabledMessageEvents(Arrays.asList(MessageEvent.POST_RECEIVE));
+
+		queueBankChannel.send(MessageBuilder.withPayload("request").build());
+		Thread.sleep(20);
+		assertNotNull(queueBankChannel.receive(0));
+		Checkpoint checkpoint = (Checkpoint) checkpointChannel.receive(0).getPayload();
+		assertEquals(MessageEvent.POST_RECEIVE, checkpoint.getMessageEvent());
+		long dwellTime = (Long) checkpoint.getProperties().get(Checkpoint.DWELL_TIME_PROPERTY);
+		assertTrue("dwell time " + dwellTime, dwellTime >= 20000);
+
+		SlidingWindowHistogram dwellTimes = wireTap.getDwellTimes().get("queueBankChannel");
+		assertEquals(1, dwellTimes.getCount(System.currentTimeMillis()));
+		assertEquals(1, wireTap.getDwellTimeStatistics().length);
+
+		// nothing is held once received, and an empty receive is ignored
+		assertNull(queueBankChannel.receive(0));
+		assertNull(checkpointChannel.receive(0));
+	}
+
+	@Test
+	public void testMaxTrackedMessages() {
+		QueueChannel queueBankChannel = new QueueChannel();
+		queueBankChannel.setBeanName("queueBankChannel");
+		queueBankChannel.addInterceptor(wireTap);
+		wireTap.setMaxTrackedMessages(1);
+		queueBankChannel.send(MessageBuilder.withPayload("request").build());
+		queueBankChannel.send(MessageBuilder.withPayload("request").build());
+		assertEquals(1, wireTap.getUntrackedMessageCount());
+		queueBankChannel.receive(0);
+		queueBankChannel.receive(0);
+		assertEquals(1, wireTap.getDwellTimes().get("queueBankChannel").getTotalCount());
+	}
+
+	@Test
+	public void testUnreceivedMessagesExpire() throws Exception {
+		QueueChannel queueBankChannel = new QueueChannel();
+		queueBankChannel.setBeanName("queueBankChannel");
+		queueBankChannel.addInterceptor(wireTap);
+		wireTap.setMaxTrackedMessages(1);
+		wireTap.setTrackedMessageTimeout(20);
+		queueBankChannel.send(MessageBuilder.withPayload("purged").build());
+		queueBankChannel.clear();
+		Thread.sleep(50);
+		queueBankChannel.send(MessageBuilder.withPayload("request").build());
+		assertEquals(1, wireTap.getExpiredMessageCount());
+		assertEquals(0, wireTap.getUntrackedMessageCount());
+		assertNotNull(queueBankChannel.receive(0));
+		assertEquals(1, wireTap.getDwellTimes().get("queueBankChannel").getTotalCount());
+	}
+}
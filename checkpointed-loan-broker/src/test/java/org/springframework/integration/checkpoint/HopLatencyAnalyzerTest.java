@@ -0,0 +1,112 @@
+package org.springframework.integration.checkpoint;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.checkpoint.Checkpoint.MessageEvent;
+import org.springframework.integration.checkpoint.HopLatencyAnalyzer.RouteStatistics;
+import org.springframework.integration.history.MessageHistory;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class HopLatencyAnalyzerTest {
+
+	@Test
+	public void testSlidingWindow() {
+		SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 4);
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i, 0);
+		}
+		assertEquals(100, histogram.getCount(0));
+		long[] percentiles = histogram.getPercentiles(new double[] {50, 99}, 0);
+		assertTrue(percentiles[0] >= 50 && percentiles[0] <= 50 * 1.125);
+		assertTrue(percentiles[1] >= 99 && percentiles[1] <= 100);
+		assertEquals(100, histogram.getMax(0));
+
+		histogram.record(1000, 500);
+		assertEquals(101, histogram.getCount(999));
+		assertEquals(1000, histogram.getMax(999));
+		// the first slot has left the window
+		assertEquals(1, histogram.getCount(1000));
+		assertEquals(1000, histogram.getMax(1000));
+		assertEquals(0, histogram.getCount(1500));
+		assertArrayEquals(new long[] {0}, histogram.getPercentiles(new double[] {50}, 1500));
+
+		// the slot is reused
+		histogram.record(5, 1100);
+		assertEquals(2, histogram.getCount(1100));
+		assertEquals(1, histogram.getCount(1800));
+		assertEquals(102, histogram.getTotalCount());
+	}
+
+	@Test
+	public void testHopLatencies() {
+		HopLatencyAnalyzer analyzer = new HopLatencyAnalyzer();
+		for (int i = 0; i < 10; i++) {
+			analyzer.analyze(createCheckpoint(MessageEvent.PRE_SEND, "quotesAggregationChannel", "bank1Channel", 10));
+			analyzer.analyze(createCheckpoint(MessageEvent.PRE_SEND, "quotesAggregationChannel", "bank2Channel", 200));
+			// not counted twice
+			analyzer.analyze(createCheckpoint(MessageEvent.POST_SEND, "quotesAggregationChannel", "bank2Channel", 200));
+		}
+		List<RouteStatistics> statistics = analyzer.getStatistics();
+		assertEquals(2, statistics.size());
+		assertEquals(2, analyzer.getRouteCount());
+		for (RouteStatistics route : statistics) {
+			assertEquals("quotesAggregationChannel", route.getTo());
+			assertEquals(10, route.getCount());
+			if (route.getFrom().equals("bank1Channel")) {
+				assertEquals(10, route.getP99());
+			} else {
+				assertEquals(200, route.getMax());
+			}
+		}
+		assertEquals(2, analyzer.getRouteStatistics().length);
+	}
+
+	@Test
+	public void testMaxRoutes() {
+		HopLatencyAnalyzer analyzer = new HopLatencyAnalyzer();
+		analyzer.setMaxRoutes(1);
+		analyzer.analyze(createCheckpoint(MessageEvent.PRE_SEND, "a", "b", 1));
+		analyzer.analyze(createCheckpoint(MessageEvent.PRE_SEND, "a", "c", 1));
+		analyzer.analyze(createCheckpoint(MessageEvent.PRE_SEND, "a", "b", 1));
+		assertEquals(1, analyzer.getRouteCount());
+		assertEquals(1, analyzer.getUnroutedCount());
+		assertEquals(2, analyzer.getStatistics().get(0).getCount());
+	}
+
+	/*
+	 * A checkpoint on toChannel for a message which passed through fromChannel latency millis earlier
+	 */
+	private Checkpoint createCheckpoint(MessageEvent event, String toChannel, String fromChannel, long latency) {
+		Message<?> message = MessageBuilder.withPayload("quote").build();
+		message = MessageHistory.write(message, channel(fromChannel));
+		message = MessageHistory.write(message, channel(toChannel));
+		MessageHistory history = MessageHistory.read(message);
+		long now = System.currentTimeMillis();
+		history.get(0).setProperty(MessageHistory.TIMESTAMP_PROPERTY, Long.toString(now - latency));
+		history.get(1).setProperty(MessageHistory.TIMESTAMP_PROPERTY, Long.toString(now));
+
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setChannelName(toChannel);
+		checkpoint.setMessageEvent(event);
+		checkpoint.setMessageHistory(history);
+		return checkpoint;
+	}
+
+	private DirectChannel channel(String name) {
+		DirectChannel channel = new DirectChannel();
+		channel.setBeanName(name);
+		return channel;
+	}
+}
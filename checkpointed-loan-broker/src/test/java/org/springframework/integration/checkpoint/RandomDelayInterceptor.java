@@ -6,7 +6,7 @@ import org.springframework.integration.channel.interceptor.ChannelInterceptorAda
 
 /**
  * This is used to inject some sleep time between in each message channel to observe the 
- * {@ link CheckpointCollector} aggregating messages at regular intervals during testing
+ * {@link CheckpointWindowAggregator} flushing checkpoints at regular intervals during testing
  * 
  * @author David Turanski
  *
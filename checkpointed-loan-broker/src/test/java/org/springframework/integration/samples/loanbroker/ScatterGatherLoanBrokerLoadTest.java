@@ -0,0 +1,99 @@
+package org.springframework.integration.samples.loanbroker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.samples.loanbroker.domain.Customer;
+import org.springframework.integration.samples.loanbroker.domain.LoanQuote;
+import org.springframework.integration.samples.loanbroker.domain.LoanRequest;
+
+/**
+ * Calls the scatter-gather loan broker from many threads, against banks which take up to 100 ms to quote and now and
+ * then miss their 300 ms deadline, to check every request is answered once. Latencies are logged rather than asserted,
+ * as they depend on the machine's load
+ *
+ * @author David Turanski
+ *
+ */
+public class ScatterGatherLoanBrokerLoadTest {
+	private static Logger logger = Logger.getLogger(ScatterGatherLoanBrokerLoadTest.class);
+
+	private static final int THREADS = 20;
+
+	private static final int REQUESTS_PER_THREAD = 25;
+
+	private ClassPathXmlApplicationContext context;
+
+	@Before
+	public void setUp() {
+		context = new ClassPathXmlApplicationContext("ScatterGatherLoanBrokerLoadTest-context.xml");
+	}
+
+	@After
+	public void tearDown() {
+		context.close();
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final LoanBrokerGateway broker = context.getBean("loanBrokerGateway", LoanBrokerGateway.class);
+		final AtomicInteger quoted = new AtomicInteger();
+		final AtomicInteger unquoted = new AtomicInteger();
+		final AtomicLong maxLatency = new AtomicLong();
+		final CountDownLatch latch = new CountDownLatch(THREADS);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < THREADS; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+							LoanRequest loanRequest = new LoanRequest();
+							loanRequest.setCustomer(new Customer());
+							long requestStart = System.currentTimeMillis();
+							try {
+								LoanQuote quote = broker.getBestLoanQuote(loanRequest);
+								if (null != quote) {
+									quoted.incrementAndGet();
+								}
+							} catch (MessagingException e) {
+								// every bank missed the deadline
+								unquoted.incrementAndGet();
+							}
+							long latency = System.currentTimeMillis() - requestStart;
+							long max = maxLatency.get();
+							while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+								max = maxLatency.get();
+							}
+						}
+					} finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		assertTrue("requests did not complete in time", latch.await(60, TimeUnit.SECONDS));
+		long elapsed = System.currentTimeMillis() - start;
+
+		StreamingLoanQuoteAggregator aggregator = context.getBean("quoteAggregator", StreamingLoanQuoteAggregator.class);
+		String[] bankStatistics = aggregator.getBankStatistics();
+		logger.info(THREADS * REQUESTS_PER_THREAD + " requests in " + elapsed + " ms, max latency " + maxLatency.get()
+				+ " ms, late quotes " + aggregator.getLateQuoteCount() + ", bank statistics "
+				+ Arrays.toString(bankStatistics));
+
+		assertEquals(THREADS * REQUESTS_PER_THREAD, quoted.get() + unquoted.get());
+		assertTrue(aggregator.getLateQuoteCount() > 0);
+		assertTrue(bankStatistics.length > 0);
+	}
+}
@@ -0,0 +1,162 @@
+package org.springframework.integration.samples.loanbroker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.samples.loanbroker.domain.LoanQuote;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class StreamingLoanQuoteAggregatorTest {
+	private QueueChannel replyChannel;
+
+	private ThreadPoolTaskScheduler taskScheduler;
+
+	private StreamingLoanQuoteAggregator aggregator;
+
+	@Before
+	public void setUp() throws Exception {
+		replyChannel = new QueueChannel();
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.afterPropertiesSet();
+		aggregator = new StreamingLoanQuoteAggregator();
+		aggregator.setOutputChannel(replyChannel);
+		aggregator.setTaskScheduler(taskScheduler);
+		aggregator.setDeadline(100);
+		aggregator.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		taskScheduler.destroy();
+	}
+
+	@Test
+	public void testBestQuoteWhenAllReplied() {
+		aggregator.addQuote(quote("request", 3, "BEST", 6.0f));
+		aggregator.addQuote(quote("request", 3, "BEST", 5.1f));
+		assertNull(replyChannel.receive(0));
+		aggregator.addQuote(quote("request", 3, "BEST", 5.5f));
+		assertEquals(5.1f, ((LoanQuote) replyChannel.receive(0).getPayload()).getRate(), 0);
+		assertEquals(0, aggregator.getEarlyReleaseCount());
+	}
+
+	@Test
+	public void testQuorumReleasesEarly() {
+		aggregator.setQuorum(2);
+		aggregator.setMaxQuotes(1);
+		aggregator.addQuote(quote("request", 3, null, 6.0f));
+		aggregator.addQuote(quote("request", 3, null, 5.5f));
+		@SuppressWarnings("unchecked")
+		List<LoanQuote> quotes = (List<LoanQuote>) replyChannel.receive(0).getPayload();
+		assertEquals(1, quotes.size());
+		assertEquals(5.5f, quotes.get(0).getRate(), 0);
+		assertEquals(1, aggregator.getEarlyReleaseCount());
+
+		// the slowest bank is ignored
+		aggregator.addQuote(quote("request", 3, null, 5.0f));
+		assertNull(replyChannel.receive(0));
+		assertEquals(1, aggregator.getLateQuoteCount());
+	}
+
+	@Test
+	public void testLateQuoteAfterManyReleases() {
+		aggregator.addQuote(quote("request", 2, null, 6.0f));
+		aggregator.addQuote(quote("request", 2, null, 5.5f));
+		assertNotNull(replyChannel.receive(0));
+		for (int i = 0; i < 5000; i++) {
+			aggregator.addQuote(quote("request" + i, 1, null, 5.0f));
+			assertNotNull(replyChannel.receive(0));
+		}
+		// still remembered, so no second reply
+		aggregator.addQuote(quote("request", 2, null, 5.0f));
+		assertNull(replyChannel.receive(200));
+		assertEquals(1, aggregator.getLateQuoteCount());
+	}
+
+	@Test
+	public void testDeadline() {
+		aggregator.addQuote(quote("request", 3, null, 6.0f));
+		aggregator.addQuote(quote("request", 3, null, 5.5f));
+		Message<?> reply = replyChannel.receive(1000);
+		assertNotNull(reply);
+		assertEquals(2, ((List<?>) reply.getPayload()).size());
+		assertEquals("request", reply.getHeaders().getCorrelationId());
+		assertEquals(1, aggregator.getEarlyReleaseCount());
+	}
+
+	@Test
+	public void testBankDeadline() {
+		long now = System.currentTimeMillis();
+		aggregator.addQuote(bankQuote(quote("request", 3, null, 6.0f), "abcBankChannel", now - 50, now + 100));
+		// missed its deadline, so dropped
+		aggregator.addQuote(bankQuote(quote("request", 3, null, 5.0f), "efgBankChannel", now - 200, now - 100));
+		Message<?> reply = replyChannel.receive(1000);
+		assertNotNull(reply);
+		List<?> quotes = (List<?>) reply.getPayload();
+		assertEquals(1, quotes.size());
+		assertEquals(6.0f, ((LoanQuote) quotes.get(0)).getRate(), 0);
+		assertEquals(1, aggregator.getLateQuoteCount());
+		assertEquals(1, aggregator.getBankLatencies("efgBankChannel").getCount(System.currentTimeMillis()));
+		assertTrue(aggregator.getBankStatistics()[1].startsWith("efgBankChannel count [1]"));
+		assertTrue(aggregator.getBankStatistics()[1].endsWith("late [1]"));
+	}
+
+	@Test
+	public void testNoQuoteBeforeBankDeadline() {
+		long now = System.currentTimeMillis();
+		aggregator.addQuote(bankQuote(quote("request", 2, "BEST", 6.0f), "abcBankChannel", now - 200, now - 100));
+		Message<?> reply = replyChannel.receive(1000);
+		assertNotNull(reply);
+		assertTrue(reply.getPayload() instanceof MessagingException);
+	}
+
+	@Test
+	public void testRequestDeadlineSharedByBanks() throws Exception {
+		BankDeadlineInterceptor interceptor = new BankDeadlineInterceptor();
+		Message<?> request = interceptor.preSend(MessageBuilder.withPayload("request").build(),
+				channel("loanBrokerPreProcessingChannel"));
+		Long deadline = request.getHeaders().get(BankDeadlineInterceptor.BANK_DEADLINE, Long.class);
+		assertNotNull(deadline);
+		Thread.sleep(20);
+		Message<?> bankRequest = interceptor.preSend(request, channel("abcBankChannel"));
+		assertEquals(deadline, bankRequest.getHeaders().get(BankDeadlineInterceptor.BANK_DEADLINE, Long.class));
+		assertEquals("abcBankChannel", bankRequest.getHeaders().get(BankDeadlineInterceptor.BANK_CHANNEL));
+		assertTrue(bankRequest.getHeaders().get(BankDeadlineInterceptor.BANK_REQUEST_TIME, Long.class) > deadline - 2000);
+	}
+
+	private DirectChannel channel(String name) {
+		DirectChannel channel = new DirectChannel();
+		channel.setBeanName(name);
+		return channel;
+	}
+
+	private Message<LoanQuote> quote(String correlationId, int sequenceSize, String responseType, float rate) {
+		LoanQuote quote = new LoanQuote();
+		quote.setRate(rate);
+		return MessageBuilder.withPayload(quote).setCorrelationId(correlationId).setSequenceSize(sequenceSize)
+				.setHeader("RESPONSE_TYPE", responseType).build();
+	}
+
+	private Message<LoanQuote> bankQuote(Message<LoanQuote> quote, String bankChannel, long requestTime, long deadline) {
+		return MessageBuilder.fromMessage(quote).setHeader(BankDeadlineInterceptor.BANK_CHANNEL, bankChannel)
+				.setHeader(BankDeadlineInterceptor.BANK_REQUEST_TIME, requestTime)
+				.setHeader(BankDeadlineInterceptor.BANK_DEADLINE, deadline).build();
+	}
+}
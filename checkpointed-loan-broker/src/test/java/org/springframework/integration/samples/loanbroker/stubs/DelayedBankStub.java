@@ -0,0 +1,64 @@
+/*
+ * Copyright 2002-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.integration.samples.loanbroker.stubs;
+
+import java.util.Random;
+
+import org.springframework.integration.samples.loanbroker.domain.LoanQuote;
+import org.springframework.integration.samples.loanbroker.domain.LoanRequest;
+
+/**
+ * A {@link BankStub} which takes a random time, up to maxDelay millis, to quote, and now and then (slowPercentage of
+ * quotes) slowDelay millis, to stand in for a slow bank
+ *
+ * @author David Turanski
+ */
+public class DelayedBankStub extends BankStub {
+	private final Random random = new Random();
+
+	private final int maxDelay;
+
+	private final int slowPercentage;
+
+	private final int slowDelay;
+
+	/*
+	 * Configured by constructor, as setters would be candidates for the service activator's method
+	 */
+	public DelayedBankStub(int maxDelay, int slowPercentage, int slowDelay) {
+		this.maxDelay = maxDelay;
+		this.slowPercentage = slowPercentage;
+		this.slowDelay = slowDelay;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.samples.loanbroker.stubs.BankStub#quote(org.springframework.integration.samples.loanbroker.domain.LoanRequest)
+	 */
+	@Override
+	public LoanQuote quote(LoanRequest loanRequest) {
+		long delay;
+		synchronized (random) {
+			delay = (random.nextInt(100) < slowPercentage) ? slowDelay : random.nextInt(maxDelay + 1);
+		}
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return super.quote(loanRequest);
+	}
+}
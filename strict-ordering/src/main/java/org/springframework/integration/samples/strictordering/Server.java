@@ -5,14 +5,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.springframework.integration.Message;
+import org.springframework.integration.strictordering.Dispatcher;
 import org.springframework.integration.strictordering.EntityLock;
 import org.springframework.integration.strictordering.entitykey.EntityKeyExtractor;
+import org.springframework.integration.strictordering.gemfire.GemfireEntityLock;
 import org.springframework.util.StopWatch;
 
 public class Server {
@@ -56,33 +59,81 @@ public class Server {
 	}
 	
 	/**
-	 * Stream messages to a file. Release the lock
+	 * Stream messages to a file. Release the lock. A batch from the dispatcher is processed in order and the 
+	 * lock released once. If the lock has a lease, it is renewed when the batch starts and every half lease while it
+	 * is processed, so a long batch is not reaped and dispatched again while it is still being processed
 	 * @param message
 	 * @throws FileNotFoundException
 	 */
-	public void process(Message<String> message) throws FileNotFoundException{
+	@SuppressWarnings("unchecked")
+	public void process(Message<?> message) throws FileNotFoundException{
 		String serverName = "server" + serverId;
-	 	logger.info(serverName + " processing message [" + message.getPayload() + "] sequence [" + message.getHeaders().get("sequence") + "]");
-	    int delayFor = delay();
-	   
-	    logger.info("delayed for "+ delayFor + " ms");
-	   
-	    writer.println(message.getPayload() + "," + message.getHeaders().get("sequence"));
+		Object entityKey = message.getHeaders().get(Dispatcher.BATCH_ENTITY_KEY_HEADER);
+		if (null != entityKey) {
+			List<Message<String>> batch = (List<Message<String>>)message.getPayload();
+			logger.info(serverName + " processing batch of " + batch.size() + " messages");
+			long renewalInterval = renewalInterval();
+			long renewAt = 0;
+			for (Message<String> batchMessage: batch) {
+				if (renewalInterval > 0 && System.currentTimeMillis() >= renewAt) {
+					renewLease(entityKey);
+					renewAt = System.currentTimeMillis() + renewalInterval;
+				}
+				write(serverName, batchMessage);
+			}
+		} else {
+			write(serverName, (Message<String>)message);
+			entityKey = extractKey((Message<String>)message);
+		}
  
 	   if ( null != entityLock && strictOrdering){
 		 try {
-            entityLock.releaseEntity((String)extractKey(message),serverName );
+            entityLock.releaseEntity(entityKey,serverName );
 		 } catch (Exception e) {
 			 logger.error(e.getMessage(),e);
 		 }
 	   }
+	}
+
+	private void write(String serverName, Message<String> message) {
+	 	logger.info(serverName + " processing message [" + message.getPayload() + "] sequence [" + message.getHeaders().get("sequence") + "]");
+	    int delayFor = delay();
+	   
+	    logger.info("delayed for "+ delayFor + " ms");
+	   
+	    writer.println(message.getPayload() + "," + message.getHeaders().get("sequence"));
+	    
 	   if (numMessages.incrementAndGet() == maxMessages ){
 		   stopWatch.stop();
 		   logger.info(" elapsed time [" + (strictOrdering ? "ordered]" : "unordered]") + stopWatch.getTotalTimeMillis() + " ms"); 
 	   }
 	}
 
+	/*
+	 * Half the lease time, 0 if locks are not leased
+	 */
+	private long renewalInterval() {
+		if (strictOrdering && entityLock instanceof GemfireEntityLock) {
+			return ((GemfireEntityLock) entityLock).getLeaseTime() / 2;
+		}
+		return 0;
+	}
+
+	private void renewLease(Object entityKey) {
+		try {
+			if (!((GemfireEntityLock) entityLock).renewLease(entityKey)) {
+				logger.error("lock on entity [" + entityKey + "] expired before its batch was processed");
+			}
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
 	private Object extractKey(Message<String> message) {
+		Object entityKey = message.getHeaders().get(Dispatcher.ENTITY_KEY_HEADER);
+		if (null != entityKey) {
+			return entityKey;
+		}
 		return (null == entityKeyExtractor) ? message.getPayload() : entityKeyExtractor.getKey(message);
 	}
 
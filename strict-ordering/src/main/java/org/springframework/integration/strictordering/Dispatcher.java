@@ -2,44 +2,105 @@ package org.springframework.integration.strictordering;
 
 
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.log4j.Logger;
 import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
 import org.springframework.integration.strictordering.entitykey.EntityKeyExtractor;
+import org.springframework.integration.strictordering.monitor.DispatcherMetrics;
 import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.Assert;
 
 /**
  * Enforces strict ordering by using an {@link EntityLock}. This is configured as a {@link MessageRouter}. If the entityKey
- * extracted from the Message is not locked, the message will be simply routed to the outputChannel. If a lock exists, the 
- * Message will be held in an internal queue. When all locks on the entity are released, the next queued message will be dispatched. 
- * 
+ * extracted from the Message is not locked, the message will be simply routed to the outputChannel. If a lock exists, the
+ * Message will be held in an internal queue. When all locks on the entity are released, the next queued message will be dispatched.
+ * <p>
+ * Dispatch decisions for an entity are serialized on one of a fixed number of lock stripes selected by the hash of the
+ * entityKey, so messages for different entities are dispatched in parallel while messages for the same entity are not.
+ *
  * @author David Turanski
  *
  */
 public class Dispatcher  {
 	private static final String QUEUED_HEADER_KEY = "$queued.for.strict.order";
 
+	/**
+	 * Set on a batch of queued messages. The payload of a batch is the list of messages in order, all of which
+	 * are covered by a single lock.
+	 */
+	public static final String BATCH_ENTITY_KEY_HEADER = "$strict.order.batch.entity.key";
+
+	/**
+	 * Set on a queued message, so that the entityKey is not extracted again downstream
+	 */
+	public static final String ENTITY_KEY_HEADER = "$strict.order.entity.key";
+
 	private static final String DISPATCHER = "dispatcher";
 
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 256;
+
 	@SuppressWarnings("rawtypes")
 	// Manages internal queues
-	private EntityQueues entityQueues = new EntityQueues();
-    
+	final EntityQueues entityQueues = new EntityQueues();
+
 	//A distributed lock implementation
 	private final EntityLock  entityLock;
 
+	//Per entity lock stripes. The length is a power of 2
+	private final ReentrantLock[] stripes;
+
 	private static Logger logger = Logger.getLogger(Dispatcher.class);
-	
+
+	private static final Comparator<Map.Entry<Object, Integer>> BY_DEPTH = new Comparator<Map.Entry<Object, Integer>>() {
+		public int compare(Map.Entry<Object, Integer> e1, Map.Entry<Object, Integer> e2) {
+			return e1.getValue().compareTo(e2.getValue());
+		}
+	};
+
+	private volatile DispatcherMetrics metrics;
+
 	//A strategy interface used to extract the entityKey from the message. If not set, the payload will be used as the key
 	private EntityKeyExtractor<Message<?>,?> entityKeyExtractor;
-	
+
 	/**
-	 * 
+	 *
 	 * @param entityLock
-	 * @param outputChannelName
 	 */
 	public Dispatcher(EntityLock  entityLock){
+		this(entityLock, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 *
+	 * @param entityLock
+	 * @param concurrencyLevel - the number of lock stripes, rounded up to a power of 2. Use 1 to serialize all dispatching
+	 */
+	public Dispatcher(EntityLock  entityLock, int concurrencyLevel){
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be greater than 0");
 		this.entityLock = entityLock;
-		
+		int size = 1;
+		while (size < concurrencyLevel) {
+			size <<= 1;
+		}
+		stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
 	}
 
 	/**
@@ -47,78 +108,340 @@ public class Dispatcher  {
 	 * @param message
 	 * @return
 	 */
-	
-	@SuppressWarnings("unchecked")
-	public synchronized Message<?> dispatch(Message<?> message) {
-	
-		logger.debug("got message " + message);
-		String key = (String)extractKey(message);
-	    Message<?> transformedMessage = message;
-	    
+
+	public Message<?> dispatch(Message<?> message) {
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("got message " + message);
+		}
+
 	    /*
-	     * Message removed from queue. Make sure not to re-queue 
+	     * Message removed from queue. The lock was acquired when it was dequeued. Make sure not to re-queue
 	     */
 	    if ( message.getHeaders().get(QUEUED_HEADER_KEY) != null ){
-		    logger.debug ("processing queued message "+ transformedMessage);
-	    	entityLock.lockEntity(key, DISPATCHER);
-	    	return transformedMessage;
+	    	if (logger.isDebugEnabled()) {
+	    		logger.debug ("processing queued message "+ message);
+	    	}
+	    	return message;
 	    }
-	    
-	    /*
-	     * Message from original producer. It may be that the lock is clear but the queue has
-	     * not processed yet
-	     */
-	    if ( ! entityLock.exists(key) && entityQueues.size(key) == 0 ){
-			 logger.debug ("no lock on entity - processing message "+ transformedMessage);
-			 entityLock.lockEntity(key, DISPATCHER);
-	    } else {
-			  logger.debug("entity locked - queuing message "+ message);
-			  queue(message);
-			  transformedMessage = null;
+
+		return dispatch(message, extractKey(message));
+	}
+
+	/**
+	 * Dispatch or queue a Message for which the entityKey has already been extracted
+	 * @param message
+	 * @param key
+	 * @return
+	 */
+	private Message<?> dispatch(Message<?> message, Object key) {
+		DispatcherMetrics metrics = this.metrics;
+		if (null != metrics) {
+			metrics.messageReceived(key);
+		}
+
+	    ReentrantLock stripe = stripeFor(key);
+	    stripe.lock();
+	    try {
+		    /*
+		     * Message from original producer. It may be that the lock is clear but the queue has
+		     * not processed yet
+		     */
+		    // Checking and taking the lock is a single operation on the EntityLock
+		    if ( entityQueues.size(key) == 0 && entityLock.lockEntityIfAbsent(key, DISPATCHER) ){
+		    	 if (logger.isDebugEnabled()) {
+		    		 logger.debug ("no lock on entity - processing message "+ message);
+		    	 }
+				 if (null != metrics) {
+					 metrics.entityLocked(key);
+					 metrics.messageDispatched();
+				 }
+				 return message;
+		    }
+
+		    if (logger.isDebugEnabled()) {
+		    	logger.debug("entity locked - queuing message "+ message);
+		    }
+			queue(key, message);
+			return null;
+	    } finally {
+	    	stripe.unlock();
+	    }
+	}
+
+	/**
+	 * Dispatch or queue a batch of Messages. Messages are grouped by entityKey. The entities which have nothing queued
+	 * are locked, if not already locked, by one call to {@link EntityLock#lockEntitiesIfAbsent(java.util.Collection, String)},
+	 * and the first message for each entity locked is dispatched. All other messages are queued in the order received.
+	 * A PartitionedEntityLock makes that one function execution; a GemfireEntityLock on a replicated region still
+	 * writes each entity separately.
+	 * @param messages
+	 * @return the messages that may be processed now, in the order received
+	 */
+	public List<Message<?>> dispatchBatch(List<Message<?>> messages) {
+		List<Object> keys = new ArrayList<Object>(messages.size());
+		for (Message<?> message: messages) {
+			keys.add((message.getHeaders().get(QUEUED_HEADER_KEY) != null) ? null : extractKey(message));
+		}
+		return dispatchBatch(messages, keys);
+	}
+
+	/**
+	 * Dispatch or queue a batch of Messages for which the entityKeys have already been extracted
+	 * @param messages
+	 * @param keys - the entityKey of each message, null for a message removed from a queue
+	 * @return
+	 */
+	private List<Message<?>> dispatchBatch(List<Message<?>> messages, List<Object> keys) {
+		List<Message<?>> dispatched = new ArrayList<Message<?>>(messages.size());
+		Map<Object, List<Message<?>>> messagesByKey = new LinkedHashMap<Object, List<Message<?>>>();
+		DispatcherMetrics metrics = this.metrics;
+		for (int i = 0; i < messages.size(); i++) {
+			Message<?> message = messages.get(i);
+			Object key = keys.get(i);
+			if (null == key) {
+				dispatched.add(message);
+				continue;
+			}
+			if (null != metrics) {
+				metrics.messageReceived(key);
+			}
+			List<Message<?>> entityMessages = messagesByKey.get(key);
+			if (null == entityMessages) {
+				entityMessages = new ArrayList<Message<?>>();
+				messagesByKey.put(key, entityMessages);
+			}
+			entityMessages.add(message);
+		}
+
+		// Acquire stripes in ascending order to avoid deadlock with other batches
+		SortedSet<Integer> stripeIndexes = new TreeSet<Integer>();
+		for (Object key: messagesByKey.keySet()) {
+			stripeIndexes.add(stripeIndex(key));
 		}
-		  
-		return transformedMessage;
+		for (Integer index: stripeIndexes) {
+			stripes[index].lock();
+		}
+		try {
+			// Entities with nothing queued are candidates. Each is checked and locked in one operation, so an entity
+			// locked by another dispatcher in the meantime is not overwritten, and its messages are queued instead
+			List<Object> candidates = new ArrayList<Object>();
+			for (Object key: messagesByKey.keySet()) {
+				if (entityQueues.size(key) == 0) {
+					candidates.add(key);
+				}
+			}
+			Set<Object> locked = candidates.isEmpty() ? Collections.<Object> emptySet()
+					: entityLock.lockEntitiesIfAbsent(candidates, DISPATCHER);
+			if (logger.isDebugEnabled()) {
+				logger.debug("batch of " + messages.size() + " messages - locked " + locked.size() + " of "
+						+ candidates.size() + " entities");
+			}
+
+			Set<Message<?>> dispatchable = new HashSet<Message<?>>();
+			for (Map.Entry<Object, List<Message<?>>> entry: messagesByKey.entrySet()) {
+				Object key = entry.getKey();
+				Iterator<Message<?>> entityMessages = entry.getValue().iterator();
+				if (locked.contains(key)) {
+					dispatchable.add(entityMessages.next());
+					if (null != metrics) {
+						metrics.entityLocked(key);
+						metrics.messageDispatched();
+					}
+				}
+				while (entityMessages.hasNext()) {
+					queue(key, entityMessages.next());
+				}
+			}
+
+			for (Message<?> message: messages) {
+				if (dispatchable.contains(message)) {
+					dispatched.add(message);
+				}
+			}
+		} finally {
+			for (Integer index: stripeIndexes) {
+				stripes[index].unlock();
+			}
+		}
+		return dispatched;
 	}
 
 	/**
-	 * Process the next queued message if lock is cleared
+	 * Process the next queued message if lock is cleared. The entity is locked before the message is returned so
+	 * that no other message for the entity can be dispatched ahead of it.
 	 * @param entityKey
 	 * @return
 	 */
-	public synchronized Message<?> processQueue(String entityKey){
-        Message<?> queuedMessage = null;
-        if (!entityLock.exists(entityKey)){
-          queuedMessage = nextMessage(entityKey);
-        } 
-		return queuedMessage;
+	public Message<?> processQueue(Object entityKey){
+		return processQueue(entityKey, 1);
+	}
+
+	/**
+	 * Process up to maxMessages queued messages if lock is cleared. The messages are removed from the queue and
+	 * covered by a single lock. If more than one message is ready, they are returned as a batch: a Message whose
+	 * payload is the list of queued messages in order, with the entityKey in the {@link #BATCH_ENTITY_KEY_HEADER}.
+	 * The batch must be processed sequentially and the lock released once, when the last message is done.
+	 * @param entityKey
+	 * @param maxMessages
+	 * @return the next message, a batch, or null if the entity is locked or nothing is queued
+	 */
+	public Message<?> processQueue(Object entityKey, int maxMessages){
+        List<Message<?>> queuedMessages = null;
+        DispatcherMetrics metrics = this.metrics;
+        ReentrantLock stripe = stripeFor(entityKey);
+        stripe.lock();
+        try {
+	        if (entityQueues.size(entityKey) > 0) {
+	          if (entityLock.lockEntityIfAbsent(entityKey, DISPATCHER)) {
+	        	  if (null != metrics) {
+	        		  metrics.entityReleased(entityKey);
+	        		  metrics.entityLocked(entityKey);
+	        	  }
+	        	  queuedMessages = nextMessages(entityKey, maxMessages);
+	          }
+	        } else if (null != metrics && !entityLock.exists(entityKey)) {
+	        	metrics.entityReleased(entityKey);
+	        }
+        } finally {
+        	stripe.unlock();
+        }
+        if (null == queuedMessages || queuedMessages.isEmpty()) {
+        	return null;
+        }
+        if (queuedMessages.size() == 1) {
+        	return queuedMessages.get(0);
+        }
+		return MessageBuilder.withPayload(queuedMessages)
+			.setHeader(QUEUED_HEADER_KEY, true)
+			.setHeader(BATCH_ENTITY_KEY_HEADER, entityKey)
+			.build();
 	}
-	
+
 	@SuppressWarnings("unchecked")
-	private Message<?> nextMessage(String entityKey){
-		Message<?> queuedMessage = null;
+	private List<Message<?>> nextMessages(Object entityKey, int maxMessages){
 		if (entityQueues.size(entityKey) > 0 ){
-			logger.info("getting next message from queue "+"[" + entityKey + "]");
-			queuedMessage = (Message<?>)entityQueues.remove(entityKey);
+			if (logger.isDebugEnabled()) {
+				logger.debug("getting next " + maxMessages + " messages from queue "+"[" + entityKey + "]");
+			}
+			List<Message<?>> messages = (List<Message<?>>)entityQueues.remove(entityKey, maxMessages);
+			DispatcherMetrics metrics = this.metrics;
+			if (null != metrics) {
+				for (Message<?> message: messages) {
+					Object queuedAt = message.getHeaders().get(QUEUED_HEADER_KEY);
+					if (queuedAt instanceof Long) {
+						metrics.messageDequeued((Long)queuedAt);
+					}
+					metrics.messageDispatched();
+				}
+			}
+			return messages;
 		}
-		return queuedMessage;
+		return new ArrayList<Message<?>>();
+	}
+
+	/**
+	 *
+	 * @param metrics - records dispatching. Null, the default, for none
+	 */
+	public void setMetrics(DispatcherMetrics metrics){
+		this.metrics = metrics;
 	}
-	
+
 	/**
-	 * 
+	 * Scans the queues for the entities with the most queued messages
+	 * @param n
+	 * @return up to n entityKeys and the number of messages queued for each, deepest first
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Object, Integer> getDeepestQueues(int n){
+		PriorityQueue<Map.Entry<Object, Integer>> deepest = new PriorityQueue<Map.Entry<Object, Integer>>(n + 1, BY_DEPTH);
+		for (Object key: entityQueues.keySet()) {
+			int size = entityQueues.size(key);
+			if (size > 0 && (deepest.size() < n || size > deepest.peek().getValue())) {
+				deepest.add(new AbstractMap.SimpleImmutableEntry<Object, Integer>(key, size));
+				if (deepest.size() > n) {
+					deepest.poll();
+				}
+			}
+		}
+		List<Map.Entry<Object, Integer>> entries = new ArrayList<Map.Entry<Object, Integer>>(deepest);
+		Collections.sort(entries, Collections.reverseOrder(BY_DEPTH));
+		Map<Object, Integer> results = new LinkedHashMap<Object, Integer>();
+		for (Map.Entry<Object, Integer> entry: entries) {
+			results.put(entry.getKey(), entry.getValue());
+		}
+		return results;
+	}
+
+	/**
+	 *
+	 * @param queueCapacity - the number of messages per entity held in memory. If no overflowStore is set, further
+	 * messages are rejected. 0 (the default) is unbounded
+	 */
+	public void setQueueCapacity(int queueCapacity){
+		entityQueues.setCapacity(queueCapacity);
+	}
+
+	/**
+	 *
+	 * @param maxQueuedInMemory - the number of messages for all entities held in memory. If no overflowStore is set,
+	 * further messages are rejected. 0 (the default) is unbounded
+	 */
+	public void setMaxQueuedInMemory(int maxQueuedInMemory){
+		entityQueues.setMaxInMemory(maxQueuedInMemory);
+	}
+
+	/**
+	 *
+	 * @param overflowStore - holds queued messages which exceed the queueCapacity or maxQueuedInMemory, and
+	 * returns them in order. The messages must be Serializable
+	 */
+	public void setOverflowStore(MappedSegmentStore overflowStore){
+		entityQueues.setOverflowStore(overflowStore);
+	}
+
+	/**
+	 *
 	 * @param entityKeyExtractor
 	 */
 	public void setEntityKeyExtractor(EntityKeyExtractor<Message<?>, ?> entityKeyExtractor){
 		this.entityKeyExtractor = entityKeyExtractor;
 	}
-	
+
 	private Object extractKey(Message<?> message) {
-		return (null == entityKeyExtractor) ? message.getPayload() : entityKeyExtractor.getKey(message);
+		Object key = message.getHeaders().get(ENTITY_KEY_HEADER);
+		if (null == key) {
+			key = (null == entityKeyExtractor) ? message.getPayload() : entityKeyExtractor.getKey(message);
+			if (null == key) {
+				throw new MessagingException(message, "no entityKey for message");
+			}
+		}
+		return key;
+	}
+
+	private ReentrantLock stripeFor(Object key) {
+		return stripes[stripeIndex(key)];
+	}
+
+	private int stripeIndex(Object key) {
+		int h = key.hashCode();
+		// Spread the hash so that keys differing only in the high bits do not collide
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & (stripes.length - 1);
 	}
 
 	@SuppressWarnings("unchecked")
-	private void queue(Message<?> message) {
-		Message<?> queuedMessage = MessageBuilder.fromMessage(message).setHeaderIfAbsent(QUEUED_HEADER_KEY,true).build();
-		entityQueues.add(extractKey(message),queuedMessage);
+	private void queue(Object key, Message<?> message) {
+		// The header value is the time queued. The key is kept with the message so it is not extracted again
+		Message<?> queuedMessage = MessageBuilder.fromMessage(message).setHeaderIfAbsent(QUEUED_HEADER_KEY,System.currentTimeMillis())
+			.setHeaderIfAbsent(ENTITY_KEY_HEADER, key).build();
+		entityQueues.add(key,queuedMessage);
+		DispatcherMetrics metrics = this.metrics;
+		if (null != metrics) {
+			metrics.messageQueued();
+		}
 	}
 
 
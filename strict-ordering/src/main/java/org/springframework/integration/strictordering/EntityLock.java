@@ -1,9 +1,12 @@
 package org.springframework.integration.strictordering;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
- * 
+ * Entity keys may be of any type with equals and hashCode. Implementations which share locks between processes may
+ * also require them to be serializable.
+ *
  * @author David Turanski
  *
  */
@@ -21,7 +24,24 @@ public interface EntityLock {
       * @param entityKey
       * @param lockName
       */
-     public void lockEntity(String entityKey, String lockName);
+     public void lockEntity(Object entityKey, String lockName);
+     
+     /**
+      * Lock the entity only if it has no locks, checking and locking in a single operation
+      * @param entityKey
+      * @param lockName
+      * @return true if the entity was locked
+      */
+     public boolean lockEntityIfAbsent(Object entityKey, String lockName);
+
+     /**
+      * Lock each of several entities only if it has no locks, in as few remote operations as the implementation
+      * allows. Each entity is checked and locked atomically, as by {@link #lockEntityIfAbsent(Object, String)}
+      * @param entityKeys
+      * @param lockName
+      * @return the entityKeys which were locked
+      */
+     public Set<Object> lockEntitiesIfAbsent(Collection<?> entityKeys, String lockName);
      
      /**
       * 
@@ -29,7 +49,7 @@ public interface EntityLock {
       * @param lockName
       * @return
       */
-     public boolean exists(String entityKey, String lockName);
+     public boolean exists(Object entityKey, String lockName);
      
      
      /**
@@ -37,20 +57,20 @@ public interface EntityLock {
       * @param entityKey
       * @return true if any locks exist
       */
-     public boolean exists(String entityKey);
+     public boolean exists(Object entityKey);
      
     /**
      * Release the lock
      * @param entityKey
      * @param lockName
      */
-     public void releaseEntity(String entityKey, String lockName);
+     public void releaseEntity(Object entityKey, String lockName);
      
      /**
       * release all locks on an entity
       * @param entityKey
       */
-     public void releaseEntity(String entityKey);
+     public void releaseEntity(Object entityKey);
       
      /**
       * Replace an existing lock with one or more locks
@@ -58,12 +78,12 @@ public interface EntityLock {
       * @param fromLockName - if null, default is dispatcherName
       * @param toLockNames - varargs or String[]
       */
-     public void fork(String entityKey, String fromLockName, String ... toLockNames);
+     public void fork(Object entityKey, String fromLockName, String ... toLockNames);
      
      /**
       * Find all @{link LockNode}s on an entity
       * @param entityKey
       * @return the LockNodes
       */
-     public Set<LockNode> getLocks(String entityKey);
+     public Set<LockNode> getLocks(Object entityKey);
 }
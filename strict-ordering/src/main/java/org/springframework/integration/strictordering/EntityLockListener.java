@@ -2,6 +2,7 @@ package org.springframework.integration.strictordering;
 
 import org.apache.log4j.Logger;
 import org.springframework.integration.Message;
+import org.springframework.util.Assert;
 
 /**
  * On release of lock send released entityKey to the dispatcher.
@@ -12,13 +13,26 @@ import org.springframework.integration.Message;
 public class EntityLockListener {
 	private static Logger logger = Logger.getLogger(EntityLockListener.class);
 	private Dispatcher dispatcher;
+	private int maxMessagesPerRelease = 1;
 	
 	public EntityLockListener(Dispatcher dispatcher){
 		this.dispatcher = dispatcher;
 	}
 	
+	/**
+	 * 
+	 * @param maxMessagesPerRelease - the maximum number of queued messages dispatched on each release. If greater than 1,
+	 * a backlog is dispatched in batches. See {@link Dispatcher#processQueue(Object, int)}. Default is 1 
+	 */
+	public void setMaxMessagesPerRelease(int maxMessagesPerRelease){
+		Assert.isTrue(maxMessagesPerRelease > 0, "maxMessagesPerRelease must be greater than 0");
+		this.maxMessagesPerRelease = maxMessagesPerRelease;
+	}
+	
 	public Message<?> onRelease(LockNode lockNode){
-			logger.info("lock released " + lockNode);
-			return dispatcher.processQueue(lockNode.getEntityKey());
+			if (logger.isDebugEnabled()) {
+				logger.debug("lock released " + lockNode);
+			}
+			return dispatcher.processQueue(lockNode.getEntityKey(), maxMessagesPerRelease);
 	}
 }
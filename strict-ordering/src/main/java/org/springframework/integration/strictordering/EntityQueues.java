@@ -1,27 +1,45 @@
 package org.springframework.integration.strictordering;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Queue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
- * Manages queues mapped by entityKey
- * 
+ * Manages queues mapped by entityKey. Queues for different keys may be accessed concurrently. Operations on the same key
+ * are serialized on that key's queue, so a queue is never destroyed while another thread is adding to it.
+ * <p>
+ * The number of items held in memory may be bounded per key, by capacity, and in total, by maxInMemory. If an
+ * overflow store is set, items beyond either bound are serialized to the store and read back in order as the queue
+ * drains, so that the backlog is limited by disk rather than heap. Spilled items must be Serializable. Without an
+ * overflow store, add() throws an IllegalStateException when a bound is reached.
+ *
  * @author David Turanski
  *
  * @param <K> - The entityKey type
  * @param <T> - The queued item type
  */
 public class EntityQueues<K, T> {
-	private Map<K,LinkedBlockingQueue<T>> entityQueueMap;
-	private int capacity;
+	private ConcurrentMap<K,EntityQueue<T>> entityQueueMap;
+	private volatile int capacity;
+	private volatile int maxInMemory;
+	private volatile MappedSegmentStore overflowStore;
+	// Items held in memory
+	private final AtomicInteger inMemory = new AtomicInteger();
+
 	public EntityQueues(){
-		entityQueueMap = new HashMap<K,LinkedBlockingQueue<T>>();
+		entityQueueMap = new ConcurrentHashMap<K,EntityQueue<T>>();
 	}
 
 	/**
-	 * Set the queue capacity
+	 * Set the queue capacity. If an overflow store is set, this is the number of items per key held in memory
 	 * @param capacity
 	 */
 	public void setCapacity(int capacity){
@@ -29,40 +47,92 @@ public class EntityQueues<K, T> {
 	}
 
 	/**
-	 * 
+	 * Set the maximum number of items held in memory for all keys
+	 * @param maxInMemory
+	 */
+	public void setMaxInMemory(int maxInMemory){
+		this.maxInMemory = maxInMemory;
+	}
+
+	/**
+	 * Set the store for items which do not fit in memory
+	 * @param overflowStore
+	 */
+	public void setOverflowStore(MappedSegmentStore overflowStore){
+		this.overflowStore = overflowStore;
+	}
+
+	/**
+	 *
 	 * @param key
 	 * @return
 	 */
 	public Object remove(K key){
-		Queue<T> queue = entityQueueMap.get(key);
+		EntityQueue<T> queue = entityQueueMap.get(key);
 		if (queue == null ){
 			return null;
-		} 
-		
-		Object entity =  queue.remove();
-		//Destroy the queue if no elements left.
-		if (queue.size() == 0){
-			entityQueueMap.remove(key);
-		}
-		
-		return entity;
+		}
+
+		synchronized (queue) {
+			Object entity = poll(queue);
+			//Destroy the queue if no elements left.
+			if (queue.size() == 0){
+				entityQueueMap.remove(key, queue);
+			}
+			return entity;
+		}
+	}
+
+	/**
+	 * Remove up to maxElements from the head of the queue in one operation
+	 * @param key
+	 * @param maxElements
+	 * @return the removed elements in queue order
+	 */
+	public List<T> remove(K key, int maxElements){
+		List<T> entities = new ArrayList<T>();
+		EntityQueue<T> queue = entityQueueMap.get(key);
+		if (queue == null ){
+			return entities;
+		}
+
+		synchronized (queue) {
+			while (entities.size() < maxElements && queue.size() > 0) {
+				entities.add(poll(queue));
+			}
+			//Destroy the queue if no elements left.
+			if (queue.size() == 0){
+				entityQueueMap.remove(key, queue);
+			}
+			return entities;
+		}
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @param key
 	 * @return
 	 */
 	public int size(K key){
-		Queue<T> queue = entityQueueMap.get(key);
+		EntityQueue<T> queue = entityQueueMap.get(key);
 		if (null == queue){
 			return 0;
 		}
-		return queue.size();
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of items held in memory
+	 */
+	public int getInMemoryCount(){
+		return inMemory.get();
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @return
 	 */
 	public Set<K> keySet(){
@@ -70,25 +140,145 @@ public class EntityQueues<K, T> {
 	}
 
 	/**
-	 * 
+	 *
 	 * @param key
 	 * @param entity
 	 */
 	public void add(K key, T entity){
-		Queue<T> queue = getQueue(key);
-		queue.add(entity);  
+		while (true) {
+			EntityQueue<T> queue = getQueue(key);
+			synchronized (queue) {
+				// The queue may have been emptied and destroyed before we got the monitor
+				if (entityQueueMap.get(key) == queue) {
+					// Once anything has overflowed, later items follow it to preserve order
+					if (queue.overflow.isEmpty() && hasRoom(queue)) {
+						queue.memory.add(entity);
+						inMemory.incrementAndGet();
+					} else {
+						MappedSegmentStore store = overflowStore;
+						if (null == store) {
+							throw new IllegalStateException("Queue full");
+						}
+						queue.overflow.add(store.append(serialize(entity)));
+					}
+					return;
+				}
+			}
+		}
 	}
 
-	private Queue<T> getQueue(K key) {
-		LinkedBlockingQueue<T> queue = entityQueueMap.get(key);
+	private EntityQueue<T> getQueue(K key) {
+		EntityQueue<T> queue = entityQueueMap.get(key);
 
 		if (null == queue) {
-			queue = (capacity > 0) ? new LinkedBlockingQueue<T>(capacity): new LinkedBlockingQueue<T>();
-			entityQueueMap.put(key,queue);
+			EntityQueue<T> newQueue = new EntityQueue<T>();
+			queue = entityQueueMap.putIfAbsent(key, newQueue);
+			if (null == queue) {
+				queue = newQueue;
+			}
 		}
-	
+
 		return queue;
 	}
 
+	// Called holding the queue's monitor
+	private T poll(EntityQueue<T> queue) {
+		T entity = queue.memory.poll();
+		if (null != entity) {
+			inMemory.decrementAndGet();
+		} else if (!queue.overflow.isEmpty()) {
+			entity = deserialize(overflowStore.take(queue.overflow.poll()));
+		}
+		// Refill the in memory tier from the head of the overflow
+		while (!queue.overflow.isEmpty() && hasRoom(queue)) {
+			queue.memory.add(deserialize(overflowStore.take(queue.overflow.poll())));
+			inMemory.incrementAndGet();
+		}
+		return entity;
+	}
+
+	private boolean hasRoom(EntityQueue<T> queue) {
+		return (capacity == 0 || queue.memory.size() < capacity) && (maxInMemory == 0 || inMemory.get() < maxInMemory);
+	}
+
+	private byte[] serialize(T entity) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(entity);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot spill " + entity, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T deserialize(byte[] record) {
+		try {
+			return (T) new ObjectInputStream(new ByteArrayInputStream(record)).readObject();
+		} catch (Exception e) {
+			throw new IllegalStateException("cannot read spilled item", e);
+		}
+	}
 
+	/**
+	 * The items queued for one key: the head in memory and the positions of the tail in the overflow store
+	 */
+	private static class EntityQueue<T> {
+		private final ArrayDeque<T> memory = new ArrayDeque<T>();
+		private final PositionRing overflow = new PositionRing();
+
+		int size() {
+			return memory.size() + overflow.size();
+		}
+	}
+
+	/**
+	 * A FIFO of overflow store positions held in a growable long[] ring, so a spilled item costs 8 bytes of heap
+	 * rather than a boxed Long and a deque node
+	 */
+	private static class PositionRing {
+		private static final long[] EMPTY = new long[0];
+		private long[] positions = EMPTY;
+		private int head;
+		private int size;
+
+		void add(long position) {
+			if (size == positions.length) {
+				grow();
+			}
+			positions[(head + size) % positions.length] = position;
+			size++;
+		}
+
+		// Callers check isEmpty() first
+		long poll() {
+			long position = positions[head];
+			head = (head + 1) % positions.length;
+			if (--size == 0) {
+				// Release the array once the backlog has drained
+				positions = EMPTY;
+				head = 0;
+			}
+			return position;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void grow() {
+			long[] larger = new long[Math.max(16, positions.length * 2)];
+			for (int i = 0; i < size; i++) {
+				larger[i] = positions[(head + i) % positions.length];
+			}
+			positions = larger;
+			head = 0;
+		}
+	}
 }
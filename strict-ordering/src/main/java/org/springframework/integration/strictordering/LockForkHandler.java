@@ -3,6 +3,7 @@ package org.springframework.integration.strictordering;
 import org.apache.log4j.Logger;
 import org.springframework.integration.Message;
 import org.springframework.integration.strictordering.entitykey.EntityKeyExtractor;
+import org.springframework.integration.strictordering.entitykey.MemoizingEntityKeyExtractor;
 
 /**
  * A convenient message handler for forking an entity lock
@@ -35,7 +36,11 @@ public class LockForkHandler {
 	 */
     public  Message<?> forkLock(Message<?> message ){
     	Object entityKey = extractKey(message);
-    	entityLock.fork((String)entityKey, fromLockName, lockNames );
+    	// The last extraction for this message on this thread
+    	if (entityKeyExtractor instanceof MemoizingEntityKeyExtractor) {
+    		((MemoizingEntityKeyExtractor<?, ?>) entityKeyExtractor).clear();
+    	}
+    	entityLock.fork(entityKey, fromLockName, lockNames );
     	return message;
     }
     
@@ -56,6 +61,13 @@ public class LockForkHandler {
 	}
 	
 	private Object extractKey(Message<?> message) {	
+		Object entityKey = message.getHeaders().get(Dispatcher.BATCH_ENTITY_KEY_HEADER);
+		if (null == entityKey) {
+			entityKey = message.getHeaders().get(Dispatcher.ENTITY_KEY_HEADER);
+		}
+		if (null != entityKey) {
+			return entityKey;
+		}
 		return (null == entityKeyExtractor) ? message.getPayload() : entityKeyExtractor.getKey(message);
 	}
 	
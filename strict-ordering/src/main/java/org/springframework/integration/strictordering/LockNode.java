@@ -1,55 +1,67 @@
 package org.springframework.integration.strictordering;
 
 import java.io.Serializable;
+
+import org.springframework.util.ObjectUtils;
+
 /**
- * A value object to hold entity lock information
+ * A value object to hold entity lock information. The entityKey may be of any type, see {@link EntityLock}. The key
+ * and hash code are computed once.
  * @author David Turanski
  *
  */
 public class LockNode implements Serializable {
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
+
 	private final String lockName;
 	private final String dispatcherName;
-	private final String entityKey;
+	private final Object entityKey;
+	private transient String key;
+	private transient int hash;
 
-	
-	@SuppressWarnings("unused")
-	private LockNode(){throw new UnsupportedOperationException();}
-	
-	public LockNode(String entityKey, String lockName, String dispatcherName){
-		this.entityKey = entityKey; 
+	public LockNode(Object entityKey, String lockName, String dispatcherName){
+		this.entityKey = entityKey;
 		this.lockName = lockName;
-		this.dispatcherName = dispatcherName; 
+		this.dispatcherName = dispatcherName;
 	}
-	
+
 	public String getLockName() {
 		return lockName;
 	}
-	
- 	public String getEntityKey() {
+
+ 	public Object getEntityKey() {
 		return entityKey;
 	}
 
 	public boolean equals(Object other){
-		if (null == other){
-			return false;
+		if (this == other){
+			return true;
 		}
-		
+
 		if (!(other instanceof LockNode)){
 			return false;
 		}
-		
+
 		LockNode otherLockNode = (LockNode)other;
-		return this.getKey().equals(otherLockNode.getKey());
+		return ObjectUtils.nullSafeEquals(entityKey, otherLockNode.entityKey)
+				&& ObjectUtils.nullSafeEquals(lockName, otherLockNode.lockName)
+				&& ObjectUtils.nullSafeEquals(dispatcherName, otherLockNode.dispatcherName);
 	}
-	
+
 	public int hashCode(){
-	   return getKey().hashCode();
+		// Computed on first use, including after deserialization
+		int result = hash;
+		if (0 == result) {
+			result = 31 * (31 * ObjectUtils.nullSafeHashCode(entityKey) + ObjectUtils.nullSafeHashCode(lockName))
+					+ ObjectUtils.nullSafeHashCode(dispatcherName);
+			hash = result;
+		}
+		return result;
 	}
-	
+
 	public String toString(){
 		return ("entityKey [" + entityKey + "] lockName [" + lockName + "] dispatcherName [" + dispatcherName + "]");
 	}
@@ -57,8 +69,14 @@ public class LockNode implements Serializable {
 	public String getDispatcherName() {
 		return dispatcherName;
 	}
-	
+
 	public String getKey(){
-		return entityKey + ":" + lockName + ":" + dispatcherName;
+		// Computed on first use, including after deserialization
+		String result = key;
+		if (null == result) {
+			result = entityKey + ":" + lockName + ":" + dispatcherName;
+			key = result;
+		}
+		return result;
 	}
 }
@@ -0,0 +1,207 @@
+package org.springframework.integration.strictordering;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * An append-only store of records in memory-mapped segment files, used by {@link EntityQueues} to hold messages
+ * that overflow the in-memory queues. Records are appended to the current segment and a new segment is started when
+ * it is full. A record is read once, by its position, and a segment file is deleted as soon as all of its records
+ * have been read.
+ * <p>
+ * The position of each record is held by the caller, so the contents are meaningless after a restart. Any segment
+ * files left by a previous instance with the same name are deleted on creation.
+ *
+ * @author David Turanski
+ *
+ */
+public class MappedSegmentStore implements DisposableBean {
+	private static Logger logger = Logger.getLogger(MappedSegmentStore.class);
+
+	private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private final File directory;
+
+	private final String name;
+
+	private final int segmentSize;
+
+	private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+
+	private Segment current;
+
+	private int nextSegmentId;
+
+	private long size;
+
+	/**
+	 *
+	 * @param directory the directory for the segment files
+	 * @param name the segment file name prefix, e.g., the dispatcher name
+	 */
+	public MappedSegmentStore(File directory, String name) {
+		this(directory, name, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 *
+	 * @param directory the directory for the segment files
+	 * @param name the segment file name prefix, e.g., the dispatcher name
+	 * @param segmentSize the size of each segment file in bytes
+	 */
+	public MappedSegmentStore(File directory, final String name, int segmentSize) {
+		Assert.notNull(directory, "directory must not be null");
+		Assert.hasText(name, "name must not be empty");
+		Assert.isTrue(segmentSize > 4, "segmentSize is too small");
+		Assert.isTrue(directory.isDirectory() || directory.mkdirs(), "cannot create directory " + directory);
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		File[] stale = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String fileName) {
+				// Only this store's own segments, not those of a store named e.g. name + "-1"
+				return fileName.startsWith(name + "-") && fileName.endsWith(".seg")
+						&& isSegmentId(fileName.substring(name.length() + 1, fileName.length() - 4));
+			}
+		});
+		for (File file : stale) {
+			logger.info("deleting stale segment " + file);
+			file.delete();
+		}
+	}
+
+	private static boolean isSegmentId(String id) {
+		if (id.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < id.length(); i++) {
+			if (!Character.isDigit(id.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Append a record
+	 * @param record
+	 * @return the position of the record
+	 */
+	public synchronized long append(byte[] record) {
+		int length = record.length + 4;
+		if (null == current || current.buffer.remaining() < length) {
+			current = newSegment(Math.max(segmentSize, length));
+		}
+		int offset = current.buffer.position();
+		current.buffer.putInt(record.length);
+		current.buffer.put(record);
+		current.live++;
+		size++;
+		return ((long) current.id << 32) | offset;
+	}
+
+	/**
+	 * Read a record and release it. Each record may be taken once.
+	 * @param position as returned by {@link #append(byte[])}
+	 * @return the record
+	 */
+	public synchronized byte[] take(long position) {
+		Segment segment = segments.get((int) (position >>> 32));
+		Assert.notNull(segment, "no segment for position " + position);
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position((int) position);
+		byte[] record = new byte[buffer.getInt()];
+		buffer.get(record);
+		size--;
+		if (--segment.live == 0 && segment != current) {
+			delete(segment);
+		}
+		return record;
+	}
+
+	/**
+	 *
+	 * @return the number of records not yet taken
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the number of segment files
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public synchronized void destroy() {
+		for (Segment segment : segments.values().toArray(new Segment[segments.size()])) {
+			delete(segment);
+		}
+		current = null;
+		size = 0;
+	}
+
+	private Segment newSegment(int capacity) {
+		// The previous segment can go if everything in it has been read
+		if (null != current && current.live == 0) {
+			delete(current);
+		}
+		int id = nextSegmentId++;
+		File file = new File(directory, name + "-" + id + ".seg");
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+				Segment segment = new Segment(id, file, buffer);
+				segments.put(id, segment);
+				logger.debug("created segment " + file);
+				return segment;
+			} finally {
+				// The mapping remains valid after the channel is closed
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot create segment " + file, e);
+		}
+	}
+
+	private void delete(Segment segment) {
+		segments.remove(segment.id);
+		// The file is unmapped when the buffer is garbage collected
+		if (!segment.file.delete()) {
+			segment.file.deleteOnExit();
+		}
+		logger.debug("deleted segment " + segment.file);
+	}
+
+	private static class Segment {
+		private final int id;
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private int live;
+
+		Segment(int id, File file, MappedByteBuffer buffer) {
+			this.id = id;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package org.springframework.integration.strictordering.entitykey;
+
+import org.springframework.integration.Message;
+import org.springframework.util.Assert;
+
+/**
+ * Uses the value of a message header as the entityKey, as is, so keys of any type are supported.
+ *
+ * @author David Turanski
+ *
+ */
+public class HeaderEntityKeyExtractor implements EntityKeyExtractor<Message<?>, Object> {
+	private final String headerName;
+
+	/**
+	 *
+	 * @param headerName
+	 */
+	public HeaderEntityKeyExtractor(String headerName) {
+		Assert.hasText(headerName, "headerName must not be empty");
+		this.headerName = headerName;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.entitykey.EntityKeyExtractor#getKey(java.lang.Object)
+	 */
+	@Override
+	public Object getKey(Message<?> message) {
+		return message.getHeaders().get(headerName);
+	}
+}
@@ -0,0 +1,74 @@
+package org.springframework.integration.strictordering.entitykey;
+
+import java.lang.ref.WeakReference;
+
+import org.springframework.util.Assert;
+
+/**
+ * Remembers the last entity and key extracted on each thread, so that components which extract the key from the same
+ * message in turn, e.g., the Dispatcher and the LockForkHandler on one thread, compute it once. Entities are compared
+ * by identity. Share one instance between those components.
+ * <p>
+ * The entity is only weakly referenced, so a pooled thread does not keep its last message alive, and the memo is
+ * dropped as soon as a different entity is extracted or the entity is collected.
+ *
+ * @author David Turanski
+ *
+ * @param <E>
+ * @param <K>
+ */
+public class MemoizingEntityKeyExtractor<E, K> implements EntityKeyExtractor<E, K> {
+	private final EntityKeyExtractor<E, K> delegate;
+
+	// the last extraction on this thread
+	private final ThreadLocal<Memo<K>> last = new ThreadLocal<Memo<K>>();
+
+	/**
+	 *
+	 * @param delegate - extracts keys not remembered
+	 */
+	public MemoizingEntityKeyExtractor(EntityKeyExtractor<E, K> delegate) {
+		Assert.notNull(delegate, "delegate must not be null");
+		this.delegate = delegate;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.entitykey.EntityKeyExtractor#getKey(java.lang.Object)
+	 */
+	@Override
+	public K getKey(E entity) {
+		Memo<K> memo = last.get();
+		if (null != memo) {
+			Object remembered = memo.entity.get();
+			if (remembered == entity && null != entity) {
+				return memo.key;
+			}
+			// Done with the remembered entity. Do not hold its key past a failed extraction
+			last.remove();
+		}
+		K key = delegate.getKey(entity);
+		if (null != entity) {
+			last.set(new Memo<K>(entity, key));
+		}
+		return key;
+	}
+
+	/**
+	 * Forget the entity and key remembered on the calling thread
+	 */
+	public void clear() {
+		last.remove();
+	}
+
+	private static class Memo<K> {
+		private final WeakReference<Object> entity;
+
+		private final K key;
+
+		Memo(Object entity, K key) {
+			this.entity = new WeakReference<Object>(entity);
+			this.key = key;
+		}
+	}
+}
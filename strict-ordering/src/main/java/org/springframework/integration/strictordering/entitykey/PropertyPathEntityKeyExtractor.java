@@ -0,0 +1,106 @@
+package org.springframework.integration.strictordering.entitykey;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Navigates a dotted property path, e.g., "payload.customer.id" or "headers.orderId", from the message. Each segment
+ * is a JavaBean property, a no-argument method or a Map key. The read method for each segment is resolved once per
+ * type and cached, so no expression is parsed or interpreted per message. The value is returned as is, so keys of
+ * any type are supported.
+ *
+ * @author David Turanski
+ *
+ */
+public class PropertyPathEntityKeyExtractor implements EntityKeyExtractor<Object, Object> {
+	private final Segment[] segments;
+
+	/**
+	 *
+	 * @param propertyPath - e.g., payload.customer.id
+	 */
+	public PropertyPathEntityKeyExtractor(String propertyPath) {
+		Assert.hasText(propertyPath, "propertyPath must not be empty");
+		String[] names = StringUtils.delimitedListToStringArray(propertyPath, ".");
+		segments = new Segment[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Assert.hasText(names[i], "invalid propertyPath [" + propertyPath + "]");
+			segments[i] = new Segment(names[i]);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.entitykey.EntityKeyExtractor#getKey(java.lang.Object)
+	 */
+	@Override
+	public Object getKey(Object entity) {
+		Object value = entity;
+		for (int i = 0; i < segments.length && null != value; i++) {
+			value = segments[i].getValue(value);
+		}
+		return value;
+	}
+
+	/**
+	 * One element of the path, with the read method for the type last seen and for all types seen
+	 */
+	private static class Segment {
+		private final String name;
+
+		private volatile Accessor last;
+
+		private final ConcurrentMap<Class<?>, Method> methods = new ConcurrentHashMap<Class<?>, Method>();
+
+		Segment(String name) {
+			this.name = name;
+		}
+
+		Object getValue(Object target) {
+			if (target instanceof Map) {
+				return ((Map<?, ?>) target).get(name);
+			}
+			Class<?> type = target.getClass();
+			Accessor accessor = last;
+			if (null == accessor || accessor.type != type) {
+				accessor = new Accessor(type, methodFor(type));
+				last = accessor;
+			}
+			return ReflectionUtils.invokeMethod(accessor.method, target);
+		}
+
+		private Method methodFor(Class<?> type) {
+			Method method = methods.get(type);
+			if (null == method) {
+				PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, name);
+				method = (null == descriptor) ? null : descriptor.getReadMethod();
+				if (null == method) {
+					method = ReflectionUtils.findMethod(type, name);
+				}
+				Assert.notNull(method, "no property [" + name + "] on " + type.getName());
+				ReflectionUtils.makeAccessible(method);
+				methods.put(type, method);
+			}
+			return method;
+		}
+	}
+
+	private static class Accessor {
+		private final Class<?> type;
+
+		private final Method method;
+
+		Accessor(Class<?> type, Method method) {
+			this.type = type;
+			this.method = method;
+		}
+	}
+}
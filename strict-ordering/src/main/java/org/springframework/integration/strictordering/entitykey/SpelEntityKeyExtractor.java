@@ -4,11 +4,13 @@ package org.springframework.integration.strictordering.entitykey;
 import org.springframework.expression.Expression;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 /**
+ * Evaluates a SpEL expression against each message. See {@link PropertyPathEntityKeyExtractor} and
+ * {@link HeaderEntityKeyExtractor} for simple property paths and headers, which avoid evaluating an expression.
  * 
  * @author David Turanski
  *
  */
-public class SpelEntityKeyExtractor implements EntityKeyExtractor<Object, String>{
+public class SpelEntityKeyExtractor implements EntityKeyExtractor<Object, Object>{
 	 
 	private volatile Expression payloadExpression;
 
@@ -16,12 +18,12 @@ public class SpelEntityKeyExtractor implements EntityKeyExtractor<Object, String
 	
 	
 	@Override
-	public String getKey(Object entity) {
+	public Object getKey(Object entity) {
 		Object evaluationResult = entity;
 		if (payloadExpression != null) {
 			 evaluationResult =  payloadExpression.getValue(entity);
 		}	 
-		return (String) evaluationResult; 
+		return evaluationResult; 
 	}
 	
 	/**
@@ -0,0 +1,251 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.integration.strictordering.LockNode;
+
+import com.gemstone.gemfire.DataSerializable;
+import com.gemstone.gemfire.DataSerializer;
+import com.gemstone.gemfire.Instantiator;
+
+/**
+ * An immutable region value holding all the locks on one entity for one dispatcher. Every change to the locks on an
+ * entity, including a fork, replaces the whole entry in a single region operation.
+ * <p>
+ * If the {@link GemfireEntityLock} is configured with a lease time, each entry carries the time at which its locks
+ * expire so that an {@link EntityLockReaper} can reclaim locks held by a failed process.
+ * <p>
+ * Entries are serialized by Gemfire as the entityKey, the names, a lock count and the lease, identified by a registered class id.
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockEntry implements DataSerializable {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	static final int CLASS_ID = 2002;
+
+	static {
+		Instantiator.register(new Instantiator(EntityLockEntry.class, CLASS_ID) {
+			public DataSerializable newInstance() {
+				return new EntityLockEntry();
+			}
+		});
+		// The region keys of the entries
+		Instantiator.register(new Instantiator(EntityLockKey.class, EntityLockKey.CLASS_ID) {
+			public DataSerializable newInstance() {
+				return new EntityLockKey();
+			}
+		});
+		// The LockNodes released with an entry
+		DataSerializer.register(LockNodeSerializer.class);
+	}
+
+	// Not final, for deserialization only. Entries are never modified once constructed
+	private Object entityKey;
+	private String dispatcherName;
+	private Set<String> lockNames;
+	// time in millis at which the locks may be reclaimed. 0 if the locks are held until released
+	private long leaseExpiration;
+	private transient EntityLockKey key;
+
+	/**
+	 * For deserialization only
+	 */
+	public EntityLockEntry(){
+	}
+
+	public EntityLockEntry(Object entityKey, String dispatcherName, String... lockNames) {
+		this(entityKey, dispatcherName, new HashSet<String>(Arrays.asList(lockNames)), 0L);
+	}
+
+	private EntityLockEntry(Object entityKey, String dispatcherName, Set<String> lockNames, long leaseExpiration) {
+		this.entityKey = entityKey;
+		this.dispatcherName = dispatcherName;
+		this.lockNames = Collections.unmodifiableSet(lockNames);
+		this.leaseExpiration = leaseExpiration;
+	}
+
+	/**
+	 *
+	 * @param entityKey
+	 * @param dispatcherName
+	 * @return the region key for the entity's locks
+	 */
+	public static EntityLockKey keyFor(Object entityKey, String dispatcherName) {
+		return new EntityLockKey(entityKey, dispatcherName);
+	}
+
+	public EntityLockKey getKey() {
+		// Computed on first use, including after deserialization
+		EntityLockKey result = key;
+		if (null == result) {
+			result = keyFor(entityKey, dispatcherName);
+			key = result;
+		}
+		return result;
+	}
+
+	public Object getEntityKey() {
+		return entityKey;
+	}
+
+	public String getDispatcherName() {
+		return dispatcherName;
+	}
+
+	public Set<String> getLockNames() {
+		return lockNames;
+	}
+
+	public boolean contains(String lockName) {
+		return lockNames.contains(lockName);
+	}
+
+	public int size() {
+		return lockNames.size();
+	}
+
+	public long getLeaseExpiration() {
+		return leaseExpiration;
+	}
+
+	/**
+	 *
+	 * @param now current time in millis
+	 * @return true if the entry has a lease which expired before now
+	 */
+	public boolean isExpired(long now) {
+		return leaseExpiration > 0 && leaseExpiration <= now;
+	}
+
+	/**
+	 *
+	 * @param leaseExpiration time in millis, 0 for no lease
+	 * @return a copy of this entry with the given lease expiration
+	 */
+	public EntityLockEntry withLease(long leaseExpiration) {
+		return new EntityLockEntry(entityKey, dispatcherName, new HashSet<String>(lockNames), leaseExpiration);
+	}
+
+	/**
+	 *
+	 * @param lockName
+	 * @return a copy of this entry including the lock
+	 */
+	public EntityLockEntry with(String lockName) {
+		Set<String> result = new HashSet<String>(lockNames);
+		result.add(lockName);
+		return new EntityLockEntry(entityKey, dispatcherName, result, leaseExpiration);
+	}
+
+	/**
+	 *
+	 * @param lockName
+	 * @return a copy of this entry without the lock
+	 */
+	public EntityLockEntry without(String lockName) {
+		Set<String> result = new HashSet<String>(lockNames);
+		result.remove(lockName);
+		return new EntityLockEntry(entityKey, dispatcherName, result, leaseExpiration);
+	}
+
+	/**
+	 *
+	 * @param fromLockName
+	 * @param toLockNames
+	 * @return a copy of this entry with fromLockName replaced by toLockNames
+	 */
+	public EntityLockEntry fork(String fromLockName, String... toLockNames) {
+		Set<String> result = new HashSet<String>(lockNames);
+		result.remove(fromLockName);
+		Collections.addAll(result, toLockNames);
+		return new EntityLockEntry(entityKey, dispatcherName, result, leaseExpiration);
+	}
+
+	/**
+	 *
+	 * @return a {@link LockNode} for each lock held
+	 */
+	public Set<LockNode> getLockNodes() {
+		Set<LockNode> lockNodes = new HashSet<LockNode>();
+		for (String lockName : lockNames) {
+			lockNodes.add(new LockNode(entityKey, lockName, dispatcherName));
+		}
+		return lockNodes;
+	}
+
+	/**
+	 * An entry is destroyed when its last lock is released. This provides the payload for the release notification.
+	 * @return a {@link LockNode} for one of the locks held
+	 */
+	public LockNode getReleasedLockNode() {
+		String lockName = lockNames.isEmpty() ? null : lockNames.iterator().next();
+		return new LockNode(entityKey, lockName, dispatcherName);
+	}
+
+	public boolean equals(Object other){
+		if (this == other){
+			return true;
+		}
+
+		if (!(other instanceof EntityLockEntry)){
+			return false;
+		}
+
+		EntityLockEntry otherEntry = (EntityLockEntry)other;
+		return this.getKey().equals(otherEntry.getKey()) && this.lockNames.equals(otherEntry.lockNames)
+				&& this.leaseExpiration == otherEntry.leaseExpiration;
+	}
+
+	public int hashCode(){
+	   return 31 * getKey().hashCode() + lockNames.hashCode();
+	}
+
+	public String toString(){
+		return ("entityKey [" + entityKey + "] lockNames " + lockNames + " dispatcherName [" + dispatcherName + "] leaseExpiration ["
+				+ leaseExpiration + "]");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializable#toData(java.io.DataOutput)
+	 */
+	@Override
+	public void toData(DataOutput out) throws IOException {
+		DataSerializer.writeObject(entityKey, out);
+		DataSerializer.writeString(dispatcherName, out);
+		out.writeLong(leaseExpiration);
+		out.writeInt(lockNames.size());
+		for (String lockName : lockNames) {
+			DataSerializer.writeString(lockName, out);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializable#fromData(java.io.DataInput)
+	 */
+	@Override
+	public void fromData(DataInput in) throws IOException, ClassNotFoundException {
+		entityKey = DataSerializer.readObject(in);
+		dispatcherName = DataSerializer.readString(in);
+		leaseExpiration = in.readLong();
+		int size = in.readInt();
+		Set<String> names = new HashSet<String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			names.add(DataSerializer.readString(in));
+		}
+		lockNames = Collections.unmodifiableSet(names);
+		key = null;
+	}
+}
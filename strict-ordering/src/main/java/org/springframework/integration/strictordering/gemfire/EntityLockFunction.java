@@ -0,0 +1,115 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.gemstone.gemfire.cache.execute.FunctionAdapter;
+import com.gemstone.gemfire.cache.execute.FunctionContext;
+import com.gemstone.gemfire.cache.execute.RegionFunctionContext;
+
+/**
+ * Performs a {@link GemfireEntityLock} operation on the member hosting the primary copy of the entity's lock entry,
+ * so that the reads and conditional writes it needs are local, and the caller makes a single network hop. Executed
+ * by a {@link PartitionedEntityLock} with the entry's region key as the filter.
+ * <p>
+ * The arguments are an Object[] of the operation, entityKey, dispatcherName, lockName, toLockNames (for a fork) and
+ * leaseTime. The result is a Boolean: whether the entity was locked for LOCK_IF_ABSENT, whether the lease was renewed
+ * for RENEW, and true otherwise. For LOCK_ALL_IF_ABSENT the entityKey argument is a Collection of entityKeys, of which
+ * this member locks those in its filter, i.e., those for which it hosts the primary, and the result is a List of
+ * the entityKeys it locked.
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockFunction extends FunctionAdapter {
+	private static final long serialVersionUID = 1L;
+
+	public static final String ID = "strictOrderingEntityLock";
+
+	static final String LOCK = "lock";
+
+	static final String LOCK_IF_ABSENT = "lockIfAbsent";
+
+	static final String LOCK_ALL_IF_ABSENT = "lockAllIfAbsent";
+
+	static final String RELEASE = "release";
+
+	static final String FORK = "fork";
+
+	static final String RENEW = "renew";
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.execute.FunctionAdapter#execute(com.gemstone.gemfire.cache.execute.FunctionContext)
+	 */
+	@Override
+	public void execute(FunctionContext context) {
+		Object[] args = (Object[]) context.getArguments();
+		String operation = (String) args[0];
+		Object entityKey = args[1];
+		String lockName = (String) args[3];
+
+		// The region operations are on the primary, which is this member
+		GemfireEntityLock entityLock = new GemfireEntityLock(((RegionFunctionContext) context).getDataSet(), (String) args[2]);
+		entityLock.setLeaseTime((Long) args[5]);
+
+		if (LOCK_ALL_IF_ABSENT.equals(operation)) {
+			Set<?> filter = ((RegionFunctionContext) context).getFilter();
+			List<Object> locked = new ArrayList<Object>();
+			for (Object key: (Collection<?>) entityKey) {
+				if (filter.contains(entityLock.keyFor(key)) && entityLock.lockEntityIfAbsent(key, lockName)) {
+					locked.add(key);
+				}
+			}
+			context.<List<Object>> getResultSender().lastResult(locked);
+			return;
+		}
+
+		boolean result = true;
+		if (LOCK.equals(operation)) {
+			entityLock.lockEntity(entityKey, lockName);
+		} else if (LOCK_IF_ABSENT.equals(operation)) {
+			result = entityLock.lockEntityIfAbsent(entityKey, lockName);
+		} else if (RELEASE.equals(operation)) {
+			entityLock.releaseEntity(entityKey, lockName);
+		} else if (FORK.equals(operation)) {
+			entityLock.fork(entityKey, lockName, (String[]) args[4]);
+		} else if (RENEW.equals(operation)) {
+			result = entityLock.renewLease(entityKey);
+		} else {
+			throw new IllegalArgumentException("unknown operation [" + operation + "]");
+		}
+		context.<Boolean> getResultSender().lastResult(result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.execute.FunctionAdapter#getId()
+	 */
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.execute.FunctionAdapter#optimizeForWrite()
+	 */
+	@Override
+	public boolean optimizeForWrite() {
+		// execute on the primary
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.execute.FunctionAdapter#isHA()
+	 */
+	@Override
+	public boolean isHA() {
+		// operations are not idempotent, so must not be retried on failover
+		return false;
+	}
+}
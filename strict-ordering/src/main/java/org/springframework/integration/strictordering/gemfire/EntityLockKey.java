@@ -0,0 +1,105 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.springframework.util.Assert;
+
+import com.gemstone.gemfire.DataSerializable;
+import com.gemstone.gemfire.DataSerializer;
+
+/**
+ * The region key of an {@link EntityLockEntry}: the entityKey and the dispatcherName. Equality and the hash code
+ * are those of the entityKey itself, so keys of any type which are equal as map keys share one lock entry, whatever
+ * their toString(). On a partitioned region the hash code also picks the bucket, so the entityKey's hashCode() must
+ * be the same in every member, as it is for Strings, boxed numbers and value classes.
+ * <p>
+ * Serialized by Gemfire as the entityKey and the dispatcherName, identified by a class id registered with the
+ * {@link EntityLockEntry} class.
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockKey implements DataSerializable {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	static final int CLASS_ID = 2003;
+
+	// Not final, for deserialization only. Keys are never modified once constructed
+	private Object entityKey;
+	private String dispatcherName;
+	private transient int hash;
+
+	/**
+	 * For deserialization only
+	 */
+	public EntityLockKey() {
+	}
+
+	public EntityLockKey(Object entityKey, String dispatcherName) {
+		Assert.notNull(entityKey, "entityKey cannot be null");
+		Assert.notNull(dispatcherName, "dispatcherName cannot be null");
+		this.entityKey = entityKey;
+		this.dispatcherName = dispatcherName;
+	}
+
+	public Object getEntityKey() {
+		return entityKey;
+	}
+
+	public String getDispatcherName() {
+		return dispatcherName;
+	}
+
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+
+		if (!(other instanceof EntityLockKey)) {
+			return false;
+		}
+
+		EntityLockKey otherKey = (EntityLockKey) other;
+		return entityKey.equals(otherKey.entityKey) && dispatcherName.equals(otherKey.dispatcherName);
+	}
+
+	public int hashCode() {
+		// Computed on first use, including after deserialization
+		int result = hash;
+		if (0 == result) {
+			result = 31 * entityKey.hashCode() + dispatcherName.hashCode();
+			hash = result;
+		}
+		return result;
+	}
+
+	public String toString() {
+		return entityKey + ":" + dispatcherName;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializable#toData(java.io.DataOutput)
+	 */
+	@Override
+	public void toData(DataOutput out) throws IOException {
+		DataSerializer.writeObject(entityKey, out);
+		DataSerializer.writeString(dispatcherName, out);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializable#fromData(java.io.DataInput)
+	 */
+	@Override
+	public void fromData(DataInput in) throws IOException, ClassNotFoundException {
+		entityKey = DataSerializer.readObject(in);
+		dispatcherName = DataSerializer.readString(in);
+		hash = 0;
+	}
+}
@@ -0,0 +1,186 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.gemstone.gemfire.cache.EntryEvent;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionEvent;
+import com.gemstone.gemfire.cache.util.CacheListenerAdapter;
+
+/**
+ * Reclaims locks whose lease has expired, e.g., because the process holding them failed. The reaper listens to the
+ * entity lock region and keeps an index of leased entries ordered by expiration, so each call to {@link #reap()} only
+ * visits the entries that have expired.
+ * <p>
+ * An expired entry is removed from the region, which generates the same DESTROYED event as the release of the last
+ * lock, so the dispatcher goes on to process any messages queued for the entity. The removal only succeeds if the
+ * entry has not been changed since it expired, so a lease renewed concurrently is kept, and it is safe to run
+ * a reaper on more than one member.
+ * <p>
+ * Typically invoked by a scheduler, e.g.,
+ * <pre>
+ * &lt;task:scheduled-tasks&gt;
+ *   &lt;task:scheduled ref="entityLockReaper" method="reap" fixed-delay="1000"/&gt;
+ * &lt;/task:scheduled-tasks&gt;
+ * </pre>
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockReaper extends CacheListenerAdapter<EntityLockKey, EntityLockEntry> implements InitializingBean, DisposableBean {
+	private static Logger logger = Logger.getLogger(EntityLockReaper.class);
+
+	private final Region<EntityLockKey, EntityLockEntry> region;
+
+	// expiration -> keys of the entries leased until then, guarded by itself. Region keys need not be comparable
+	private final TreeMap<Long, Set<EntityLockKey>> leases = new TreeMap<Long, Set<EntityLockKey>>();
+
+	private int leaseCount;
+
+	@SuppressWarnings("unchecked")
+	public EntityLockReaper(@SuppressWarnings("rawtypes") Region region) {
+		this.region = (Region<EntityLockKey, EntityLockEntry>) region;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		region.getAttributesMutator().addCacheListener(this);
+		for (EntityLockEntry entry : region.values()) {
+			index(entry);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+		region.getAttributesMutator().removeCacheListener(this);
+		clear();
+	}
+
+	/**
+	 * Remove all entries whose lease has expired
+	 * @return the number of entries removed
+	 */
+	public int reap() {
+		long now = System.currentTimeMillis();
+		List<Map.Entry<Long, Set<EntityLockKey>>> expired = new ArrayList<Map.Entry<Long, Set<EntityLockKey>>>();
+		synchronized (leases) {
+			while (!leases.isEmpty() && leases.firstKey() <= now) {
+				Map.Entry<Long, Set<EntityLockKey>> lease = leases.pollFirstEntry();
+				leaseCount -= lease.getValue().size();
+				expired.add(lease);
+			}
+		}
+		// the region operations are outside the lock, which the listener callbacks they cause take
+		int reaped = 0;
+		for (Map.Entry<Long, Set<EntityLockKey>> lease : expired) {
+			for (EntityLockKey key : lease.getValue()) {
+				EntityLockEntry entry = region.get(key);
+				if (null != entry && entry.getLeaseExpiration() == lease.getKey() && region.remove(key, entry)) {
+					logger.warn("lease expired on " + entry);
+					reaped++;
+				}
+			}
+		}
+		return reaped;
+	}
+
+	/**
+	 *
+	 * @return the number of leased entries
+	 */
+	public int getLeaseCount() {
+		synchronized (leases) {
+			return leaseCount;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.util.CacheListenerAdapter#afterCreate(com.gemstone.gemfire.cache.EntryEvent)
+	 */
+	@Override
+	public void afterCreate(EntryEvent<EntityLockKey, EntityLockEntry> event) {
+		index(event.getNewValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.util.CacheListenerAdapter#afterUpdate(com.gemstone.gemfire.cache.EntryEvent)
+	 */
+	@Override
+	public void afterUpdate(EntryEvent<EntityLockKey, EntityLockEntry> event) {
+		unindex(event.getOldValue());
+		index(event.getNewValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.util.CacheListenerAdapter#afterDestroy(com.gemstone.gemfire.cache.EntryEvent)
+	 */
+	@Override
+	public void afterDestroy(EntryEvent<EntityLockKey, EntityLockEntry> event) {
+		unindex(event.getOldValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.cache.util.CacheListenerAdapter#afterRegionClear(com.gemstone.gemfire.cache.RegionEvent)
+	 */
+	@Override
+	public void afterRegionClear(RegionEvent<EntityLockKey, EntityLockEntry> event) {
+		clear();
+	}
+
+	private void index(EntityLockEntry entry) {
+		if (null != entry && entry.getLeaseExpiration() > 0) {
+			synchronized (leases) {
+				Set<EntityLockKey> keys = leases.get(entry.getLeaseExpiration());
+				if (null == keys) {
+					keys = new HashSet<EntityLockKey>();
+					leases.put(entry.getLeaseExpiration(), keys);
+				}
+				if (keys.add(entry.getKey())) {
+					leaseCount++;
+				}
+			}
+		}
+	}
+
+	private void unindex(EntityLockEntry entry) {
+		if (null != entry && entry.getLeaseExpiration() > 0) {
+			synchronized (leases) {
+				Set<EntityLockKey> keys = leases.get(entry.getLeaseExpiration());
+				if (null != keys && keys.remove(entry.getKey())) {
+					leaseCount--;
+					if (keys.isEmpty()) {
+						leases.remove(entry.getLeaseExpiration());
+					}
+				}
+			}
+		}
+	}
+
+	private void clear() {
+		synchronized (leases) {
+			leases.clear();
+			leaseCount = 0;
+		}
+	}
+}
@@ -12,134 +12,199 @@ import org.springframework.util.Assert;
 import com.gemstone.gemfire.cache.Region;
 
 /**
- * An implementation of @{link EntityLock} backed by Gemfire. 
- * This creates a separate namespace for the dispatcherName to allow for multiple dispatchers
- * 
+ * An implementation of @{link EntityLock} backed by Gemfire.
+ * This creates a separate namespace for the dispatcherName to allow for multiple dispatchers.
+ * The region provides thread safety, so no operation is synchronized on this instance.
+ * <p>
+ * All locks on an entity are held in a single {@link EntityLockEntry}, so lookups are a local read of one
+ * entry and every lock, release or fork is a single atomic region operation (putIfAbsent, replace or remove).
+ * The entry is destroyed when the last lock is released, which generates the DESTROYED event used to
+ * notify the dispatcher.
+ * <p>
+ * Locking a batch of entities saves no round trips on a replicated region: each entity is still a putIfAbsent
+ * written to every member, as a putAll could overwrite locks taken concurrently. Use a {@link PartitionedEntityLock}
+ * to lock a batch in one function execution.
+ * <p>
+ * Region keys are {@link EntityLockKey}s of the entityKey and the dispatcherName, equal when the entityKeys are equal,
+ * so keys of any type are locked as they are compared, not by their string form.
+ * <p>
+ * If a leaseTime is set, every write renews the lease on the entity's locks. Locks left behind by a failed process
+ * are reclaimed by an {@link EntityLockReaper} once the lease expires.
+ *
  * @author David Turanski
  *
  */
 public class GemfireEntityLock implements EntityLock   {
 
- 
-	private final Region<String,LockNode> region;
+
+	private final Region<EntityLockKey,EntityLockEntry> region;
 	private static Logger logger = Logger.getLogger(GemfireEntityLock.class);
-	private final String dispatcherName; 
-	
+	private final String dispatcherName;
+	private volatile long leaseTime;
+
 	@SuppressWarnings("unused")
 	private GemfireEntityLock(){
 		region = null;
 		dispatcherName = null;
-		 
+
 	}
-	
+
 	@SuppressWarnings("unchecked")
 	public GemfireEntityLock( @SuppressWarnings("rawtypes") Region region, String dispatcherName){
-		this.region = ( Region<String,LockNode>)region;
-		this.dispatcherName = dispatcherName;	
+		this.region = ( Region<EntityLockKey,EntityLockEntry>)region;
+		this.dispatcherName = dispatcherName;
+	}
+
+	/**
+	 *
+	 * @param leaseTime the time in millis for which locks are held without being renewed. 0 (the default) means
+	 * locks are held until released
+	 */
+	public void setLeaseTime(long leaseTime) {
+		Assert.isTrue(leaseTime >= 0, "leaseTime must not be negative");
+		this.leaseTime = leaseTime;
+	}
+
+	/**
+	 * Extend the lease on all locks held on the entity
+	 * @param entityKey
+	 * @return false if the entity is not locked
+	 */
+	public boolean renewLease(Object entityKey) {
+		EntityLockKey key = keyFor(entityKey);
+		while (true) {
+			EntityLockEntry entry = region.get(key);
+			if (null == entry) {
+				return false;
+			}
+			if (region.replace(key, entry, leased(entry))) {
+				return true;
+			}
+		}
 	}
 
     /*
      * (non-Javadoc)
-     * @see org.springframework.integration.strictordering.EntityLock#lockEntity(org.springframework.integration.strictordering.LockNode)
+     * @see org.springframework.integration.strictordering.EntityLock#lockEntity(java.lang.Object, java.lang.String)
      */
 	@Override
-	public synchronized void lockEntity(String entityKey, String lockName) {
-		LockNode lockNode = new LockNode(entityKey,lockName,dispatcherName);
-		region.put(lockNode.getKey(),lockNode);
+	public void lockEntity(Object entityKey, String lockName) {
+		EntityLockKey key = keyFor(entityKey);
+		while (true) {
+			EntityLockEntry entry = region.get(key);
+			if (null == entry) {
+				if (null == region.putIfAbsent(key, leased(new EntityLockEntry(entityKey, dispatcherName, lockName)))) {
+					return;
+				}
+			} else if (entry.contains(lockName)) {
+				return;
+			} else if (region.replace(key, entry, leased(entry.with(lockName)))) {
+				return;
+			}
+		}
 	}
-	
+
     /*
      * (non-Javadoc)
-     * @see org.springframework.integration.strictordering.EntityLock#exists(java.lang.String)
+     * @see org.springframework.integration.strictordering.EntityLock#lockEntityIfAbsent(java.lang.Object, java.lang.String)
      */
 	@Override
-	public boolean exists(String entityKey) {
-		Collection<LockNode> lockNodes = region.values();
-		synchronized (lockNodes){
-		  for(LockNode lockNode: lockNodes){
-			if (lockNode.getEntityKey().equals(entityKey) && lockNode.getDispatcherName().equals(dispatcherName)){
-				return true;
+	public boolean lockEntityIfAbsent(Object entityKey, String lockName) {
+		return null == region.putIfAbsent(keyFor(entityKey), leased(new EntityLockEntry(entityKey, dispatcherName, lockName)));
+	}
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.integration.strictordering.EntityLock#lockEntitiesIfAbsent(java.util.Collection, java.lang.String)
+     */
+	@Override
+	public Set<Object> lockEntitiesIfAbsent(Collection<?> entityKeys, String lockName) {
+		// putAll would overwrite a lock taken by another dispatcher, so each entity is a putIfAbsent, one distributed
+		// write per entity. Entities already locked are skipped by a read, which is local on a replicated region
+		Set<Object> locked = new HashSet<Object>();
+		for (Object entityKey: entityKeys) {
+			if (!exists(entityKey) && lockEntityIfAbsent(entityKey, lockName)) {
+				locked.add(entityKey);
 			}
-		  }
 		}
-		return false;
+		return locked;
 	}
-	
+
     /*
      * (non-Javadoc)
-     * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(org.springframework.integration.strictordering.LockNode)
+     * @see org.springframework.integration.strictordering.EntityLock#exists(java.lang.Object)
      */
 	@Override
-	public synchronized void releaseEntity(String entityKey, String lockName) {
-		removeLock( new LockNode(entityKey, lockName, dispatcherName) );
+	public boolean exists(Object entityKey) {
+		return region.containsKey(keyFor(entityKey));
 	}
-	
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(java.lang.Object, java.lang.String)
+     */
+	@Override
+	public void releaseEntity(Object entityKey, String lockName) {
+		EntityLockKey key = keyFor(entityKey);
+		if (logger.isDebugEnabled()) {
+			logger.debug("entity [" + entityKey + "] is being removed by [" + lockName + "]");
+		}
+		while (true) {
+			EntityLockEntry entry = region.get(key);
+			if (null == entry || !entry.contains(lockName)) {
+				logger.debug("no lock [" + lockName + "] on entity [" + entityKey + "]");
+				return;
+			}
+			boolean released = (entry.size() == 1) ? region.remove(key, entry)
+					: region.replace(key, entry, leased(entry.without(lockName)));
+			if (released) {
+				return;
+			}
+		}
+	}
+
 	 /*
 	  * (non-Javadoc)
-	  * @see org.springframework.integration.strictordering.EntityLock#getLocks(java.lang.String)
+	  * @see org.springframework.integration.strictordering.EntityLock#getLocks(java.lang.Object)
 	  */
 	@Override
-	public synchronized Set<LockNode> getLocks(String entityKey) {
-		Collection<LockNode> lockNodes = region.values();
-		Set<LockNode> results = new HashSet<LockNode>();
-		for(LockNode lockNode: lockNodes){
-			if (lockNode.getEntityKey().equals(entityKey) && lockNode.getDispatcherName().equals(dispatcherName)){
-				results.add(lockNode);
-			}
-		}
-		return results;
-//TODO: May not be worth a query. This runs slower without any indexing and the number of entries in the region should be relatively small		
-//		SelectResults<LockNode> results = null;
-//		try {
-//			results = region.query(" dispatcherName = '" + dispatcherName + "' and entityKey = '" + entityKey  + "'");
-//		} catch (FunctionDomainException e) {
-//			throw new RuntimeException(e);
-//		} catch (TypeMismatchException e) {
-//			throw new RuntimeException(e);
-//		} catch (NameResolutionException e) {
-//			throw new RuntimeException(e);
-//		} catch (QueryInvocationTargetException e) {
-//			throw new RuntimeException(e);
-//		}
-//		
-//		return results.asSet();
-	}
-	
+	public Set<LockNode> getLocks(Object entityKey) {
+		EntityLockEntry entry = region.get(keyFor(entityKey));
+		return (null == entry) ? new HashSet<LockNode>() : entry.getLockNodes();
+	}
+
 	/*
 	 * (non-Javadoc)
-	 * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(java.lang.String)
+	 * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(java.lang.Object)
 	 */
 	@Override
-	public synchronized void releaseEntity(String entityKey) {
-		for (LockNode lockNode:getLocks(entityKey)){
-			this.removeLock(lockNode);
+	public void releaseEntity(Object entityKey) {
+		logger.debug("all locks on entity [" + entityKey + "] are being removed");
+		try {
+	 	 region.destroy(keyFor(entityKey));
+		} catch (Exception e){
+			logger.debug(e.getMessage());
 		}
 	}
-  
+
 	/*
 	 * (non-Javadoc)
-	 * @see org.springframework.integration.strictordering.EntityLock#fork(java.lang.String, java.lang.String[])
+	 * @see org.springframework.integration.strictordering.EntityLock#fork(java.lang.Object, java.lang.String, java.lang.String[])
 	 */
 	@Override
-	public synchronized void fork(String entityKey, String fromLockName, String... toLockNames) {
+	public void fork(Object entityKey, String fromLockName, String... toLockNames) {
 		if (fromLockName == null) {
 			fromLockName = dispatcherName;
 		}
-		Assert.isTrue(exists(entityKey, fromLockName),  fromLockName + " does not have a lock for entity [" + entityKey + "]" );
-		 for (String lockName: toLockNames){
-			 lockEntity(entityKey, lockName);
-		 }
-		 removeLock( new LockNode(entityKey, fromLockName, dispatcherName) );
-	}
-	
-	protected final void removeLock(LockNode lockNode) {
-	
-		Assert.notNull(lockNode, "lockNode cannot be null");
-		logger.debug("entity [" + lockNode.getEntityKey() + "] is being removed by [" + lockNode.getLockName() + "]");
-		try {
-	 	 region.destroy(lockNode.getKey()); 
-		} catch (Exception e){
-			logger.debug(e.getMessage());
+		EntityLockKey key = keyFor(entityKey);
+		while (true) {
+			EntityLockEntry entry = region.get(key);
+			Assert.isTrue(null != entry && entry.contains(fromLockName),  fromLockName + " does not have a lock for entity [" + entityKey + "]" );
+			EntityLockEntry forked = leased(entry.fork(fromLockName, toLockNames));
+			boolean replaced = (forked.size() == 0) ? region.remove(key, entry) : region.replace(key, entry, forked);
+			if (replaced) {
+				return;
+			}
 		}
 	}
 
@@ -149,14 +214,29 @@ public class GemfireEntityLock implements EntityLock   {
 	}
 
 	@Override
-	public boolean exists(String entityKey, String lockName) {
-		LockNode lockNode = new LockNode(entityKey, lockName, dispatcherName);
-		//logger.debug("exists [" + lockNode.getKey() + "] ?");
-		return region.containsKey(lockNode.getKey());
-	}	
-}
-	
-	
-  
+	public boolean exists(Object entityKey, String lockName) {
+		EntityLockEntry entry = region.get(keyFor(entityKey));
+		return null != entry && entry.contains(lockName);
+	}
+
+	/**
+	 *
+	 * @return the lease time in millis, 0 if locks are held until released
+	 */
+	public long getLeaseTime() {
+		return leaseTime;
+	}
 
- 
+	/**
+	 *
+	 * @param entityKey
+	 * @return the region key for the entity's locks
+	 */
+	protected EntityLockKey keyFor(Object entityKey) {
+		return EntityLockEntry.keyFor(entityKey, dispatcherName);
+	}
+
+	private EntityLockEntry leased(EntityLockEntry entry) {
+		return (leaseTime == 0) ? entry : entry.withLease(System.currentTimeMillis() + leaseTime);
+	}
+}
@@ -0,0 +1,67 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.springframework.integration.strictordering.LockNode;
+
+import com.gemstone.gemfire.DataSerializer;
+
+/**
+ * Serializes a {@link LockNode} for Gemfire as the entityKey and two strings, identified by a registered id rather
+ * than the class name. Registered with the {@link EntityLockEntry} class, so LockNode itself does not depend on
+ * Gemfire.
+ *
+ * @author David Turanski
+ *
+ */
+public class LockNodeSerializer extends DataSerializer {
+	static final int ID = 2001;
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializer#getSupportedClasses()
+	 */
+	@Override
+	public Class<?>[] getSupportedClasses() {
+		return new Class<?>[] {LockNode.class};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializer#toData(java.lang.Object, java.io.DataOutput)
+	 */
+	@Override
+	public boolean toData(Object o, DataOutput out) throws IOException {
+		if (!(o instanceof LockNode)) {
+			return false;
+		}
+		LockNode lockNode = (LockNode) o;
+		DataSerializer.writeObject(lockNode.getEntityKey(), out);
+		DataSerializer.writeString(lockNode.getLockName(), out);
+		DataSerializer.writeString(lockNode.getDispatcherName(), out);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializer#fromData(java.io.DataInput)
+	 */
+	@Override
+	public Object fromData(DataInput in) throws IOException, ClassNotFoundException {
+		Object entityKey = DataSerializer.readObject(in);
+		String lockName = DataSerializer.readString(in);
+		String dispatcherName = DataSerializer.readString(in);
+		return new LockNode(entityKey, lockName, dispatcherName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.gemstone.gemfire.DataSerializer#getId()
+	 */
+	@Override
+	public int getId() {
+		return ID;
+	}
+}
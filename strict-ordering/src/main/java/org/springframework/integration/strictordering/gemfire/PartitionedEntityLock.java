@@ -0,0 +1,149 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.util.Assert;
+
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.execute.FunctionException;
+import com.gemstone.gemfire.cache.execute.FunctionService;
+import com.gemstone.gemfire.cache.partition.PartitionRegionHelper;
+
+/**
+ * A {@link GemfireEntityLock} for a partitioned region. Lock entries are partitioned by their region key, which is
+ * formed from the entityKey, so each write goes only to the primary and redundant copies of the entity's bucket
+ * rather than to every member, and lock throughput grows with the number of members.
+ * <p>
+ * Operations which read and then conditionally write the entry (lock, lock if absent, release, fork and lease
+ * renewal) are executed by an {@link EntityLockFunction} on the primary for the entity, so each is a single network
+ * hop. The Dispatcher checks and takes a lock with lockEntityIfAbsent(), so each dispatch decision is one function
+ * execution. Bulk locking is one function execution, run by each member hosting a primary for some of the entities.
+ * Reads (exists, getLocks) are single region operations already.
+ * <p>
+ * A member that must be notified of every release, e.g., the dispatcher's cache listener, must declare the region
+ * with an interest policy of ALL, since by default partitioned region listeners see events for local data only.
+ *
+ * @author David Turanski
+ *
+ */
+public class PartitionedEntityLock extends GemfireEntityLock {
+	private final Region<?, ?> region;
+
+	private final EntityLockFunction function = new EntityLockFunction();
+
+	/**
+	 *
+	 * @param region - a partitioned region
+	 * @param dispatcherName
+	 */
+	public PartitionedEntityLock(@SuppressWarnings("rawtypes") Region region, String dispatcherName) {
+		super(region, dispatcherName);
+		Assert.isTrue(PartitionRegionHelper.isPartitionedRegion(region), "region [" + region.getName()
+				+ "] is not a partitioned region");
+		this.region = region;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#lockEntity(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public void lockEntity(Object entityKey, String lockName) {
+		execute(EntityLockFunction.LOCK, entityKey, lockName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#lockEntityIfAbsent(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public boolean lockEntityIfAbsent(Object entityKey, String lockName) {
+		return execute(EntityLockFunction.LOCK_IF_ABSENT, entityKey, lockName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#lockEntitiesIfAbsent(java.util.Collection, java.lang.String)
+	 */
+	@Override
+	public Set<Object> lockEntitiesIfAbsent(Collection<?> entityKeys, String lockName) {
+		Set<Object> locked = new HashSet<Object>();
+		if (entityKeys.isEmpty()) {
+			return locked;
+		}
+		Set<EntityLockKey> keys = new HashSet<EntityLockKey>();
+		for (Object entityKey: entityKeys) {
+			keys.add(keyFor(entityKey));
+		}
+		Object[] args = new Object[] {EntityLockFunction.LOCK_ALL_IF_ABSENT, new ArrayList<Object>(entityKeys),
+				getDispatcherName(), lockName, null, getLeaseTime()};
+		try {
+			// one result, the entities locked, from each member
+			List<?> results = (List<?>) FunctionService.onRegion(region)
+					.withFilter(keys)
+					.withArgs(args)
+					.execute(function)
+					.getResult();
+			for (Object result: results) {
+				locked.addAll((Collection<?>) result);
+			}
+			return locked;
+		} catch (FunctionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#releaseEntity(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public void releaseEntity(Object entityKey, String lockName) {
+		execute(EntityLockFunction.RELEASE, entityKey, lockName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#fork(java.lang.Object, java.lang.String, java.lang.String[])
+	 */
+	@Override
+	public void fork(Object entityKey, String fromLockName, String... toLockNames) {
+		execute(EntityLockFunction.FORK, entityKey, (null == fromLockName) ? getDispatcherName() : fromLockName,
+				toLockNames);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.gemfire.GemfireEntityLock#renewLease(java.lang.Object)
+	 */
+	@Override
+	public boolean renewLease(Object entityKey) {
+		return execute(EntityLockFunction.RENEW, entityKey, null);
+	}
+
+	private boolean execute(String operation, Object entityKey, String lockName, String... toLockNames) {
+		Object[] args = new Object[] {operation, entityKey, getDispatcherName(), lockName, toLockNames, getLeaseTime()};
+		try {
+			List<?> results = (List<?>) FunctionService.onRegion(region)
+					.withFilter(Collections.singleton(keyFor(entityKey)))
+					.withArgs(args)
+					.execute(function)
+					.getResult();
+			return (Boolean) results.get(0);
+		} catch (FunctionException e) {
+			// e.g., an IllegalArgumentException for a fork without the lock
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package org.springframework.integration.strictordering.local;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.strictordering.EntityLock;
+import org.springframework.integration.strictordering.LockNode;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * An in-JVM implementation of {@link EntityLock} for single node deployments. The lock names held on each entity
+ * are stored as an immutable set which is replaced atomically, so no operation blocks and operations on different
+ * entities never contend.
+ * <p>
+ * Each released {@link LockNode} is sent to the releaseChannel, if set, in the same way the Gemfire region's
+ * DESTROYED events are delivered, so this can replace the {@link org.springframework.integration.strictordering.gemfire.GemfireEntityLock}
+ * and its cache listener in the Dispatcher wiring.
+ *
+ * @author David Turanski
+ *
+ */
+public class LocalEntityLock implements EntityLock {
+	private static Logger logger = Logger.getLogger(LocalEntityLock.class);
+
+	private final String dispatcherName;
+
+	// entityKey -> names of locks held on the entity
+	private final ConcurrentMap<Object, Set<String>> locks = new ConcurrentHashMap<Object, Set<String>>();
+
+	private final AtomicInteger lockCount = new AtomicInteger();
+
+	private volatile MessageChannel releaseChannel;
+
+	/**
+	 *
+	 * @param dispatcherName
+	 */
+	public LocalEntityLock(String dispatcherName) {
+		this.dispatcherName = dispatcherName;
+	}
+
+	/**
+	 *
+	 * @param releaseChannel the channel to receive a {@link LockNode} for each released lock
+	 */
+	public void setReleaseChannel(MessageChannel releaseChannel) {
+		this.releaseChannel = releaseChannel;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#getDispatcherName()
+	 */
+	@Override
+	public String getDispatcherName() {
+		return dispatcherName;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#lockEntity(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public void lockEntity(Object entityKey, String lockName) {
+		while (true) {
+			Set<String> lockNames = locks.get(entityKey);
+			if (null == lockNames) {
+				if (null == locks.putIfAbsent(entityKey, Collections.singleton(lockName))) {
+					lockCount.incrementAndGet();
+					return;
+				}
+			} else if (lockNames.contains(lockName)) {
+				return;
+			} else if (locks.replace(entityKey, lockNames, with(lockNames, lockName))) {
+				lockCount.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#lockEntityIfAbsent(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public boolean lockEntityIfAbsent(Object entityKey, String lockName) {
+		if (null == locks.putIfAbsent(entityKey, Collections.singleton(lockName))) {
+			lockCount.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#lockEntitiesIfAbsent(java.util.Collection, java.lang.String)
+	 */
+	@Override
+	public Set<Object> lockEntitiesIfAbsent(Collection<?> entityKeys, String lockName) {
+		Set<Object> locked = new HashSet<Object>();
+		for (Object entityKey : entityKeys) {
+			if (lockEntityIfAbsent(entityKey, lockName)) {
+				locked.add(entityKey);
+			}
+		}
+		return locked;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#exists(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public boolean exists(Object entityKey, String lockName) {
+		Set<String> lockNames = locks.get(entityKey);
+		return null != lockNames && lockNames.contains(lockName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#exists(java.lang.Object)
+	 */
+	@Override
+	public boolean exists(Object entityKey) {
+		return locks.containsKey(entityKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(java.lang.Object, java.lang.String)
+	 */
+	@Override
+	public void releaseEntity(Object entityKey, String lockName) {
+		if (removeLockName(entityKey, lockName)) {
+			released(entityKey, lockName);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#releaseEntity(java.lang.Object)
+	 */
+	@Override
+	public void releaseEntity(Object entityKey) {
+		Set<String> lockNames = locks.remove(entityKey);
+		if (null != lockNames) {
+			lockCount.addAndGet(-lockNames.size());
+			for (String lockName : lockNames) {
+				released(entityKey, lockName);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#fork(java.lang.Object, java.lang.String, java.lang.String[])
+	 */
+	@Override
+	public void fork(Object entityKey, String fromLockName, String... toLockNames) {
+		if (fromLockName == null) {
+			fromLockName = dispatcherName;
+		}
+		while (true) {
+			Set<String> lockNames = locks.get(entityKey);
+			Assert.isTrue(null != lockNames && lockNames.contains(fromLockName),
+					fromLockName + " does not have a lock for entity [" + entityKey + "]");
+			Set<String> forked = new HashSet<String>(lockNames);
+			forked.remove(fromLockName);
+			Collections.addAll(forked, toLockNames);
+			if (forked.isEmpty() ? locks.remove(entityKey, lockNames) : locks.replace(entityKey, lockNames, Collections.unmodifiableSet(forked))) {
+				lockCount.addAndGet(forked.size() - lockNames.size());
+				break;
+			}
+		}
+		released(entityKey, fromLockName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.integration.strictordering.EntityLock#getLocks(java.lang.Object)
+	 */
+	@Override
+	public Set<LockNode> getLocks(Object entityKey) {
+		Set<LockNode> results = new HashSet<LockNode>();
+		Set<String> lockNames = locks.get(entityKey);
+		if (null != lockNames) {
+			for (String lockName : lockNames) {
+				results.add(new LockNode(entityKey, lockName, dispatcherName));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 *
+	 * @return the total number of locks held
+	 */
+	public int getLockCount() {
+		return lockCount.get();
+	}
+
+	private boolean removeLockName(Object entityKey, String lockName) {
+		while (true) {
+			Set<String> lockNames = locks.get(entityKey);
+			if (null == lockNames || !lockNames.contains(lockName)) {
+				return false;
+			}
+			boolean removed = (lockNames.size() == 1) ? locks.remove(entityKey, lockNames)
+					: locks.replace(entityKey, lockNames, without(lockNames, lockName));
+			if (removed) {
+				lockCount.decrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	private void released(Object entityKey, String lockName) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("entity [" + entityKey + "] is being removed by [" + lockName + "]");
+		}
+		MessageChannel channel = releaseChannel;
+		if (null != channel) {
+			channel.send(MessageBuilder.withPayload(new LockNode(entityKey, lockName, dispatcherName)).build());
+		}
+	}
+
+	private static Set<String> with(Set<String> lockNames, String lockName) {
+		Set<String> result = new HashSet<String>(lockNames);
+		result.add(lockName);
+		return Collections.unmodifiableSet(result);
+	}
+
+	private static Set<String> without(Set<String> lockNames, String lockName) {
+		Set<String> result = new HashSet<String>(lockNames);
+		result.remove(lockName);
+		return Collections.unmodifiableSet(result);
+	}
+}
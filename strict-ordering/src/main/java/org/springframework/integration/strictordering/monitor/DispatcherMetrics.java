@@ -0,0 +1,239 @@
+package org.springframework.integration.strictordering.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.strictordering.Dispatcher;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * Collects metrics for a {@link Dispatcher}, for export as an MBean, e.g., with &lt;context:mbean-export/&gt;. All
+ * recording is lock free and uses fixed memory, apart from the lock time of each currently locked entity.
+ * <ul>
+ * <li>the number of queued messages and the entities with the deepest queues</li>
+ * <li>the time from locking an entity for dispatch to the release of all its locks</li>
+ * <li>the time messages spend queued</li>
+ * <li>the number of messages dispatched, in total and per second over the last minute</li>
+ * <li>the entities receiving the most messages, estimated by a {@link HotKeySketch}</li>
+ * </ul>
+ * Times are in milliseconds.
+ *
+ * @author David Turanski
+ *
+ */
+@ManagedResource(description = "Strict ordering dispatcher metrics")
+public class DispatcherMetrics implements InitializingBean {
+	private static final int RATE_WINDOW_SECONDS = 60;
+
+	private final Dispatcher dispatcher;
+
+	private int topN = 10;
+
+	private final AtomicLong queued = new AtomicLong();
+
+	private final AtomicLong dispatched = new AtomicLong();
+
+	// Dispatched messages per second, for the last RATE_WINDOW_SECONDS seconds
+	private final AtomicLongArray dispatchedPerSecond = new AtomicLongArray(RATE_WINDOW_SECONDS);
+
+	private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS);
+
+	private final Histogram lockHoldTimes = new Histogram();
+
+	private final Histogram queueDwellTimes = new Histogram();
+
+	private volatile HotKeySketch hotKeys = new HotKeySketch(4096, 10);
+
+	// entityKey -> time locked by the dispatcher
+	private final ConcurrentMap<Object, Long> lockTimes = new ConcurrentHashMap<Object, Long>();
+
+	/**
+	 *
+	 * @param dispatcher
+	 */
+	public DispatcherMetrics(Dispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		dispatcher.setMetrics(this);
+	}
+
+	/**
+	 *
+	 * @param topN - the number of deepest queues and hot keys reported. Default is 10
+	 */
+	public void setTopN(int topN) {
+		Assert.isTrue(topN > 0, "topN must be greater than 0");
+		this.topN = topN;
+		this.hotKeys = new HotKeySketch(4096, topN);
+	}
+
+	public void messageReceived(Object entityKey) {
+		hotKeys.add(entityKey);
+	}
+
+	public void messageDispatched() {
+		dispatched.incrementAndGet();
+		long second = System.currentTimeMillis() / 1000;
+		int slot = (int) (second % RATE_WINDOW_SECONDS);
+		long slotSecond = rateSeconds.get(slot);
+		if (slotSecond != second && rateSeconds.compareAndSet(slot, slotSecond, second)) {
+			dispatchedPerSecond.set(slot, 0);
+		}
+		dispatchedPerSecond.incrementAndGet(slot);
+	}
+
+	public void messageQueued() {
+		queued.incrementAndGet();
+	}
+
+	/**
+	 *
+	 * @param queuedAt - the time the message was queued
+	 */
+	public void messageDequeued(long queuedAt) {
+		queued.decrementAndGet();
+		queueDwellTimes.record(System.currentTimeMillis() - queuedAt);
+	}
+
+	public void entityLocked(Object entityKey) {
+		lockTimes.put(entityKey, System.currentTimeMillis());
+	}
+
+	public void entityReleased(Object entityKey) {
+		Long lockedAt = lockTimes.remove(entityKey);
+		if (null != lockedAt) {
+			lockHoldTimes.record(System.currentTimeMillis() - lockedAt);
+		}
+	}
+
+	@ManagedAttribute(description = "Messages waiting for a locked entity")
+	public long getQueuedCount() {
+		return queued.get();
+	}
+
+	@ManagedAttribute(description = "Entities with the most queued messages, as entityKey=queued")
+	public String[] getDeepestQueues() {
+		return toStrings(dispatcher.getDeepestQueues(topN).entrySet());
+	}
+
+	@ManagedAttribute(description = "Entities receiving the most messages, as entityKey=estimated count")
+	public String[] getHotKeys() {
+		return toStrings(hotKeys.getHotKeys());
+	}
+
+	@ManagedAttribute(description = "Entities currently locked for dispatch")
+	public int getLockedCount() {
+		return lockTimes.size();
+	}
+
+	@ManagedAttribute(description = "Messages dispatched")
+	public long getDispatchCount() {
+		return dispatched.get();
+	}
+
+	@ManagedAttribute(description = "Messages dispatched per second over the last minute")
+	public double getDispatchRate() {
+		long second = System.currentTimeMillis() / 1000;
+		long total = 0;
+		for (int slot = 0; slot < RATE_WINDOW_SECONDS; slot++) {
+			// exclude the current, partial second
+			long slotSecond = rateSeconds.get(slot);
+			if (slotSecond < second && slotSecond >= second - RATE_WINDOW_SECONDS) {
+				total += dispatchedPerSecond.get(slot);
+			}
+		}
+		return (double) total / RATE_WINDOW_SECONDS;
+	}
+
+	@ManagedAttribute(description = "Number of lock hold times recorded")
+	public long getLockHoldCount() {
+		return lockHoldTimes.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean lock hold time (ms)")
+	public double getLockHoldTimeMean() {
+		return lockHoldTimes.getMean();
+	}
+
+	@ManagedAttribute(description = "Median lock hold time (ms)")
+	public long getLockHoldTimeP50() {
+		return lockHoldTimes.getPercentile(50);
+	}
+
+	@ManagedAttribute(description = "99th percentile lock hold time (ms)")
+	public long getLockHoldTimeP99() {
+		return lockHoldTimes.getPercentile(99);
+	}
+
+	@ManagedAttribute(description = "Maximum lock hold time (ms)")
+	public long getLockHoldTimeMax() {
+		return lockHoldTimes.getMax();
+	}
+
+	@ManagedAttribute(description = "Number of queue dwell times recorded")
+	public long getQueueDwellCount() {
+		return queueDwellTimes.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean queue dwell time (ms)")
+	public double getQueueDwellTimeMean() {
+		return queueDwellTimes.getMean();
+	}
+
+	@ManagedAttribute(description = "Median queue dwell time (ms)")
+	public long getQueueDwellTimeP50() {
+		return queueDwellTimes.getPercentile(50);
+	}
+
+	@ManagedAttribute(description = "99th percentile queue dwell time (ms)")
+	public long getQueueDwellTimeP99() {
+		return queueDwellTimes.getPercentile(99);
+	}
+
+	@ManagedAttribute(description = "Maximum queue dwell time (ms)")
+	public long getQueueDwellTimeMax() {
+		return queueDwellTimes.getMax();
+	}
+
+	/**
+	 * Clear the histograms and hot keys. The queued count and lock times are current state and are kept.
+	 */
+	@ManagedOperation(description = "Reset the histograms and hot keys")
+	public void reset() {
+		lockHoldTimes.reset();
+		queueDwellTimes.reset();
+		hotKeys.reset();
+	}
+
+	public Histogram getLockHoldTimes() {
+		return lockHoldTimes;
+	}
+
+	public Histogram getQueueDwellTimes() {
+		return queueDwellTimes;
+	}
+
+	private static String[] toStrings(Iterable<? extends Map.Entry<?, ?>> entries) {
+		List<String> results = new ArrayList<String>();
+		for (Map.Entry<?, ?> entry : entries) {
+			results.add(entry.getKey() + "=" + entry.getValue());
+		}
+		return results.toArray(new String[results.size()]);
+	}
+}
@@ -0,0 +1,154 @@
+package org.springframework.integration.strictordering.monitor;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * Estimates the most frequent keys in fixed memory, however many distinct keys are seen. Occurrences are counted in
+ * a count-min sketch, which may overestimate but never underestimates a count, and the keys with the highest
+ * estimates are kept as a small set of candidates.
+ *
+ * @author David Turanski
+ *
+ */
+public class HotKeySketch {
+	private static final int DEPTH = 4;
+
+	private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+	private final int widthMask;
+
+	private final AtomicLongArray counts;
+
+	private final int maxHotKeys;
+
+	// copied on write under this, so that add() can check membership without locking
+	private volatile Set<Object> hotKeys = Collections.emptySet();
+
+	// the lowest estimate among the hot keys once full. Avoids synchronizing for keys which cannot qualify
+	private volatile long threshold;
+
+	/**
+	 *
+	 * @param width - counters per row, rounded up to a power of 2. Larger is more accurate
+	 * @param maxHotKeys - the number of hot keys tracked
+	 */
+	public HotKeySketch(int width, int maxHotKeys) {
+		Assert.isTrue(width > 0, "width must be greater than 0");
+		Assert.isTrue(maxHotKeys > 0, "maxHotKeys must be greater than 0");
+		int size = 1;
+		while (size < width) {
+			size <<= 1;
+		}
+		this.widthMask = size - 1;
+		this.counts = new AtomicLongArray(size * DEPTH);
+		this.maxHotKeys = maxHotKeys;
+	}
+
+	/**
+	 * Count an occurrence of the key
+	 * @param key
+	 * @return the estimated count
+	 */
+	public long add(Object key) {
+		int h = key.hashCode();
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, counts.incrementAndGet(index(row, h)));
+		}
+		// Keys already tracked are not offered again, so hot keys never contend for the monitor
+		if (estimate > threshold && !hotKeys.contains(key)) {
+			offer(key, estimate);
+		}
+		return estimate;
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the estimated count
+	 */
+	public long estimate(Object key) {
+		int h = key.hashCode();
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, counts.get(index(row, h)));
+		}
+		return estimate;
+	}
+
+	/**
+	 *
+	 * @return the hot keys and their estimated counts, highest first
+	 */
+	public List<Map.Entry<Object, Long>> getHotKeys() {
+		List<Map.Entry<Object, Long>> entries = new ArrayList<Map.Entry<Object, Long>>();
+		for (Object key : hotKeys) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<Object, Long>(key, estimate(key)));
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<Object, Long>>() {
+			public int compare(Map.Entry<Object, Long> e1, Map.Entry<Object, Long> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		return entries;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		hotKeys = Collections.emptySet();
+		threshold = 0;
+	}
+
+	// Tracked keys are not updated as they are counted, so their current estimates are read from the sketch here
+	private synchronized void offer(Object key, long estimate) {
+		if (hotKeys.contains(key)) {
+			return;
+		}
+		Set<Object> updated = new HashSet<Object>(hotKeys);
+		if (updated.size() >= maxHotKeys) {
+			Object coldest = null;
+			long lowest = Long.MAX_VALUE;
+			for (Object hotKey : updated) {
+				long hotKeyEstimate = estimate(hotKey);
+				if (hotKeyEstimate < lowest) {
+					lowest = hotKeyEstimate;
+					coldest = hotKey;
+				}
+			}
+			if (estimate <= lowest) {
+				threshold = lowest;
+				return;
+			}
+			updated.remove(coldest);
+		}
+		updated.add(key);
+		hotKeys = updated;
+		if (updated.size() == maxHotKeys) {
+			long lowest = Long.MAX_VALUE;
+			for (Object hotKey : updated) {
+				lowest = Math.min(lowest, estimate(hotKey));
+			}
+			threshold = lowest;
+		}
+	}
+
+	private int index(int row, int hash) {
+		int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+		h ^= h >>> 15;
+		h *= 0x2c1b3c6d;
+		h ^= h >>> 12;
+		return row * (widthMask + 1) + (h & widthMask);
+	}
+}
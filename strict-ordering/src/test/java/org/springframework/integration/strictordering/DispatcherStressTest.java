@@ -0,0 +1,213 @@
+package org.springframework.integration.strictordering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+import org.springframework.integration.strictordering.monitor.DispatcherMetrics;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * Drives the {@link Dispatcher} from many producer threads and processes dispatched messages on a pool of workers.
+ * Verifies that messages for each entity are processed one at a time in the order they were produced.
+ *
+ * @author David Turanski
+ *
+ */
+public class DispatcherStressTest {
+	private static final int NUM_KEYS = 500;
+	private static final int NUM_PRODUCERS = 8;
+	private static final int NUM_WORKERS = 16;
+	private static final int MESSAGES_PER_KEY = 40;
+	private static final int TOTAL_MESSAGES = NUM_KEYS * MESSAGES_PER_KEY;
+
+	private LocalEntityLock entityLock;
+	private Dispatcher dispatcher;
+	private EntityLockListener lockListener;
+	private ExecutorService workers;
+	private final Map<String,Integer> lastSequence = new ConcurrentHashMap<String,Integer>();
+	private final Set<String> inProgress = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+	private final List<String> errors = new CopyOnWriteArrayList<String>();
+	private final AtomicInteger processed = new AtomicInteger();
+	private final CountDownLatch done = new CountDownLatch(TOTAL_MESSAGES);
+
+	@Before
+	public void setUp(){
+		entityLock = new LocalEntityLock("dispatcher");
+		wire(new Dispatcher(entityLock));
+		workers = Executors.newFixedThreadPool(NUM_WORKERS);
+	}
+
+	private void wire(final Dispatcher dispatcher){
+		this.dispatcher = dispatcher;
+		lockListener = new EntityLockListener(dispatcher);
+		// Wired as in the dispatcher configuration: released locks go to the listener and on to the dispatcher
+		DirectChannel lockEventChannel = new DirectChannel();
+		lockEventChannel.subscribe(new MessageHandler() {
+			public void handleMessage(Message<?> message) {
+				Message<?> next = lockListener.onRelease((LockNode) message.getPayload());
+				if (next != null) {
+					submit(dispatcher.dispatch(next));
+				}
+			}
+		});
+		entityLock.setReleaseChannel(lockEventChannel);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		// let the workers finish releasing their locks
+		workers.shutdown();
+		workers.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testStrictOrderingUnderContention() throws Exception {
+		ExecutorService producers = Executors.newFixedThreadPool(NUM_PRODUCERS);
+		for (int p = 0; p < NUM_PRODUCERS; p++) {
+			final int producerId = p;
+			producers.execute(new Runnable() {
+				public void run() {
+					for (int seq = 1; seq <= MESSAGES_PER_KEY; seq++) {
+						for (int k = producerId; k < NUM_KEYS; k += NUM_PRODUCERS) {
+							Message<String> message = MessageBuilder.withPayload("entity-" + k).setHeader("sequence", seq).build();
+							submit(dispatcher.dispatch(message));
+						}
+					}
+				}
+			});
+		}
+		producers.shutdown();
+		assertTrue(producers.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertTrue("timed out with " + processed.get() + " messages processed", done.await(30, TimeUnit.SECONDS));
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(TOTAL_MESSAGES, processed.get());
+		for (int k = 0; k < NUM_KEYS; k++) {
+			assertEquals(Integer.valueOf(MESSAGES_PER_KEY), lastSequence.get("entity-" + k));
+		}
+	}
+
+	@Test
+	public void testMetricsUnderContention() throws Exception {
+		DispatcherMetrics metrics = new DispatcherMetrics(dispatcher);
+		metrics.afterPropertiesSet();
+		testStrictOrderingUnderContention();
+		assertEquals(TOTAL_MESSAGES, metrics.getDispatchCount());
+		assertEquals(0, metrics.getQueuedCount());
+		assertEquals(0, metrics.getDeepestQueues().length);
+		assertTrue(metrics.getQueueDwellCount() > 0);
+		assertTrue(metrics.getLockHoldCount() > 0);
+	}
+
+	@Test
+	public void testStrictOrderingWithOverflow() throws Exception {
+		MappedSegmentStore overflowStore = new MappedSegmentStore(
+				new File(System.getProperty("java.io.tmpdir"), "dispatcher-stress-test"), "dispatcher", 1024 * 1024);
+		dispatcher.setQueueCapacity(2);
+		dispatcher.setMaxQueuedInMemory(100);
+		dispatcher.setOverflowStore(overflowStore);
+		try {
+			testStrictOrderingUnderContention();
+			assertEquals(0, overflowStore.size());
+		} finally {
+			overflowStore.destroy();
+		}
+	}
+
+	@Test
+	public void testStrictOrderingWithBatchDispatch() throws Exception {
+		ExecutorService producers = Executors.newFixedThreadPool(NUM_PRODUCERS);
+		for (int p = 0; p < NUM_PRODUCERS; p++) {
+			final int producerId = p;
+			producers.execute(new Runnable() {
+				public void run() {
+					for (int seq = 1; seq <= MESSAGES_PER_KEY; seq += 2) {
+						// each batch holds two consecutive messages for every key of this producer
+						List<Message<?>> batch = new ArrayList<Message<?>>();
+						for (int k = producerId; k < NUM_KEYS; k += NUM_PRODUCERS) {
+							batch.add(MessageBuilder.withPayload("entity-" + k).setHeader("sequence", seq).build());
+							batch.add(MessageBuilder.withPayload("entity-" + k).setHeader("sequence", seq + 1).build());
+						}
+						for (Message<?> message: dispatcher.dispatchBatch(batch)) {
+							submit(message);
+						}
+					}
+				}
+			});
+		}
+		producers.shutdown();
+		assertTrue(producers.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertTrue("timed out with " + processed.get() + " messages processed", done.await(30, TimeUnit.SECONDS));
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(TOTAL_MESSAGES, processed.get());
+		for (int k = 0; k < NUM_KEYS; k++) {
+			assertEquals(Integer.valueOf(MESSAGES_PER_KEY), lastSequence.get("entity-" + k));
+		}
+	}
+
+	@Test
+	public void testBatchDispatchQueuesEntityLockedByAnotherDispatcher() {
+		Dispatcher other = new Dispatcher(entityLock);
+		assertEquals("entity-1", other.dispatch(MessageBuilder.withPayload("entity-1").build()).getPayload());
+		List<Message<?>> batch = new ArrayList<Message<?>>();
+		batch.add(MessageBuilder.withPayload("entity-1").build());
+		batch.add(MessageBuilder.withPayload("entity-2").build());
+		List<Message<?>> dispatched = dispatcher.dispatchBatch(batch);
+		assertEquals(1, dispatched.size());
+		assertEquals("entity-2", dispatched.get(0).getPayload());
+		assertEquals(1, dispatcher.entityQueues.size("entity-1"));
+		assertEquals(1, entityLock.getLocks("entity-1").size());
+	}
+
+	private void submit(final Message<?> message) {
+		if (message == null) {
+			return;
+		}
+		workers.execute(new Runnable() {
+			public void run() {
+				process(message);
+			}
+		});
+	}
+
+	private void process(Message<?> message) {
+		String key = (String) message.getPayload();
+		int sequence = (Integer) message.getHeaders().get("sequence");
+		if (!inProgress.add(key)) {
+			errors.add("concurrent processing of [" + key + "] sequence [" + sequence + "]");
+		}
+		Integer last = lastSequence.get(key);
+		int expected = (last == null) ? 1 : last + 1;
+		if (sequence != expected) {
+			errors.add("out of order [" + key + "] expected [" + expected + "] got [" + sequence + "]");
+		}
+		lastSequence.put(key, sequence);
+		inProgress.remove(key);
+		processed.incrementAndGet();
+		done.countDown();
+
+		entityLock.releaseEntity(key, "dispatcher");
+	}
+}
@@ -0,0 +1,88 @@
+package org.springframework.integration.strictordering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * Measures the time to drain a backlog of 10k messages queued for one entity, with one message per release and with
+ * batches. Each processed message or batch releases the lock, as the servers do. Excluded from the default build,
+ * run it explicitly, e.g., mvn test -Dtest=EntityLockListenerBenchmark
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockListenerBenchmark {
+	private static final int BACKLOG = 10000;
+	private static Logger logger = Logger.getLogger(EntityLockListenerBenchmark.class);
+
+	@Test
+	public void benchmarkBacklogDrain() throws Exception {
+		// warm up
+		drain(1);
+		drain(100);
+
+		for (int maxMessagesPerRelease : new int[] {1, 10, 100, 1000}) {
+			long elapsed = drain(maxMessagesPerRelease);
+			logger.info("drained " + BACKLOG + " messages with maxMessagesPerRelease [" + maxMessagesPerRelease + "] in "
+					+ elapsed / 1000000 + " ms (" + elapsed / BACKLOG + " ns/message)");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private long drain(int maxMessagesPerRelease) throws Exception {
+		final LocalEntityLock entityLock = new LocalEntityLock("dispatcher");
+		Dispatcher dispatcher = new Dispatcher(entityLock);
+		final EntityLockListener lockListener = new EntityLockListener(dispatcher);
+		lockListener.setMaxMessagesPerRelease(maxMessagesPerRelease);
+		final BlockingQueue<Message<?>> ready = new LinkedBlockingQueue<Message<?>>();
+		DirectChannel lockEventChannel = new DirectChannel();
+		lockEventChannel.subscribe(new MessageHandler() {
+			public void handleMessage(Message<?> message) {
+				Message<?> next = lockListener.onRelease((LockNode) message.getPayload());
+				if (next != null) {
+					ready.add(next);
+				}
+			}
+		});
+		entityLock.setReleaseChannel(lockEventChannel);
+
+		// the first message takes the lock, the rest are queued
+		for (int i = 0; i <= BACKLOG; i++) {
+			dispatcher.dispatch(MessageBuilder.withPayload("entity").setHeader("sequence", i).build());
+		}
+
+		long start = System.nanoTime();
+		int expected = 1;
+		entityLock.releaseEntity("entity", "dispatcher");
+		while (expected <= BACKLOG) {
+			Message<?> message = ready.poll(10, TimeUnit.SECONDS);
+			if (message.getHeaders().get(Dispatcher.BATCH_ENTITY_KEY_HEADER) != null) {
+				for (Message<?> batchMessage : (List<Message<?>>) message.getPayload()) {
+					assertEquals(expected++, batchMessage.getHeaders().get("sequence"));
+				}
+			} else {
+				assertEquals(expected++, message.getHeaders().get("sequence"));
+			}
+			entityLock.releaseEntity("entity", "dispatcher");
+		}
+		long elapsed = System.nanoTime() - start;
+
+		assertNull(ready.poll());
+		assertFalse(entityLock.exists("entity"));
+		return elapsed;
+	}
+}
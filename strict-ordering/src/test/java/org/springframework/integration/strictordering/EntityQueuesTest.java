@@ -2,6 +2,9 @@ package org.springframework.integration.strictordering;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.integration.strictordering.EntityQueues;
@@ -65,4 +68,77 @@ public class EntityQueuesTest {
 	  assertEquals(0,entityQueues.keySet().size());
 	  assertEquals(0,entityQueues.size("baz"));
   }
+  
+  @Test
+  public void testRemoveBatch(){
+	  for (int i = 1; i <= 5; i++) {
+		  entityQueues.add("foo", "foo-" + i);
+	  }
+	  assertEquals(Arrays.asList("foo-1","foo-2","foo-3"), entityQueues.remove("foo", 3));
+	  assertEquals(Arrays.asList("foo-4","foo-5"), entityQueues.remove("foo", 3));
+	  assertEquals(0,entityQueues.keySet().size());
+	  assertTrue(entityQueues.remove("foo", 3).isEmpty());
+  }
+  
+  @Test
+  public void testOverflow() throws Exception {
+	  File directory = new File(System.getProperty("java.io.tmpdir"), "entity-queues-test");
+	  MappedSegmentStore store = new MappedSegmentStore(directory, "dispatcher", 256);
+	  try {
+		  entityQueues.setCapacity(2);
+		  entityQueues.setMaxInMemory(3);
+		  entityQueues.setOverflowStore(store);
+		  for (int i = 1; i <= 20; i++) {
+			  entityQueues.add("foo", "foo-" + i);
+			  entityQueues.add("bar", "bar-" + i);
+		  }
+		  assertEquals(20, entityQueues.size("foo"));
+		  assertEquals(20, entityQueues.size("bar"));
+		  assertEquals(3, entityQueues.getInMemoryCount());
+		  assertEquals(37, store.size());
+		  assertTrue(store.getSegmentCount() > 1);
+		  
+		  for (int i = 1; i <= 20; i++) {
+			  assertEquals("foo-" + i, entityQueues.remove("foo"));
+			  assertTrue(entityQueues.getInMemoryCount() <= 3);
+		  }
+		  assertEquals(Arrays.asList("bar-1","bar-2","bar-3"), entityQueues.remove("bar", 3));
+		  for (int i = 4; i <= 20; i++) {
+			  assertEquals("bar-" + i, entityQueues.remove("bar"));
+		  }
+		  assertEquals(0, entityQueues.keySet().size());
+		  assertEquals(0, entityQueues.getInMemoryCount());
+		  assertEquals(0, store.size());
+		  assertTrue(store.getSegmentCount() <= 1);
+	  } finally {
+		  store.destroy();
+	  }
+  }
+  
+  @Test
+  public void testOverflowStoresWithPrefixNames() throws Exception {
+	  File directory = new File(System.getProperty("java.io.tmpdir"), "segment-names-test");
+	  MappedSegmentStore other = new MappedSegmentStore(directory, "a-1", 256);
+	  MappedSegmentStore store = null;
+	  try {
+		  long position = other.append("live".getBytes());
+		  File segment = new File(directory, directory.list()[0]);
+		  assertTrue(segment.getName().startsWith("a-1-"));
+		  store = new MappedSegmentStore(directory, "a", 256);
+		  assertTrue(segment.exists());
+		  assertEquals("live", new String(other.take(position)));
+	  } finally {
+		  other.destroy();
+		  if (store != null) {
+			  store.destroy();
+		  }
+	  }
+  }
+  
+  @Test(expected=IllegalStateException.class)
+  public void testCapacityWithoutOverflow(){
+	  entityQueues.setCapacity(1);
+	  entityQueues.add("foo", "foo-1");
+	  entityQueues.add("foo", "foo-2");
+  }
 }
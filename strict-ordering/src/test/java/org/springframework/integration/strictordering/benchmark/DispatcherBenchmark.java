@@ -0,0 +1,114 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.strictordering.Dispatcher;
+import org.springframework.integration.strictordering.EntityLockListener;
+import org.springframework.integration.strictordering.LockNode;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+import org.springframework.integration.support.MessageBuilder;
+
+/**
+ * JMH benchmark of {@link Dispatcher#dispatch(Message)} followed by release of the entity, as a server would release
+ * it, from several threads. Contended entities are queued and drained by an {@link EntityLockListener}, so the result
+ * includes queuing and draining under contention. Varies the number of distinct keys, their skew and the dispatcher
+ * type. The number of threads may be changed with -t. Run with mvn test -Pbenchmark.
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DispatcherBenchmark {
+	private static final String DISPATCHER = "dispatcher";
+
+	private static final int SEQUENCE_LENGTH = 1 << 16;
+
+	@Param({"1", "1000", "1000000"})
+	public int keyCount;
+
+	@Param({"0", "1.0"})
+	public double skew;
+
+	private LocalEntityLock entityLock;
+
+	private Dispatcher dispatcher;
+
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	@Setup
+	public void setUp() {
+		entityLock = new LocalEntityLock(DISPATCHER);
+		dispatcher = new Dispatcher(entityLock);
+		final EntityLockListener lockListener = new EntityLockListener(dispatcher);
+		lockListener.setMaxMessagesPerRelease(100);
+		DirectChannel lockEventChannel = new DirectChannel();
+		lockEventChannel.subscribe(new MessageHandler() {
+			public void handleMessage(Message<?> message) {
+				LockNode lockNode = (LockNode) message.getPayload();
+				// process the next message or batch immediately and release the entity again
+				if (null != lockListener.onRelease(lockNode)) {
+					entityLock.releaseEntity(lockNode.getEntityKey(), DISPATCHER);
+				}
+			}
+		});
+		entityLock.setReleaseChannel(lockEventChannel);
+	}
+
+	/**
+	 * Messages for each thread, built in advance so that the benchmark does not measure building them
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		private Message<?>[] messages;
+
+		private int next;
+
+		@Setup
+		public void setUp(DispatcherBenchmark benchmark) {
+			KeySequence keys = new KeySequence(benchmark.keyCount, benchmark.skew, SEQUENCE_LENGTH,
+					benchmark.threadCount.incrementAndGet());
+			messages = new Message<?>[keys.length()];
+			for (int i = 0; i < messages.length; i++) {
+				messages[i] = MessageBuilder.withPayload(keys.get(i)).build();
+			}
+		}
+
+		Message<?> next() {
+			Message<?> message = messages[next];
+			next = (next + 1) & (SEQUENCE_LENGTH - 1);
+			return message;
+		}
+	}
+
+	@Benchmark
+	public Message<?> dispatchAndRelease(Producer producer) {
+		Message<?> message = producer.next();
+		Message<?> dispatched = dispatcher.dispatch(message);
+		if (null != dispatched) {
+			entityLock.releaseEntity((String) message.getPayload(), DISPATCHER);
+		}
+		return dispatched;
+	}
+}
@@ -0,0 +1,362 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.core.MessageHandler;
+import org.springframework.integration.strictordering.Dispatcher;
+import org.springframework.integration.strictordering.EntityLock;
+import org.springframework.integration.strictordering.EntityLockListener;
+import org.springframework.integration.strictordering.LockNode;
+import org.springframework.integration.strictordering.gemfire.EntityLockEntry;
+import org.springframework.integration.strictordering.gemfire.EntityLockKey;
+import org.springframework.integration.strictordering.gemfire.GemfireEntityLock;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+import org.springframework.integration.strictordering.monitor.DispatcherMetrics;
+import org.springframework.integration.strictordering.monitor.Histogram;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.StringUtils;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.EntryEvent;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+import com.gemstone.gemfire.cache.util.CacheListenerAdapter;
+
+/**
+ * Runs the full cycle of dispatch, process, release and drain in one JVM, without JMS, for each combination of key
+ * count, key skew and consumer count. A consumer verifies the order of each message, spins for a fixed time to
+ * simulate work and releases the entity, as the servers do. Reports throughput and latency from dispatch to
+ * processing and appends each result to a CSV file, labeled with the release under test, for comparison between
+ * releases.
+ * <p>
+ * Excluded from the default build, run it explicitly, e.g., mvn test -Pbenchmark or mvn test -Dtest=EndToEndBenchmark.
+ * The matrix is set with system properties:
+ * <ul>
+ * <li>benchmark.keys - comma separated key counts, default 10,1000,100000</li>
+ * <li>benchmark.skews - comma separated Zipf exponents, default 0,1.0</li>
+ * <li>benchmark.consumers - comma separated consumer thread counts, default 1,4,16</li>
+ * <li>benchmark.messages - messages per run, default 200000</li>
+ * <li>benchmark.workMicros - simulated work per message, default 10</li>
+ * <li>benchmark.lock - local or gemfire (an embedded cache), default local</li>
+ * <li>benchmark.label - identifies the results, e.g., the release, default dev</li>
+ * <li>benchmark.results - the CSV file, default target/benchmark-results.csv</li>
+ * </ul>
+ *
+ * @author David Turanski
+ *
+ */
+public class EndToEndBenchmark {
+	private static final String DISPATCHER = "dispatcher";
+
+	private static final String SEQUENCE_HEADER = "sequence";
+
+	private static final String SENT_HEADER = "sent";
+
+	// bounds the messages in flight, so that latency is measured at saturation rather than for an ever growing backlog
+	private static final int MAX_IN_FLIGHT = 10000;
+
+	private static Logger logger = Logger.getLogger(EndToEndBenchmark.class);
+
+	private final int messageCount = Integer.getInteger("benchmark.messages", 200000);
+
+	private final int workMicros = Integer.getInteger("benchmark.workMicros", 10);
+
+	private final String lockType = System.getProperty("benchmark.lock", "local");
+
+	private final String label = System.getProperty("benchmark.label", "dev");
+
+	private final File resultsFile = new File(System.getProperty("benchmark.results", "target/benchmark-results.csv"));
+
+	private Cache cache;
+
+	@Test
+	public void benchmarkEndToEnd() throws Exception {
+		if ("gemfire".equals(lockType)) {
+			cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		}
+		try {
+			// warm up
+			run(1000, 0, 4, messageCount / 10);
+
+			for (int keyCount : intValues("benchmark.keys", "10,1000,100000")) {
+				for (double skew : doubleValues("benchmark.skews", "0,1.0")) {
+					for (int consumers : intValues("benchmark.consumers", "1,4,16")) {
+						Result result = run(keyCount, skew, consumers, messageCount);
+						logger.info(result);
+						write(result);
+						assertEquals(result + " " + result.firstError, 0, result.orderErrors);
+					}
+				}
+			}
+		} finally {
+			if (null != cache) {
+				cache.close();
+			}
+		}
+	}
+
+	private Result run(int keyCount, double skew, int consumers, int messages) throws Exception {
+		Run run = new Run(keyCount, skew, consumers, messages);
+		try {
+			return run.execute();
+		} finally {
+			run.close();
+		}
+	}
+
+	/**
+	 * A single run, with its own lock, dispatcher and consumers
+	 */
+	private class Run {
+		private final Result result;
+
+		private final KeySequence keys;
+
+		private final EntityLock entityLock;
+
+		private final Dispatcher dispatcher;
+
+		private final EntityLockListener lockListener;
+
+		private final DispatcherMetrics metrics;
+
+		private final ExecutorService consumers;
+
+		private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+		private final CountDownLatch done;
+
+		private final Histogram latencies = new Histogram();
+
+		private final ConcurrentMap<String, Integer> lastSequence = new ConcurrentHashMap<String, Integer>();
+
+		private final AtomicInteger orderErrors = new AtomicInteger();
+
+		private volatile String firstError;
+
+		private Region<EntityLockKey, EntityLockEntry> region;
+
+		Run(int keyCount, double skew, int consumerCount, int messages) {
+			this.result = new Result(keyCount, skew, consumerCount, messages);
+			this.keys = new KeySequence(keyCount, skew, messages);
+			this.done = new CountDownLatch(messages);
+			this.consumers = Executors.newFixedThreadPool(consumerCount);
+			if (null != cache) {
+				region = cache.<EntityLockKey, EntityLockEntry> createRegionFactory(RegionShortcut.REPLICATE).create(
+						"entityLocks-" + System.nanoTime());
+				// as the dispatcher's CacheListeningMessageProducer does
+				region.getAttributesMutator().addCacheListener(new CacheListenerAdapter<EntityLockKey, EntityLockEntry>() {
+					@Override
+					public void afterDestroy(EntryEvent<EntityLockKey, EntityLockEntry> event) {
+						released(event.getOldValue().getReleasedLockNode());
+					}
+				});
+				entityLock = new GemfireEntityLock(region, DISPATCHER);
+			} else {
+				LocalEntityLock localEntityLock = new LocalEntityLock(DISPATCHER);
+				DirectChannel lockEventChannel = new DirectChannel();
+				lockEventChannel.subscribe(new MessageHandler() {
+					public void handleMessage(Message<?> message) {
+						released((LockNode) message.getPayload());
+					}
+				});
+				localEntityLock.setReleaseChannel(lockEventChannel);
+				entityLock = localEntityLock;
+			}
+			dispatcher = new Dispatcher(entityLock);
+			metrics = new DispatcherMetrics(dispatcher);
+			metrics.afterPropertiesSet();
+			lockListener = new EntityLockListener(dispatcher);
+			lockListener.setMaxMessagesPerRelease(100);
+		}
+
+		Result execute() throws Exception {
+			Map<String, Integer> sequences = new HashMap<String, Integer>();
+			long start = System.nanoTime();
+			for (int i = 0; i < result.messages; i++) {
+				String key = keys.get(i);
+				Integer sequence = sequences.get(key);
+				sequence = (null == sequence) ? 1 : sequence + 1;
+				sequences.put(key, sequence);
+				inFlight.acquire();
+				submit(dispatcher.dispatch(MessageBuilder.withPayload(key).setHeader(SEQUENCE_HEADER, sequence)
+						.setHeader(SENT_HEADER, System.nanoTime()).build()));
+			}
+			if (!done.await(120, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("timed out with " + done.getCount() + " messages unprocessed");
+			}
+			long elapsed = System.nanoTime() - start;
+
+			result.throughput = result.messages * 1000000000.0 / elapsed;
+			result.latencyP50 = latencies.getPercentile(50);
+			result.latencyP99 = latencies.getPercentile(99);
+			result.latencyMax = latencies.getMax();
+			result.queueDwellP99 = metrics.getQueueDwellTimeP99();
+			result.lockHoldP99 = metrics.getLockHoldTimeP99();
+			result.orderErrors = orderErrors.get();
+			result.firstError = firstError;
+			return result;
+		}
+
+		void close() throws InterruptedException {
+			consumers.shutdown();
+			consumers.awaitTermination(10, TimeUnit.SECONDS);
+			if (null != region) {
+				region.destroyRegion();
+			}
+		}
+
+		private void released(LockNode lockNode) {
+			submit(lockListener.onRelease(lockNode));
+		}
+
+		private void submit(final Message<?> message) {
+			if (null == message) {
+				return;
+			}
+			consumers.execute(new Runnable() {
+				public void run() {
+					process(message);
+				}
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		private void process(Message<?> message) {
+			String entityKey = (String) message.getHeaders().get(Dispatcher.BATCH_ENTITY_KEY_HEADER);
+			if (null != entityKey) {
+				for (Message<?> batchMessage : (List<Message<?>>) message.getPayload()) {
+					processOne(batchMessage);
+				}
+			} else {
+				entityKey = (String) message.getPayload();
+				processOne(message);
+			}
+			entityLock.releaseEntity(entityKey, DISPATCHER);
+		}
+
+		private void processOne(Message<?> message) {
+			String key = (String) message.getPayload();
+			int sequence = (Integer) message.getHeaders().get(SEQUENCE_HEADER);
+			Integer last = lastSequence.put(key, sequence);
+			int expected = (null == last) ? 1 : last + 1;
+			if (sequence != expected && orderErrors.getAndIncrement() == 0) {
+				firstError = "out of order [" + key + "] expected [" + expected + "] got [" + sequence + "]";
+			}
+
+			long workUntil = System.nanoTime() + workMicros * 1000L;
+			while (System.nanoTime() < workUntil) {
+				// simulated work
+			}
+
+			latencies.record((System.nanoTime() - (Long) message.getHeaders().get(SENT_HEADER)) / 1000);
+			inFlight.release();
+			done.countDown();
+		}
+	}
+
+	private class Result {
+		final int keyCount;
+
+		final double skew;
+
+		final int consumers;
+
+		final int messages;
+
+		double throughput;
+
+		long latencyP50;
+
+		long latencyP99;
+
+		long latencyMax;
+
+		long queueDwellP99;
+
+		long lockHoldP99;
+
+		int orderErrors;
+
+		String firstError;
+
+		Result(int keyCount, double skew, int consumers, int messages) {
+			this.keyCount = keyCount;
+			this.skew = skew;
+			this.consumers = consumers;
+			this.messages = messages;
+		}
+
+		String toCsv() {
+			return label + "," + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()) + "," + lockType + ","
+					+ keyCount + "," + skew + "," + consumers + "," + messages + "," + workMicros + ","
+					+ Math.round(throughput) + "," + latencyP50 + "," + latencyP99 + "," + latencyMax + ","
+					+ queueDwellP99 + "," + lockHoldP99 + "," + orderErrors;
+		}
+
+		@Override
+		public String toString() {
+			return "keys [" + keyCount + "] skew [" + skew + "] consumers [" + consumers + "]: " + Math.round(throughput)
+					+ " messages/s, latency p50 [" + latencyP50 + "] p99 [" + latencyP99 + "] max [" + latencyMax
+					+ "] us, queue dwell p99 [" + queueDwellP99 + "] ms, lock hold p99 [" + lockHoldP99 + "] ms";
+		}
+	}
+
+	private void write(Result result) throws IOException {
+		boolean exists = resultsFile.exists();
+		if (null != resultsFile.getParentFile()) {
+			resultsFile.getParentFile().mkdirs();
+		}
+		PrintWriter out = new PrintWriter(new FileWriter(resultsFile, true));
+		try {
+			if (!exists) {
+				out.println("label,time,lock,keys,skew,consumers,messages,workMicros,messagesPerSecond,"
+						+ "latencyP50Micros,latencyP99Micros,latencyMaxMicros,queueDwellP99Millis,lockHoldP99Millis,orderErrors");
+			}
+			out.println(result.toCsv());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int[] intValues(String property, String defaultValue) {
+		String[] values = StringUtils.commaDelimitedListToStringArray(System.getProperty(property, defaultValue));
+		int[] results = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			results[i] = Integer.parseInt(values[i].trim());
+		}
+		return results;
+	}
+
+	private static double[] doubleValues(String property, String defaultValue) {
+		String[] values = StringUtils.commaDelimitedListToStringArray(System.getProperty(property, defaultValue));
+		double[] results = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			results[i] = Double.parseDouble(values[i].trim());
+		}
+		return results;
+	}
+}
@@ -0,0 +1,134 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.strictordering.EntityLock;
+import org.springframework.integration.strictordering.gemfire.EntityLockEntry;
+import org.springframework.integration.strictordering.gemfire.EntityLockKey;
+import org.springframework.integration.strictordering.gemfire.GemfireEntityLock;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+
+/**
+ * JMH benchmark of the {@link EntityLock} operations on the dispatch path, for the {@link LocalEntityLock} and a
+ * {@link GemfireEntityLock} on an embedded cache. Half of the keys are locked in advance, so that lookups both hit and
+ * miss. Run with mvn test -Pbenchmark.
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class EntityLockBenchmark {
+	private static final String DISPATCHER = "dispatcher";
+
+	@Param({"local", "gemfire"})
+	public String lockType;
+
+	@Param({"1000", "100000"})
+	public int keyCount;
+
+	@Param({"0", "1.0"})
+	public double skew;
+
+	private Cache cache;
+
+	private EntityLock entityLock;
+
+	@Setup
+	public void setUp() {
+		if ("gemfire".equals(lockType)) {
+			cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+			Region<EntityLockKey, EntityLockEntry> region = cache.<EntityLockKey, EntityLockEntry> createRegionFactory(
+					RegionShortcut.REPLICATE).create("entityLocks");
+			Map<EntityLockKey, EntityLockEntry> locks = new HashMap<EntityLockKey, EntityLockEntry>();
+			for (int i = 0; i < keyCount; i += 2) {
+				EntityLockEntry entry = new EntityLockEntry("entity-" + i, DISPATCHER, DISPATCHER);
+				locks.put(entry.getKey(), entry);
+			}
+			region.putAll(locks);
+			entityLock = new GemfireEntityLock(region, DISPATCHER);
+		} else {
+			entityLock = new LocalEntityLock(DISPATCHER);
+			for (int i = 0; i < keyCount; i += 2) {
+				entityLock.lockEntity("entity-" + i, DISPATCHER);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (null != cache) {
+			cache.close();
+		}
+	}
+
+	/**
+	 * Keys for each thread. Keys to lock are the thread's own, so that threads do not release each other's locks
+	 */
+	@State(Scope.Thread)
+	public static class Keys {
+		private static final int LENGTH = 1 << 16;
+
+		private static final AtomicInteger threadCount = new AtomicInteger();
+
+		private KeySequence keys;
+
+		private String[] ownKeys;
+
+		private int next;
+
+		@Setup
+		public void setUp(EntityLockBenchmark benchmark) {
+			int thread = threadCount.incrementAndGet();
+			keys = new KeySequence(benchmark.keyCount, benchmark.skew, LENGTH, thread);
+			ownKeys = new String[LENGTH];
+			for (int i = 0; i < LENGTH; i++) {
+				ownKeys[i] = keys.get(i) + "-" + thread;
+			}
+		}
+
+		String nextOwnKey() {
+			String key = ownKeys[next];
+			next = (next + 1) & (LENGTH - 1);
+			return key;
+		}
+	}
+
+	@Benchmark
+	public boolean exists(Keys keys) {
+		return entityLock.exists(keys.keys.next());
+	}
+
+	@Benchmark
+	public void lockAndRelease(Keys keys) {
+		String entityKey = keys.nextOwnKey();
+		entityLock.lockEntity(entityKey, DISPATCHER);
+		entityLock.releaseEntity(entityKey, DISPATCHER);
+	}
+}
@@ -0,0 +1,100 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.strictordering.EntityQueues;
+import org.springframework.integration.strictordering.MappedSegmentStore;
+
+/**
+ * JMH benchmark of {@link EntityQueues}: queuing and removing single items across many keys, and draining a backlog
+ * for one key in batches, held in memory or spilled to a {@link MappedSegmentStore}. Run with mvn test -Pbenchmark.
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityQueuesBenchmark {
+	private static final int BACKLOG = 1000;
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({"1", "1000", "100000"})
+	public int keyCount;
+
+	@Param({"0", "1.0"})
+	public double skew;
+
+	// hold 10 items per key in memory and spill the rest
+	@Param({"false", "true"})
+	public boolean overflow;
+
+	private EntityQueues<String, String> entityQueues;
+
+	private MappedSegmentStore overflowStore;
+
+	private KeySequence keys;
+
+	@Setup
+	public void setUp() {
+		entityQueues = new EntityQueues<String, String>();
+		if (overflow) {
+			overflowStore = new MappedSegmentStore(new File(System.getProperty("java.io.tmpdir"), "entity-queues-benchmark"),
+					"queues");
+			entityQueues.setCapacity(10);
+			entityQueues.setOverflowStore(overflowStore);
+		}
+		keys = new KeySequence(keyCount, skew, 1 << 16);
+		// a standing backlog, so that adds and removes do not only create and destroy queues
+		for (int i = 0; i < keyCount * 2; i++) {
+			entityQueues.add(keys.get(i), "message");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		if (null != overflowStore) {
+			overflowStore.destroy();
+		}
+	}
+
+	@Benchmark
+	public Object addRemove() {
+		String key = keys.next();
+		entityQueues.add(key, "message");
+		return entityQueues.remove(key);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BACKLOG)
+	public int drainBacklog() {
+		for (int i = 0; i < BACKLOG; i++) {
+			entityQueues.add("backlog", "message");
+		}
+		int drained = 0;
+		List<String> batch;
+		while (!(batch = entityQueues.remove("backlog", BATCH_SIZE)).isEmpty()) {
+			drained += batch.size();
+		}
+		return drained;
+	}
+}
@@ -0,0 +1,102 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import java.util.Random;
+
+import org.springframework.util.Assert;
+
+/**
+ * A reproducible sequence of entity keys for benchmarks. Keys are drawn from keyCount distinct keys with a Zipf
+ * distribution: a skew of 0 is uniform, around 1 a few keys receive most messages. The same arguments always produce
+ * the same sequence, so results may be compared between runs and releases.
+ *
+ * @author David Turanski
+ *
+ */
+public class KeySequence {
+	private static final long SEED = 42;
+
+	private final String[] keys;
+
+	private int next;
+
+	/**
+	 *
+	 * @param keyCount - the number of distinct keys
+	 * @param skew - the Zipf exponent, 0 for uniform
+	 * @param length - the number of keys generated. The sequence repeats after this
+	 */
+	public KeySequence(int keyCount, double skew, int length) {
+		this(keyCount, skew, length, SEED);
+	}
+
+	/**
+	 *
+	 * @param keyCount
+	 * @param skew
+	 * @param length
+	 * @param seed - gives each thread, for example, a different sequence
+	 */
+	public KeySequence(int keyCount, double skew, int length, long seed) {
+		Assert.isTrue(keyCount > 0, "keyCount must be greater than 0");
+		Assert.isTrue(skew >= 0, "skew must not be negative");
+		Assert.isTrue(length > 0, "length must be greater than 0");
+
+		String[] names = new String[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			names[i] = "entity-" + i;
+		}
+
+		// cumulative probability of each rank
+		double[] cumulative = new double[keyCount];
+		double total = 0;
+		for (int i = 0; i < keyCount; i++) {
+			total += 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = total;
+		}
+
+		Random random = new Random(seed);
+		this.keys = new String[length];
+		for (int i = 0; i < length; i++) {
+			this.keys[i] = names[rank(cumulative, random.nextDouble() * total)];
+		}
+	}
+
+	/**
+	 *
+	 * @return the next key, without allocating
+	 */
+	public String next() {
+		String key = keys[next];
+		if (++next == keys.length) {
+			next = 0;
+		}
+		return key;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return the key at position i, modulo the length
+	 */
+	public String get(int i) {
+		return keys[i % keys.length];
+	}
+
+	public int length() {
+		return keys.length;
+	}
+
+	private static int rank(double[] cumulative, double value) {
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
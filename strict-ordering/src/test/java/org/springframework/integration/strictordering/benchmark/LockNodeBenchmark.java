@@ -0,0 +1,178 @@
+package org.springframework.integration.strictordering.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.strictordering.LockNode;
+import org.springframework.integration.strictordering.gemfire.EntityLockEntry;
+import org.springframework.integration.strictordering.gemfire.LockNodeSerializer;
+import org.springframework.util.Assert;
+
+import com.gemstone.gemfire.DataSerializable;
+import com.gemstone.gemfire.DataSerializer;
+
+/**
+ * JMH benchmark of a {@link LockNode} lookup and of a round trip of a {@link LockNode} and an {@link EntityLockEntry}
+ * through Java serialization and through Gemfire's {@link LockNodeSerializer} and {@link DataSerializable}. The
+ * serialized sizes are logged on setup. Allocation per operation is reported by the JMH GC profiler, which the
+ * benchmark profile enables, e.g., mvn test -Pbenchmark -Djmh.args="LockNodeBenchmark -prof gc"
+ *
+ * @author David Turanski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockNodeBenchmark {
+	private static final int NUM_NODES = 10000;
+
+	private static Logger logger = Logger.getLogger(LockNodeBenchmark.class);
+
+	private Set<LockNode> lockNodes;
+
+	private LockNode[] probes;
+
+	private int next;
+
+	private LockNode lockNode;
+
+	private EntityLockEntry entry;
+
+	private DataCodec lockNodeCodec;
+
+	private DataCodec entryCodec;
+
+	@Setup
+	public void setUp() throws Exception {
+		lockNodes = new HashSet<LockNode>();
+		probes = new LockNode[NUM_NODES];
+		for (int i = 0; i < NUM_NODES; i++) {
+			lockNodes.add(new LockNode("entity-" + i, "server1", "dispatcher"));
+			probes[i] = new LockNode("entity-" + i, "server1", "dispatcher");
+		}
+
+		lockNode = new LockNode("entity-12345", "server1", "dispatcher");
+		lockNodeCodec = serializerCodec(new LockNodeSerializer());
+		entry = new EntityLockEntry("entity-12345", "dispatcher", "server1", "server2", "server3").withLease(System
+				.currentTimeMillis());
+		entryCodec = serializableCodec(new EntityLockEntry());
+
+		Assert.isTrue(lockNode.equals(javaRoundTrip(lockNode)), "LockNode java round trip failed");
+		Assert.isTrue(lockNode.equals(dataRoundTrip(lockNode, lockNodeCodec)), "LockNode Gemfire round trip failed");
+		Assert.isTrue(entry.equals(javaRoundTrip(entry)), "EntityLockEntry java round trip failed");
+		Assert.isTrue(entry.equals(dataRoundTrip(entry, entryCodec)), "EntityLockEntry Gemfire round trip failed");
+
+		logger.info("LockNode serialized size: java " + javaBytes(lockNode).length + " bytes, Gemfire "
+				+ dataBytes(lockNode, lockNodeCodec).length + " bytes");
+		logger.info("EntityLockEntry serialized size: java " + javaBytes(entry).length + " bytes, Gemfire "
+				+ dataBytes(entry, entryCodec).length + " bytes");
+	}
+
+	@Benchmark
+	public boolean lookup() {
+		next = (next + 1) % NUM_NODES;
+		return lockNodes.contains(probes[next]);
+	}
+
+	@Benchmark
+	public Object lockNodeJavaRoundTrip() throws Exception {
+		return javaRoundTrip(lockNode);
+	}
+
+	@Benchmark
+	public Object lockNodeGemfireRoundTrip() throws Exception {
+		return dataRoundTrip(lockNode, lockNodeCodec);
+	}
+
+	@Benchmark
+	public Object entityLockEntryJavaRoundTrip() throws Exception {
+		return javaRoundTrip(entry);
+	}
+
+	@Benchmark
+	public Object entityLockEntryGemfireRoundTrip() throws Exception {
+		return dataRoundTrip(entry, entryCodec);
+	}
+
+	private static byte[] javaBytes(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object javaRoundTrip(Object value) throws Exception {
+		return new ObjectInputStream(new ByteArrayInputStream(javaBytes(value))).readObject();
+	}
+
+	private static byte[] dataBytes(Object value, DataCodec codec) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.write(value, out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object dataRoundTrip(Object value, DataCodec codec) throws Exception {
+		return codec.read(new DataInputStream(new ByteArrayInputStream(dataBytes(value, codec))));
+	}
+
+	private static DataCodec serializerCodec(final DataSerializer serializer) {
+		return new DataCodec() {
+			void write(Object value, DataOutput out) throws IOException {
+				serializer.toData(value, out);
+			}
+
+			Object read(DataInput in) throws Exception {
+				return serializer.fromData(in);
+			}
+		};
+	}
+
+	private static DataCodec serializableCodec(final DataSerializable target) {
+		return new DataCodec() {
+			void write(Object value, DataOutput out) throws IOException {
+				((DataSerializable) value).toData(out);
+			}
+
+			Object read(DataInput in) throws Exception {
+				target.fromData(in);
+				return target;
+			}
+		};
+	}
+
+	/*
+	 * Writes and reads a value with Gemfire serialization
+	 */
+	private abstract static class DataCodec {
+		abstract void write(Object value, DataOutput out) throws IOException;
+
+		abstract Object read(DataInput in) throws Exception;
+	}
+}
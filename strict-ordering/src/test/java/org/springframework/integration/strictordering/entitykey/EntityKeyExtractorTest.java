@@ -0,0 +1,99 @@
+package org.springframework.integration.strictordering.entitykey;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.strictordering.Dispatcher;
+import org.springframework.integration.strictordering.local.LocalEntityLock;
+import org.springframework.integration.support.MessageBuilder;
+
+
+public class EntityKeyExtractorTest {
+
+  @Test
+  public void testHeader(){
+	  HeaderEntityKeyExtractor extractor = new HeaderEntityKeyExtractor("orderId");
+	  assertEquals(123L, extractor.getKey(MessageBuilder.withPayload("foo").setHeader("orderId", 123L).build()));
+	  assertNull(extractor.getKey(MessageBuilder.withPayload("foo").build()));
+  }
+
+  @Test
+  public void testPropertyPath(){
+	  PropertyPathEntityKeyExtractor extractor = new PropertyPathEntityKeyExtractor("payload.customer.id");
+	  assertEquals(42L, extractor.getKey(MessageBuilder.withPayload(new Order(new Customer(42L))).build()));
+	  assertEquals(43L, extractor.getKey(MessageBuilder.withPayload(new Order(new Customer(43L))).build()));
+	  assertNull(extractor.getKey(MessageBuilder.withPayload(new Order(null)).build()));
+
+	  assertEquals("foo", new PropertyPathEntityKeyExtractor("payload").getKey(MessageBuilder.withPayload("foo").build()));
+	  assertEquals(7, new PropertyPathEntityKeyExtractor("headers.orderId").getKey(
+			  MessageBuilder.withPayload("foo").setHeader("orderId", 7).build()));
+	  assertEquals("bar", new PropertyPathEntityKeyExtractor("payload.id").getKey(
+			  MessageBuilder.withPayload(Collections.singletonMap("id", "bar")).build()));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoSuchProperty(){
+	  new PropertyPathEntityKeyExtractor("payload.nothing").getKey(MessageBuilder.withPayload(new Order(null)).build());
+  }
+
+  @Test
+  public void testMemoized(){
+	  final AtomicInteger count = new AtomicInteger();
+	  MemoizingEntityKeyExtractor<Object, Object> extractor = new MemoizingEntityKeyExtractor<Object, Object>(
+			  new EntityKeyExtractor<Object, Object>() {
+				  public Object getKey(Object entity) {
+					  count.incrementAndGet();
+					  return entity.toString();
+				  }
+			  });
+	  Message<String> message = MessageBuilder.withPayload("foo").build();
+	  assertEquals(extractor.getKey(message), extractor.getKey(message));
+	  assertEquals(1, count.get());
+	  extractor.getKey(MessageBuilder.withPayload("foo").build());
+	  assertEquals(2, count.get());
+	  extractor.clear();
+	  extractor.getKey(message);
+	  assertEquals(3, count.get());
+  }
+
+  @Test
+  public void testDispatchLongKeys(){
+	  LocalEntityLock entityLock = new LocalEntityLock("dispatcher");
+	  Dispatcher dispatcher = new Dispatcher(entityLock);
+	  dispatcher.setEntityKeyExtractor(new HeaderEntityKeyExtractor("orderId"));
+	  assertNotNull(dispatcher.dispatch(MessageBuilder.withPayload("1").setHeader("orderId", 1L).build()));
+	  assertNull(dispatcher.dispatch(MessageBuilder.withPayload("2").setHeader("orderId", 1L).build()));
+	  assertNotNull(dispatcher.dispatch(MessageBuilder.withPayload("3").setHeader("orderId", 2L).build()));
+	  assertTrue(entityLock.exists(1L));
+	  assertFalse(entityLock.exists("1"));
+
+	  entityLock.releaseEntity(1L, "dispatcher");
+	  Message<?> queued = dispatcher.processQueue(1L);
+	  assertEquals("2", queued.getPayload());
+	  assertEquals(1L, queued.getHeaders().get(Dispatcher.ENTITY_KEY_HEADER));
+  }
+
+  public static class Order {
+	  private final Customer customer;
+	  public Order(Customer customer) {
+		  this.customer = customer;
+	  }
+	  public Customer getCustomer() {
+		  return customer;
+	  }
+  }
+
+  public static class Customer {
+	  private final long id;
+	  public Customer(long id) {
+		  this.id = id;
+	  }
+	  public long getId() {
+		  return id;
+	  }
+  }
+}
@@ -0,0 +1,93 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.strictordering.LockNode;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.EntryEvent;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+import com.gemstone.gemfire.cache.util.CacheListenerAdapter;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class EntityLockReaperTest {
+	private static final long LEASE_TIME = 100;
+
+	private Cache cache;
+	private GemfireEntityLock entityLock;
+	private EntityLockReaper reaper;
+	private final List<LockNode> released = new CopyOnWriteArrayList<LockNode>();
+
+	@Before
+	public void setUp() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		Region<EntityLockKey, EntityLockEntry> region = cache.<EntityLockKey, EntityLockEntry>createRegionFactory(RegionShortcut.REPLICATE).create("entityLocks");
+		// as the dispatcher's CacheListeningMessageProducer does
+		region.getAttributesMutator().addCacheListener(new CacheListenerAdapter<EntityLockKey, EntityLockEntry>() {
+			@Override
+			public void afterDestroy(EntryEvent<EntityLockKey, EntityLockEntry> event) {
+				released.add(event.getOldValue().getReleasedLockNode());
+			}
+		});
+		entityLock = new GemfireEntityLock(region, "dispatcher");
+		entityLock.setLeaseTime(LEASE_TIME);
+		reaper = new EntityLockReaper(region);
+		reaper.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		reaper.destroy();
+		cache.close();
+	}
+
+	@Test
+	public void testExpiredLockIsReleased() throws Exception {
+		entityLock.lockEntity("entity", "dispatcher");
+		entityLock.fork("entity", null, "server1", "server2");
+		entityLock.releaseEntity("entity", "server1");
+		assertEquals(1, reaper.getLeaseCount());
+		assertEquals(0, reaper.reap());
+
+		Thread.sleep(LEASE_TIME * 2);
+		assertEquals(1, reaper.reap());
+		assertFalse(entityLock.exists("entity"));
+		assertEquals(1, released.size());
+		assertEquals("entity", released.get(0).getEntityKey());
+		assertEquals("server2", released.get(0).getLockName());
+		assertEquals(0, reaper.getLeaseCount());
+	}
+
+	@Test
+	public void testRenewedLockIsKept() throws Exception {
+		entityLock.lockEntity("entity", "dispatcher");
+		Thread.sleep(LEASE_TIME / 2);
+		assertTrue(entityLock.renewLease("entity"));
+		Thread.sleep(LEASE_TIME * 3 / 4);
+		assertEquals(0, reaper.reap());
+		assertTrue(entityLock.exists("entity", "dispatcher"));
+		assertTrue(released.isEmpty());
+	}
+
+	@Test
+	public void testReleasedLockIsUnindexed() {
+		entityLock.lockEntity("entity", "dispatcher");
+		entityLock.releaseEntity("entity", "dispatcher");
+		assertEquals(0, reaper.getLeaseCount());
+		assertFalse(entityLock.renewLease("entity"));
+	}
+}
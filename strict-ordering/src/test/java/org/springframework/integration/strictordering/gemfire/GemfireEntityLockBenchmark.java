@@ -0,0 +1,101 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+
+/**
+ * Measures {@link GemfireEntityLock#exists(Object)} and {@link GemfireEntityLock#getLocks(Object)} against an embedded
+ * cache holding 100k live locks. Excluded from the default build, run it explicitly, e.g.,
+ * mvn test -Dtest=GemfireEntityLockBenchmark
+ *
+ * @author David Turanski
+ *
+ */
+public class GemfireEntityLockBenchmark {
+	private static final int NUM_LOCKS = 100000;
+	private static final int NUM_LOOKUPS = 1000000;
+	private static Logger logger = Logger.getLogger(GemfireEntityLockBenchmark.class);
+
+	private static Cache cache;
+	private static GemfireEntityLock entityLock;
+
+	@BeforeClass
+	public static void setUp() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		Region<EntityLockKey, EntityLockEntry> region = cache.<EntityLockKey, EntityLockEntry>createRegionFactory(RegionShortcut.REPLICATE).create("entityLocks");
+		Map<EntityLockKey, EntityLockEntry> locks = new HashMap<EntityLockKey, EntityLockEntry>();
+		for (int i = 0; i < NUM_LOCKS; i++) {
+			EntityLockEntry entry = new EntityLockEntry("entity-" + i, "dispatcher", "dispatcher");
+			locks.put(entry.getKey(), entry);
+		}
+		region.putAll(locks);
+		entityLock = new GemfireEntityLock(region, "dispatcher");
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void benchmarkExists() {
+		assertTrue(entityLock.exists("entity-0"));
+		assertFalse(entityLock.exists("no-such-entity"));
+		long start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < NUM_LOOKUPS; i++) {
+			if (entityLock.exists("entity-" + (i % (2 * NUM_LOCKS)))) {
+				found++;
+			}
+		}
+		report("exists", start);
+		assertEquals(NUM_LOOKUPS / 2, found);
+	}
+
+	@Test
+	public void benchmarkGetLocks() {
+		long start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < NUM_LOOKUPS; i++) {
+			found += entityLock.getLocks("entity-" + (i % NUM_LOCKS)).size();
+		}
+		report("getLocks", start);
+		assertEquals(NUM_LOOKUPS, found);
+	}
+
+	@Test
+	public void benchmarkLockAndRelease() {
+		long start = System.nanoTime();
+		for (int i = 0; i < NUM_LOOKUPS / 10; i++) {
+			String entityKey = "benchmark-" + i;
+			entityLock.lockEntity(entityKey, "dispatcher");
+			entityLock.releaseEntity(entityKey, "dispatcher");
+		}
+		report("lockEntity/releaseEntity", start, NUM_LOOKUPS / 10);
+		assertFalse(entityLock.exists("benchmark-0"));
+	}
+
+	private void report(String operation, long start) {
+		report(operation, start, NUM_LOOKUPS);
+	}
+
+	private void report(String operation, long start, int count) {
+		long elapsed = System.nanoTime() - start;
+		logger.info(operation + ": " + count + " operations with " + NUM_LOCKS + " live locks in " + elapsed / 1000000
+				+ " ms (" + elapsed / count + " ns/op)");
+	}
+}
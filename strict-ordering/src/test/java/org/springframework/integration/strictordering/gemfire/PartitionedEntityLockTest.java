@@ -0,0 +1,96 @@
+package org.springframework.integration.strictordering.gemfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+
+/**
+ *
+ * @author David Turanski
+ *
+ */
+public class PartitionedEntityLockTest {
+	private Cache cache;
+	private PartitionedEntityLock entityLock;
+
+	@Before
+	public void setUp() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		Region<EntityLockKey, EntityLockEntry> region = cache.<EntityLockKey, EntityLockEntry>createRegionFactory(RegionShortcut.PARTITION).create("entityLocks");
+		entityLock = new PartitionedEntityLock(region, "dispatcher");
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void testLockIfAbsent() {
+		assertTrue(entityLock.lockEntityIfAbsent("entity", "dispatcher"));
+		assertFalse(entityLock.lockEntityIfAbsent("entity", "dispatcher"));
+		assertTrue(entityLock.exists("entity"));
+		entityLock.releaseEntity("entity", "dispatcher");
+		assertFalse(entityLock.exists("entity"));
+		assertTrue(entityLock.lockEntityIfAbsent("entity", "dispatcher"));
+	}
+
+	@Test
+	public void testForkAndRelease() {
+		entityLock.lockEntity(1L, "dispatcher");
+		entityLock.fork(1L, null, "server1", "server2");
+		assertEquals(2, entityLock.getLocks(1L).size());
+		entityLock.releaseEntity(1L, "server1");
+		assertTrue(entityLock.exists(1L));
+		entityLock.releaseEntity(1L, "server2");
+		assertFalse(entityLock.exists(1L));
+	}
+
+	@Test
+	public void testCompositeKeyWithoutToString() {
+		// equal keys with different string forms share one lock
+		assertTrue(entityLock.lockEntityIfAbsent(new OrderLine(1L, 2), "dispatcher"));
+		assertFalse(entityLock.lockEntityIfAbsent(new OrderLine(1L, 2), "dispatcher"));
+		assertEquals(1, entityLock.lockEntitiesIfAbsent(Arrays.asList(new OrderLine(1L, 2), new OrderLine(1L, 3)),
+				"dispatcher").size());
+		entityLock.releaseEntity(new OrderLine(1L, 2), "dispatcher");
+		assertFalse(entityLock.exists(new OrderLine(1L, 2)));
+		assertTrue(entityLock.exists(new OrderLine(1L, 3)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForkWithoutLock() {
+		entityLock.fork("entity", "server1", "server2");
+	}
+
+	@SuppressWarnings("serial")
+	private static class OrderLine implements Serializable {
+		private final long order;
+		private final int line;
+
+		OrderLine(long order, int line) {
+			this.order = order;
+			this.line = line;
+		}
+
+		public boolean equals(Object other) {
+			return (other instanceof OrderLine) && ((OrderLine) other).order == order && ((OrderLine) other).line == line;
+		}
+
+		public int hashCode() {
+			return 31 * (int) (order ^ (order >>> 32)) + line;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.springframework.integration.strictordering.local;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.integration.strictordering.EntityLock;
+import org.springframework.integration.strictordering.gemfire.EntityLockEntry;
+import org.springframework.integration.strictordering.gemfire.EntityLockKey;
+import org.springframework.integration.strictordering.gemfire.GemfireEntityLock;
+
+import com.gemstone.gemfire.cache.Cache;
+import com.gemstone.gemfire.cache.CacheFactory;
+import com.gemstone.gemfire.cache.Region;
+import com.gemstone.gemfire.cache.RegionShortcut;
+
+/**
+ * Compares the {@link LocalEntityLock} with the {@link GemfireEntityLock} on an embedded cache, running the
+ * dispatch cycle (exists, lockEntity, fork, releaseEntity) from one and from several threads. Excluded from
+ * the default build, run it explicitly, e.g., mvn test -Dtest=LocalEntityLockBenchmark
+ *
+ * @author David Turanski
+ *
+ */
+public class LocalEntityLockBenchmark {
+	private static final int NUM_CYCLES = 100000;
+	private static final int NUM_THREADS = 8;
+	private static final String[] BRANCHES = {"server1", "server2", "server3"};
+	private static Logger logger = Logger.getLogger(LocalEntityLockBenchmark.class);
+
+	private static Cache cache;
+	private static Region<EntityLockKey, EntityLockEntry> region;
+
+	@BeforeClass
+	public static void setUp() {
+		cache = new CacheFactory().set("mcast-port", "0").set("log-level", "warning").create();
+		region = cache.<EntityLockKey, EntityLockEntry>createRegionFactory(RegionShortcut.REPLICATE).create("entityLocks");
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void benchmarkSingleThread() throws Exception {
+		run("local", new LocalEntityLock("dispatcher"), 1);
+		run("gemfire", new GemfireEntityLock(region, "dispatcher"), 1);
+	}
+
+	@Test
+	public void benchmarkMultiThread() throws Exception {
+		run("local", new LocalEntityLock("dispatcher"), NUM_THREADS);
+		run("gemfire", new GemfireEntityLock(region, "dispatcher"), NUM_THREADS);
+	}
+
+	private void run(String name, final EntityLock entityLock, int numThreads) throws Exception {
+		// warm up
+		cycle(entityLock, "warmup-", NUM_CYCLES / 10);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		final CountDownLatch done = new CountDownLatch(numThreads);
+		final int cyclesPerThread = NUM_CYCLES / numThreads;
+		long start = System.nanoTime();
+		for (int t = 0; t < numThreads; t++) {
+			final String prefix = name + "-" + t + "-";
+			executor.execute(new Runnable() {
+				public void run() {
+					cycle(entityLock, prefix, cyclesPerThread);
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.MINUTES));
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		int cycles = cyclesPerThread * numThreads;
+		logger.info(name + " [" + numThreads + " threads]: " + cycles + " cycles in " + elapsed / 1000000 + " ms ("
+				+ elapsed / cycles + " ns/cycle, " + (long) (cycles / (elapsed / 1e9)) + " cycles/s)");
+		assertFalse(entityLock.exists(name + "-0-0"));
+	}
+
+	private static void cycle(EntityLock entityLock, String prefix, int count) {
+		for (int i = 0; i < count; i++) {
+			String entityKey = prefix + i;
+			if (!entityLock.exists(entityKey)) {
+				entityLock.lockEntity(entityKey, "dispatcher");
+			}
+			entityLock.fork(entityKey, null, BRANCHES);
+			for (String branch : BRANCHES) {
+				entityLock.releaseEntity(entityKey, branch);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.springframework.integration.strictordering.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class HistogramTest {
+
+  @Test
+  public void testEmpty(){
+	  Histogram histogram = new Histogram();
+	  assertEquals(0, histogram.getCount());
+	  assertEquals(0, histogram.getPercentile(99));
+	  assertEquals(0.0, histogram.getMean(), 0.0);
+  }
+
+  @Test
+  public void testBuckets(){
+	  for (long value = 0; value < 100000; value++) {
+		  int bucket = Histogram.bucketFor(value);
+		  assertTrue(value <= Histogram.upperBound(bucket));
+		  assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+	  }
+	  assertTrue(Histogram.bucketFor(Long.MAX_VALUE) < (64 - 3) * 8);
+  }
+
+  @Test
+  public void testPercentiles(){
+	  Histogram histogram = new Histogram();
+	  for (long value = 1; value <= 1000; value++) {
+		  histogram.record(value);
+	  }
+	  assertEquals(1000, histogram.getCount());
+	  assertEquals(1000, histogram.getMax());
+	  assertEquals(500.5, histogram.getMean(), 0.001);
+	  long p50 = histogram.getPercentile(50);
+	  assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+	  long p99 = histogram.getPercentile(99);
+	  assertTrue(p99 >= 990 && p99 <= 1000);
+	  histogram.reset();
+	  assertEquals(0, histogram.getCount());
+  }
+
+  @Test
+  public void testHotKeys(){
+	  HotKeySketch sketch = new HotKeySketch(1024, 3);
+	  for (int i = 0; i < 10000; i++) {
+		  sketch.add("key-" + i);
+		  if (i % 10 == 0) {
+			  sketch.add("hot-1");
+		  }
+		  if (i % 20 == 0) {
+			  sketch.add("hot-2");
+		  }
+	  }
+	  assertTrue(sketch.estimate("hot-1") >= 1000);
+	  List<Map.Entry<Object, Long>> hotKeys = sketch.getHotKeys();
+	  assertEquals(3, hotKeys.size());
+	  assertEquals("hot-1", hotKeys.get(0).getKey());
+	  assertEquals("hot-2", hotKeys.get(1).getKey());
+  }
+}